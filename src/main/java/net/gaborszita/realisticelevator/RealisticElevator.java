@@ -42,14 +42,19 @@ public class RealisticElevator extends JavaPlugin {
   @Override
   public void onEnable() {
     getLogger().info("Loading RealisticElevator");
+    saveDefaultConfig();
     CommandManager commandManager = new CommandManager();
     manager = new ElevatorManager(this);
     commandManager.registerCommand(new AddDoor(manager));
     commandManager.registerCommand(new AddFloor(this, manager));
     commandManager.registerCommand(new AddFloorDoor(manager));
+    commandManager.registerCommand(new AddGroupElevator(manager));
     commandManager.registerCommand(new CreateElevator(this, manager));
+    commandManager.registerCommand(new CreateGroup(manager));
     commandManager.registerCommand(new DeleteElevator(manager));
+    commandManager.registerCommand(new DeleteGroup(manager));
     commandManager.registerCommand(new ElevatorInfo(manager));
+    commandManager.registerCommand(new ExportElevators(manager));
     commandManager.registerCommand(new GetFloorCallButton(manager));
     commandManager.registerCommand(new GetMasterBlock(manager));
     commandManager.registerCommand(new GoToFloor(manager));
@@ -57,12 +62,20 @@ public class RealisticElevator extends JavaPlugin {
     commandManager.registerCommand(new ListElevators(manager));
     commandManager.registerCommand(new ListFloorDoors(manager));
     commandManager.registerCommand(new ListFloors(manager));
+    commandManager.registerCommand(new ListGroups(manager));
     commandManager.registerCommand(new RemoveDoor(manager));
     commandManager.registerCommand(new RemoveFloor(manager));
     commandManager.registerCommand(new RemoveFloorCallButton(manager));
     commandManager.registerCommand(new RemoveFloorDoor(manager));
+    commandManager.registerCommand(new RemoveGroupCallButton(manager));
+    commandManager.registerCommand(new RemoveGroupElevator(manager));
+    commandManager.registerCommand(new RemoveGroupPanel(manager));
     commandManager.registerCommand(new SetElevatorLocation(manager));
     commandManager.registerCommand(new SetFloorCallButton(manager));
+    commandManager.registerCommand(new SetGroupCallButton(manager));
+    commandManager.registerCommand(new SetGroupPanel(manager));
+    commandManager.registerCommand(new SetWriteMode(manager));
+    commandManager.registerCommand(new SetTransitMode(manager));
     Objects.requireNonNull(this.getCommand("elevator"))
         .setExecutor(new CommandListener(commandManager));
 
@@ -72,9 +85,13 @@ public class RealisticElevator extends JavaPlugin {
       runners.add(new AddDoor(manager));
       runners.add(new AddFloor(this, manager));
       runners.add(new AddFloorDoor(manager));
+      runners.add(new AddGroupElevator(manager));
       runners.add(new CreateElevator(this, manager));
+      runners.add(new CreateGroup(manager));
       runners.add(new DeleteElevator(manager));
+      runners.add(new DeleteGroup(manager));
       runners.add(new ElevatorInfo(manager));
+      runners.add(new ExportElevators(manager));
       runners.add(new GetFloorCallButton(manager));
       runners.add(new GetMasterBlock(manager));
       runners.add(new GoToFloor(manager));
@@ -82,12 +99,20 @@ public class RealisticElevator extends JavaPlugin {
       runners.add(new ListElevators(manager));
       runners.add(new ListFloorDoors(manager));
       runners.add(new ListFloors(manager));
+      runners.add(new ListGroups(manager));
       runners.add(new RemoveDoor(manager));
       runners.add(new RemoveFloor(manager));
       runners.add(new RemoveFloorCallButton(manager));
       runners.add(new RemoveFloorDoor(manager));
+      runners.add(new RemoveGroupCallButton(manager));
+      runners.add(new RemoveGroupElevator(manager));
+      runners.add(new RemoveGroupPanel(manager));
       runners.add(new SetElevatorLocation(manager));
       runners.add(new SetFloorCallButton(manager));
+      runners.add(new SetGroupCallButton(manager));
+      runners.add(new SetGroupPanel(manager));
+      runners.add(new SetWriteMode(manager));
+      runners.add(new SetTransitMode(manager));
       writer.write("Command,Description,Usage,Arguments,Permission" +
           System.lineSeparator());
       for (CommandRunner runner : runners) {
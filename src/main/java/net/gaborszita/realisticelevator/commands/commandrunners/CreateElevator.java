@@ -58,7 +58,7 @@ public class CreateElevator implements CommandRunner {
     }
     if (sender instanceof Player) {
       Player player = (Player) sender;
-      if (manager.containsElevator(name)) {
+      if (manager.containsElevator(name) || manager.isDormant(name)) {
         sender.sendMessage(ChatColor.RED + "Elevator with name " + name + " " +
             "already exists.");
       } else {
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.gaborszita.realisticelevator.commands.commandrunners;
+
+import net.gaborszita.realisticelevator.commands.commandmanager.CommandRunner;
+import net.gaborszita.realisticelevator.elevator.ElevatorManager;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+import javax.annotation.Nonnull;
+
+public class CreateGroup implements CommandRunner {
+  private final ElevatorManager manager;
+
+  public CreateGroup(ElevatorManager manager) {
+    this.manager = manager;
+  }
+
+  @Override
+  public void runCommand(@Nonnull CommandSender sender,
+                         @Nonnull String[] args) {
+    if (args.length != 1) {
+      sender.sendMessage(getInvalidUsageMessage());
+      return;
+    }
+    String name = args[0];
+    if (manager.containsGroup(name)) {
+      sender.sendMessage(ChatColor.RED + "Group with name " + name + " " +
+          "already exists.");
+    } else if (manager.createGroup(name)) {
+      sender.sendMessage("Group " + name + " created.");
+    } else {
+      sender.sendMessage(ChatColor.RED + "Error creating group " + name
+          + ".\n"
+          + "Please check server logs for more information.");
+    }
+  }
+
+  @Nonnull
+  @Override
+  public String getCommand() {
+    return "creategroup";
+  }
+
+  @Nonnull
+  @Override
+  public String getDescription() {
+    return "Creates a group of elevators sharing their call buttons.";
+  }
+
+  @Nonnull
+  @Override
+  public String getUsage() {
+    return "/elevator " + getCommand() + " [name]";
+  }
+
+  @Nonnull
+  @Override
+  public String getArguments() {
+    return "[name] - Name of the group";
+  }
+}
@@ -41,7 +41,7 @@ public class DeleteElevator implements CommandRunner {
       return;
     }
     String name = args[0];
-    if (!manager.containsElevator(name)) {
+    if (!manager.containsElevator(name) && !manager.isDormant(name)) {
       sender.sendMessage(ChatColor.RED + "Elevator " + name + " does not " +
           "exist");
     } else if (manager.deleteElevator(name)) {
@@ -27,6 +27,7 @@ import org.bukkit.Location;
 import org.bukkit.command.CommandSender;
 
 import javax.annotation.Nonnull;
+import java.util.Locale;
 import java.util.Objects;
 
 public class GetFloorCallButton implements CommandRunner {
@@ -61,17 +62,26 @@ public class GetFloorCallButton implements CommandRunner {
       if (!elevator.containsFloor(floorNumber)) {
       sender.sendMessage(ChatColor.RED + "Floor " + floorNumber + " does not " +
           "exist.");
-      } else if (Objects.requireNonNull(elevator.getFloor(floorNumber))
-          .getCallButton() == null) {
-        sender.sendMessage("Floor " + floorNumber + " has no call " +
-            "button.");
       } else {
-        Location loc =
-            Objects.requireNonNull(elevator.getFloor(floorNumber))
-                .getCallButton();
-        sender.sendMessage("Floor " + floorNumber + " call button: " +
-            Objects.requireNonNull(loc)
-                .getBlockX() + " " + loc.getBlockY() + " " + loc.getBlockZ());
+        Elevator.Floor floor =
+            Objects.requireNonNull(elevator.getFloor(floorNumber));
+        boolean found = false;
+        for (Elevator.CallDirection direction :
+            Elevator.CallDirection.values()) {
+          Location loc = floor.getCallButton(direction);
+          if (loc != null) {
+            found = true;
+            sender.sendMessage("Floor " + floorNumber + " " +
+                (direction == Elevator.CallDirection.ANY ? "" :
+                    direction.name().toLowerCase(Locale.ROOT) + " ") +
+                "call button: " + loc.getBlockX() + " " + loc.getBlockY() +
+                " " + loc.getBlockZ());
+          }
+        }
+        if (!found) {
+          sender.sendMessage("Floor " + floorNumber + " has no call " +
+              "button.");
+        }
       }
     }
   }
@@ -85,7 +95,7 @@ public class GetFloorCallButton implements CommandRunner {
   @Nonnull
   @Override
   public String getDescription() {
-    return "Gets the location of the floor call button for a floor.";
+    return "Gets the locations of the floor call buttons for a floor.";
   }
 
   @Nonnull
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.gaborszita.realisticelevator.commands.commandrunners;
+
+import net.gaborszita.realisticelevator.commands.commandmanager.CommandRunner;
+import net.gaborszita.realisticelevator.elevator.ElevatorGroup;
+import net.gaborszita.realisticelevator.elevator.ElevatorManager;
+import org.bukkit.command.CommandSender;
+
+import javax.annotation.Nonnull;
+
+public class ListGroups implements CommandRunner {
+  private final ElevatorManager manager;
+
+  public ListGroups(ElevatorManager manager) {
+    this.manager = manager;
+  }
+
+  @Override
+  public void runCommand(@Nonnull CommandSender sender,
+                         @Nonnull String[] args) {
+    if (args.length != 0) {
+      sender.sendMessage(getInvalidUsageMessage());
+      return;
+    }
+    StringBuilder message = new StringBuilder("Elevator groups on server:");
+    for (ElevatorGroup group : manager.getGroups().values()) {
+      message.append("\n").append(group.getName()).append(": ")
+          .append(String.join(", ", group.getElevators()));
+    }
+    sender.sendMessage(message.toString());
+  }
+
+  @Nonnull
+  @Override
+  public String getCommand() {
+    return "listgroups";
+  }
+
+  @Nonnull
+  @Override
+  public String getDescription() {
+    return "Lists all elevator groups and their elevators.";
+  }
+
+  @Nonnull
+  @Override
+  public String getUsage() {
+    return "/elevator " + getCommand();
+  }
+
+  @Nonnull
+  @Override
+  public String getArguments() {
+    return "";
+  }
+}
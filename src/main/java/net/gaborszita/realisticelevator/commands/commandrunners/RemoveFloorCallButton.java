@@ -26,6 +26,7 @@ import org.bukkit.ChatColor;
 import org.bukkit.command.CommandSender;
 
 import javax.annotation.Nonnull;
+import java.util.Locale;
 import java.util.Objects;
 
 public class RemoveFloorCallButton implements CommandRunner {
@@ -38,7 +39,7 @@ public class RemoveFloorCallButton implements CommandRunner {
   @Override
   public void runCommand(@Nonnull CommandSender sender,
                          @Nonnull String[] args) {
-    if (args.length != 2) {
+    if (args.length != 2 && args.length != 3) {
       sender.sendMessage(getInvalidUsageMessage());
       return;
     }
@@ -50,6 +51,16 @@ public class RemoveFloorCallButton implements CommandRunner {
       sender.sendMessage(getInvalidUsageMessage());
       return;
     }
+    Elevator.CallDirection direction = Elevator.CallDirection.ANY;
+    if (args.length == 3) {
+      try {
+        direction = Elevator.CallDirection.valueOf(
+            args[2].toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException e) {
+        sender.sendMessage(getInvalidUsageMessage());
+        return;
+      }
+    }
     if (!manager.containsElevator(elevatorName)) {
       sender.sendMessage(ChatColor.RED + "Elevator with name " + elevatorName + " " +
           "does not exist.");
@@ -60,10 +71,10 @@ public class RemoveFloorCallButton implements CommandRunner {
       if (floor == null) {
         sender.sendMessage(ChatColor.RED + "Floor " + floorNumber + " does " +
             "not exist.");
-      } else if (floor.getCallButton() == null) {
+      } else if (floor.getCallButton(direction) == null) {
         sender.sendMessage(ChatColor.RED + "Floor " + floorNumber + " has no " +
             "call button.");
-      } else if (floor.setCallButton(null)) {
+      } else if (floor.setCallButton(null, direction)) {
         sender.sendMessage("Call button removed from floor " + floorNumber +
             ".");
       } else {
@@ -89,13 +100,16 @@ public class RemoveFloorCallButton implements CommandRunner {
   @Nonnull
   @Override
   public String getUsage() {
-    return "/elevator " + getCommand() + " [elevator name] [floor number]";
+    return "/elevator " + getCommand() + " [elevator name] [floor number] " +
+        "[any|up|down]";
   }
 
   @Nonnull
   @Override
   public String getArguments() {
     return "[elevator name] - Name of the elevator\n" +
-        "[floor number] - Number of the floor to remove call button from";
+        "[floor number] - Number of the floor to remove call button from\n" +
+        "[any|up|down] - Optional, direction of the call button, any by " +
+        "default";
   }
 }
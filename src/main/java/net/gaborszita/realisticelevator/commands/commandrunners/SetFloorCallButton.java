@@ -27,6 +27,7 @@ import org.bukkit.Location;
 import org.bukkit.command.CommandSender;
 
 import javax.annotation.Nonnull;
+import java.util.Locale;
 import java.util.Objects;
 
 public class SetFloorCallButton implements CommandRunner {
@@ -39,7 +40,7 @@ public class SetFloorCallButton implements CommandRunner {
   @Override
   public void runCommand(@Nonnull CommandSender sender,
                          @Nonnull String[] args) {
-    if (args.length != 5) {
+    if (args.length != 5 && args.length != 6) {
       sender.sendMessage(getInvalidUsageMessage());
       return;
     }
@@ -61,6 +62,16 @@ public class SetFloorCallButton implements CommandRunner {
         return;
       }
     }
+    Elevator.CallDirection direction = Elevator.CallDirection.ANY;
+    if (args.length == 6) {
+      try {
+        direction = Elevator.CallDirection.valueOf(
+            args[5].toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException e) {
+        sender.sendMessage(getInvalidUsageMessage());
+        return;
+      }
+    }
 
     if (!manager.containsElevator(elevatorName)) {
       sender.sendMessage(ChatColor.RED + "Elevator with name " + elevatorName + " " +
@@ -73,7 +84,8 @@ public class SetFloorCallButton implements CommandRunner {
         sender.sendMessage(ChatColor.RED + "Floor " + floorNumber + " does " +
             "not exist.");
       } else if (floor.setCallButton(new Location(
-          elevator.getLoc1().getWorld(), coords[0], coords[1], coords[2]))) {
+          elevator.getLoc1().getWorld(), coords[0], coords[1], coords[2]),
+          direction)) {
         sender.sendMessage("Call button added to floor " + floorNumber + ".");
       } else {
         sender.sendMessage(ChatColor.RED + "Error adding call button to " +
@@ -92,14 +104,14 @@ public class SetFloorCallButton implements CommandRunner {
   @Nonnull
   @Override
   public String getDescription() {
-    return "Sets the call button for a floor.";
+    return "Sets a call button for a floor.";
   }
 
   @Nonnull
   @Override
   public String getUsage() {
     return "/elevator " + getCommand() + " [elevator name] [floor number] " +
-        "[x] [y] [z]";
+        "[x] [y] [z] [any|up|down]";
   }
 
   @Nonnull
@@ -107,6 +119,9 @@ public class SetFloorCallButton implements CommandRunner {
   public String getArguments() {
     return "[elevator name] - Name of the elevator\n" +
         "[floor number] - Number of the floor to add call button to\n" +
-        "[x] [y] [z] - Coordinates of the call button";
+        "[x] [y] [z] - Coordinates of the call button\n" +
+        "[any|up|down] - Optional, direction of the call button, any by " +
+        "default. Up and down calls are only served by a car going in " +
+        "that direction, or at the end of its sweep";
   }
 }
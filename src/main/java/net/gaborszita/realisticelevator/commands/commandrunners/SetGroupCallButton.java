@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.gaborszita.realisticelevator.commands.commandrunners;
+
+import net.gaborszita.realisticelevator.commands.commandmanager.CommandRunner;
+import net.gaborszita.realisticelevator.elevator.ElevatorGroup;
+import net.gaborszita.realisticelevator.elevator.ElevatorManager;
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+import javax.annotation.Nonnull;
+import java.util.Objects;
+
+public class SetGroupCallButton implements CommandRunner {
+  private final ElevatorManager manager;
+
+  public SetGroupCallButton(ElevatorManager manager) {
+    this.manager = manager;
+  }
+
+  @Override
+  public void runCommand(@Nonnull CommandSender sender,
+                         @Nonnull String[] args) {
+    if (args.length != 5) {
+      sender.sendMessage(getInvalidUsageMessage());
+      return;
+    }
+    String groupName = args[0];
+    int floorNumber;
+    try {
+      floorNumber = Integer.parseInt(args[1]);
+    } catch (NumberFormatException e) {
+      sender.sendMessage(getInvalidUsageMessage());
+      return;
+    }
+
+    int[] coords = new int[3];
+    for (int i = 2; i < 5; i++) {
+      try {
+        coords[i - 2] = Integer.parseInt(args[i]);
+      } catch (NumberFormatException e) {
+        sender.sendMessage(getInvalidUsageMessage());
+        return;
+      }
+    }
+
+    if (!(sender instanceof Player)) {
+      sender.sendMessage(playerNeedsToRunCommandMessage);
+    } else if (!manager.containsGroup(groupName)) {
+      sender.sendMessage(ChatColor.RED + "Group " + groupName + " does not " +
+          "exist.");
+    } else {
+      ElevatorGroup group =
+          Objects.requireNonNull(manager.getGroup(groupName));
+      Location loc = new Location(((Player) sender).getWorld(), coords[0],
+          coords[1], coords[2]);
+      try {
+        if (group.setCallButton(floorNumber, loc)) {
+          sender.sendMessage("Call button of floor " + floorNumber +
+              " set for group " + groupName + ".");
+        } else {
+          sender.sendMessage(ChatColor.RED + "Error setting call button " +
+              "of floor " + floorNumber + ".\n" +
+              "Please check server logs for more information.");
+        }
+      } catch (IllegalArgumentException e) {
+        sender.sendMessage(ChatColor.RED + e.getMessage());
+      }
+    }
+  }
+
+  @Nonnull
+  @Override
+  public String getCommand() {
+    return "setgroupcallbutton";
+  }
+
+  @Nonnull
+  @Override
+  public String getDescription() {
+    return "Sets the call button of a floor shared by a group.";
+  }
+
+  @Nonnull
+  @Override
+  public String getUsage() {
+    return "/elevator " + getCommand() + " [group name] [floor number] " +
+        "[x] [y] [z]";
+  }
+
+  @Nonnull
+  @Override
+  public String getArguments() {
+    return "[group name] - Name of the group\n" +
+        "[floor number] - Number of the floor in the group's elevators\n" +
+        "[x] [y] [z] - Coordinates of the call button";
+  }
+}
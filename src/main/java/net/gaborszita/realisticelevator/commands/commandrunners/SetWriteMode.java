@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.commands.commandrunners;
+
+import net.gaborszita.realisticelevator.commands.commandmanager.CommandRunner;
+import net.gaborszita.realisticelevator.elevator.Elevator;
+import net.gaborszita.realisticelevator.elevator.ElevatorManager;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+import javax.annotation.Nonnull;
+import java.util.Locale;
+import java.util.Objects;
+
+public class SetWriteMode implements CommandRunner {
+  private final ElevatorManager manager;
+
+  public SetWriteMode(ElevatorManager manager) {
+    this.manager = manager;
+  }
+
+  @Override
+  public void runCommand(@Nonnull CommandSender sender,
+                         @Nonnull String[] args) {
+    if (args.length != 2) {
+      sender.sendMessage(getInvalidUsageMessage());
+      return;
+    }
+    String name = args[0];
+    Elevator.WriteMode writeMode;
+    try {
+      writeMode = Elevator.WriteMode.valueOf(args[1].toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      sender.sendMessage(getInvalidUsageMessage());
+      return;
+    }
+
+    if (!manager.containsElevator(name)) {
+      sender.sendMessage(ChatColor.RED + "Elevator with name " + name + " " +
+          "does not exist.");
+    } else {
+      Elevator elevator = Objects.requireNonNull(manager.getElevator(name));
+      if (elevator.setWriteMode(writeMode)) {
+        sender.sendMessage("Elevator " + name + " write mode set to " +
+            writeMode.name().toLowerCase(Locale.ROOT) + ".");
+      } else {
+        sender.sendMessage(ChatColor.RED + "Error setting elevator " + name +
+            " write mode.\n"
+            + "Please check server logs for more information.");
+      }
+    }
+  }
+
+  @Nonnull
+  @Override
+  public String getCommand() {
+    return "setwritemode";
+  }
+
+  @Nonnull
+  @Override
+  public String getDescription() {
+    return "Sets how an elevator writes its blocks when moving.";
+  }
+
+  @Nonnull
+  @Override
+  public String getUsage() {
+    return "/elevator " + getCommand() + " [elevator name] " +
+        "[immediate|deferred]";
+  }
+
+  @Nonnull
+  @Override
+  public String getArguments() {
+    return "[elevator name] - Name of the elevator\n"
+        + "[immediate|deferred] - immediate applies physics to every block, "
+        + "deferred only updates the neighbors of the elevator once per step";
+  }
+}
@@ -0,0 +1,1297 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Stores the elevators in a memory mapped binary file made of fixed size
+ * records. Every elevator is stored as an elevator record holding its
+ * location and modes, followed by name, door, floor, floor call buttons,
+ * floor door and car geometry records which reference the elevator by its
+ * id. Coordinates are stored as ints. Since every record has a known
+ * position in the file, a change only writes the records that changed,
+ * e.g. changing a floor's call button writes a single floor record, and a
+ * car stopping at another floor only writes the car record. Records of
+ * removed data are marked as free and reused.
+ *
+ * <p>Every record carries a CRC-32 checksum and the sequence number of the
+ * change which wrote it. A change never overwrites the records it
+ * replaces: it writes new records with the next sequence number, marks the
+ * replaced records with that sequence number, and commits by writing a new
+ * elevator record. The elevator record holds the number of records of the
+ * elevator and the sum of their checksums. The old elevator record and
+ * the replaced records are only freed once the file was forced to the
+ * disk after the commit, so the previous version stays intact until the
+ * new one is on the disk, whatever order the operating system writes the
+ * pages in. When the file is loaded, the newest elevator record whose
+ * records match its count and checksum sum is used, so a crash in the
+ * middle of a change loads the elevator as it was before or after the
+ * change, never half written. Records of a change which wasn't committed,
+ * and records with a wrong checksum, are freed.
+ *
+ * <p>Records are written directly into the mapped file, so the operating
+ * system writes them to the disk even if the server crashes. The mapped
+ * file is additionally forced to the disk on an asynchronous task after
+ * changes, and when flushing, and the records no longer needed are freed
+ * on the main thread afterwards.
+ *
+ * <p>When an elevator is added, its elevator record is written last, and
+ * when it is removed, its elevator record is freed first. Records whose
+ * elevator record is missing, left behind by a crash, are freed when the
+ * file is loaded.
+ */
+class BinaryElevatorStore implements ElevatorStore {
+  /**
+   * Magic number at the start of the file.
+   */
+  private static final int MAGIC = 0x52454C56;
+
+  /**
+   * File version number.
+   */
+  private static final int VERSION = 2;
+
+  /**
+   * Size of the file header in bytes.
+   */
+  private static final int HEADER_SIZE = 32;
+
+  /**
+   * Size of a record in bytes.
+   */
+  private static final int RECORD_SIZE = 80;
+
+  /**
+   * Offset of the sequence number of the change which wrote a record.
+   */
+  private static final int SEQ_OFFSET = 5;
+
+  /**
+   * Offset of the sequence number of the change which replaced or removed
+   * a record, 0 if it is still in use. Not covered by the checksum, since
+   * it is written after the record.
+   */
+  private static final int REPLACED_OFFSET = 9;
+
+  /**
+   * Offset of the checksum of a record.
+   */
+  private static final int CHECKSUM_OFFSET = 13;
+
+  /**
+   * Offset of the data of a record.
+   */
+  private static final int DATA_OFFSET = 17;
+
+  /**
+   * Maximum number of name bytes in a name record.
+   */
+  private static final int NAME_CHUNK_SIZE = RECORD_SIZE - DATA_OFFSET - 3;
+
+  /**
+   * Offset of the number of used slots in the header.
+   */
+  private static final int SLOT_COUNT_OFFSET = 12;
+
+  /**
+   * Offset of the next elevator id in the header.
+   */
+  private static final int NEXT_ID_OFFSET = 16;
+
+  /**
+   * Record types.
+   */
+  private static final byte FREE = 0, ELEVATOR = 1, NAME = 2, DOOR = 3,
+      FLOOR = 4, FLOOR_DOOR = 5, CAR = 6, CAR_BLOCKS = 7,
+      FLOOR_CALL_BUTTONS = 8;
+
+  /**
+   * Maximum number of car block offsets in a car blocks record.
+   */
+  private static final int CAR_BLOCKS_PER_RECORD = 5;
+
+  /**
+   * Number of ticks to wait after a change before forcing the file to the
+   * disk.
+   */
+  private static final long FORCE_DELAY = 20;
+
+  /**
+   * Plugin instance. Used for logging and scheduling.
+   */
+  private final Plugin plugin;
+
+  /**
+   * Path of the file.
+   */
+  private final File file;
+
+  /**
+   * The mapped file, or null if the file hasn't been loaded yet.
+   */
+  private volatile MappedByteBuffer buffer = null;
+
+  /**
+   * Number of slots in use, including free slots between used ones.
+   */
+  private int slotCount = 0;
+
+  /**
+   * Id of the next elevator added.
+   */
+  private int nextId = 0;
+
+  /**
+   * Free slots below the slot count.
+   */
+  private final BitSet freeSlots = new BitSet();
+
+  /**
+   * Slots of the elevators, by name.
+   */
+  private final Map<String, Slots> elevators = new HashMap<>();
+
+  /**
+   * Calculates the checksums of the records.
+   */
+  private final CRC32 crc = new CRC32();
+
+  /**
+   * Bytes of the record whose checksum is calculated.
+   */
+  private final byte[] record = new byte[RECORD_SIZE];
+
+  /**
+   * Scheduled task forcing the file to the disk, or null if none is
+   * scheduled. Guarded by this.
+   */
+  private BukkitTask task = null;
+
+  /**
+   * Slots of the records replaced or removed since the file was last
+   * forced to the disk. They are freed once it was forced. Guarded by
+   * this.
+   */
+  private List<Integer> obsoleteSlots = new ArrayList<>();
+
+  /**
+   * Incremented whenever the file is loaded or replaced, so slots forced
+   * before that aren't freed in the new file. Guarded by this.
+   */
+  private int generation = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param plugin Plugin instance.
+   * @param file Path of the file.
+   */
+  BinaryElevatorStore(@Nonnull Plugin plugin, @Nonnull File file) {
+    this.plugin = plugin;
+    this.file = file;
+  }
+
+  @Override
+  public boolean exists() {
+    return file.exists();
+  }
+
+  @Nullable
+  @Override
+  public List<ElevatorData> load() {
+    synchronized (this) {
+      generation++;
+      obsoleteSlots.clear();
+    }
+    try {
+      map(Math.max(file.length(), HEADER_SIZE));
+    } catch (IOException e) {
+      plugin.getLogger().severe("Failed to load elevators file."
+          + System.lineSeparator() + e);
+      return null;
+    }
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+        || buffer.getInt(8) != RECORD_SIZE) {
+      plugin.getLogger().severe("Unable to load elevators file. " +
+          "File version is incorrect. " +
+          "Expected: " + VERSION + " " +
+          "Found: " + buffer.getInt(4));
+      buffer = null;
+      return null;
+    }
+    slotCount = buffer.getInt(SLOT_COUNT_OFFSET);
+    nextId = buffer.getInt(NEXT_ID_OFFSET);
+    if ((long) HEADER_SIZE + (long) slotCount * RECORD_SIZE
+        > buffer.capacity()) {
+      plugin.getLogger().severe("Unable to load elevators file. The file "
+          + "is truncated.");
+      buffer = null;
+      return null;
+    }
+    return readRecords();
+  }
+
+  @Nullable
+  @Override
+  public List<ElevatorData> loadByWorld(@Nonnull UUID world) {
+    List<ElevatorData> result = new ArrayList<>();
+    for (Slots slots : elevators.values()) {
+      if (slots.data.world.equals(world)) {
+        result.add(slots.data);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public boolean replaceAll(@Nonnull Collection<ElevatorData> elevators) {
+    try {
+      Files.deleteIfExists(file.toPath());
+      map(HEADER_SIZE + (long) Math.max(elevators.size() * 16, 64)
+          * RECORD_SIZE);
+    } catch (IOException e) {
+      plugin.getLogger().severe("Failed to create elevators file."
+          + System.lineSeparator() + e);
+      return false;
+    }
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, VERSION);
+    buffer.putInt(8, RECORD_SIZE);
+    slotCount = 0;
+    nextId = 0;
+    writeHeader();
+    freeSlots.clear();
+    synchronized (this) {
+      generation++;
+      obsoleteSlots.clear();
+    }
+    this.elevators.clear();
+    for (ElevatorData elevator : elevators) {
+      put(elevator);
+    }
+    return flush();
+  }
+
+  @Override
+  public void put(@Nonnull ElevatorData elevator) {
+    Slots slots = elevators.get(elevator.name);
+    ElevatorData old = slots == null ? null : slots.data;
+    if (slots == null) {
+      slots = new Slots(nextId++);
+      writeHeader();
+      writeName(slots, elevator.name);
+    }
+    writeDoors(slots, old == null ? Collections.emptyList() : old.doors,
+        elevator.doors);
+    writeFloors(slots, old == null ? Collections.emptyList() : old.floors,
+        elevator.floors);
+    writeGeometry(slots, old == null ? null : old.geometry,
+        elevator.geometry);
+    if (slots.changed || !old.world.equals(elevator.world)
+        || !Arrays.equals(old.loc1, elevator.loc1)
+        || !Arrays.equals(old.loc2, elevator.loc2)
+        || old.writeMode != elevator.writeMode
+        || old.transitMode != elevator.transitMode) {
+      // written last, so a crash doesn't leave a partial change
+      commit(slots, elevator);
+    }
+    slots.data = elevator;
+    elevators.put(elevator.name, slots);
+    scheduleForce();
+  }
+
+  @Override
+  public void remove(@Nonnull String name) {
+    Slots slots = elevators.remove(name);
+    if (slots == null) {
+      return;
+    }
+    // freed first, so a crash doesn't leave a partial elevator
+    free(slots.elevatorSlot);
+    List<Integer> removed = new ArrayList<>(slots.nameSlots);
+    removed.addAll(slots.doorSlots);
+    removed.addAll(slots.floorSlots.values());
+    removed.addAll(slots.floorCallButtonSlots.values());
+    slots.floorDoorSlots.values().forEach(removed::addAll);
+    if (slots.carSlot >= 0) {
+      removed.add(slots.carSlot);
+    }
+    removed.addAll(slots.carBlockSlots);
+    // if the freed elevator record doesn't reach the disk, the elevator
+    // is loaded again, so its records are kept until then
+    release(removed);
+  }
+
+  @Override
+  public boolean flush() {
+    List<Integer> forced;
+    synchronized (this) {
+      if (task != null) {
+        task.cancel();
+        task = null;
+      }
+      forced = obsoleteSlots;
+      obsoleteSlots = new ArrayList<>();
+    }
+    MappedByteBuffer mapped = buffer;
+    if (mapped != null) {
+      mapped.force();
+    }
+    forced.forEach(this::free);
+    return true;
+  }
+
+  /**
+   * Maps the file into memory.
+   *
+   * @param size Number of bytes to map. The file is extended if it is
+   *             shorter.
+   * @throws IOException When the file can't be mapped.
+   */
+  private void map(long size) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+  }
+
+  /**
+   * Reads every record of the file and builds the elevators. Records
+   * without an elevator and records with a wrong checksum are freed.
+   *
+   * @return Data of the elevators.
+   */
+  @Nonnull
+  private List<ElevatorData> readRecords() {
+    // elevator records of every elevator id, in slot order
+    Map<Integer, List<Integer>> elevatorRecords = new LinkedHashMap<>();
+    // other records of every elevator id, in slot order
+    Map<Integer, List<Integer>> records = new HashMap<>();
+    int torn = 0;
+    for (int slot = 0; slot < slotCount; slot++) {
+      int offset = offset(slot);
+      byte type = buffer.get(offset);
+      if (type == FREE) {
+        freeSlots.set(slot);
+        continue;
+      }
+      if (buffer.getInt(offset + CHECKSUM_OFFSET) != checksum(slot)) {
+        free(slot);
+        torn++;
+        continue;
+      }
+      int id = buffer.getInt(offset + 1);
+      (type == ELEVATOR ? elevatorRecords : records)
+          .computeIfAbsent(id, k -> new ArrayList<>()).add(slot);
+    }
+    if (torn > 0) {
+      plugin.getLogger().warning("Freed " + torn + " records of the "
+          + "elevators file, because their checksum is wrong.");
+    }
+    List<ElevatorData> result = new ArrayList<>(elevatorRecords.size());
+    for (Map.Entry<Integer, List<Integer>> entry :
+        elevatorRecords.entrySet()) {
+      List<Integer> elevatorRecordSlots = records.remove(entry.getKey());
+      ElevatorData elevator = readElevator(entry.getKey(), entry.getValue(),
+          elevatorRecordSlots == null ? new ArrayList<>() :
+              elevatorRecordSlots);
+      if (elevator != null) {
+        result.add(elevator);
+      }
+    }
+    // the remaining records don't belong to an elevator
+    records.values().forEach(list -> list.forEach(this::free));
+    return result;
+  }
+
+  /**
+   * Builds an elevator from its records. The newest elevator record whose
+   * records are complete is used, and the records which are not part of
+   * it are freed.
+   *
+   * @param id Id of the elevator.
+   * @param elevatorSlots Slots of the elevator's elevator records.
+   * @param recordSlots Slots of the elevator's other records.
+   * @return Data of the elevator, or null if it has no complete elevator
+   *         record, has no name or can't be parsed.
+   */
+  @Nullable
+  private ElevatorData readElevator(int id,
+                                    @Nonnull List<Integer> elevatorSlots,
+                                    @Nonnull List<Integer> recordSlots) {
+    elevatorSlots.sort(Comparator.comparingInt((Integer slot) ->
+        buffer.getInt(offset(slot) + SEQ_OFFSET)).reversed());
+    Slots slots = new Slots(id);
+    List<Integer> visible = null;
+    for (int elevatorSlot : elevatorSlots) {
+      int seq = buffer.getInt(offset(elevatorSlot) + SEQ_OFFSET);
+      List<Integer> candidate = new ArrayList<>();
+      int checksums = 0;
+      for (int slot : recordSlots) {
+        if (isVisible(slot, seq)) {
+          candidate.add(slot);
+          checksums += buffer.getInt(offset(slot) + CHECKSUM_OFFSET);
+        }
+      }
+      int data = offset(elevatorSlot) + DATA_OFFSET;
+      if (candidate.size() == buffer.getInt(data + 42)
+          && checksums == buffer.getInt(data + 46)) {
+        slots.elevatorSlot = elevatorSlot;
+        slots.seq = seq;
+        slots.count = candidate.size();
+        slots.checksums = checksums;
+        visible = candidate;
+        break;
+      }
+    }
+    if (visible == null) {
+      plugin.getLogger().warning("Skipping elevator " + id + " in "
+          + "elevators file, because its records are incomplete.");
+      elevatorSlots.forEach(this::free);
+      recordSlots.forEach(this::free);
+      return null;
+    }
+    // free the other versions, and undo the marks of an uncommitted change
+    for (int elevatorSlot : elevatorSlots) {
+      if (elevatorSlot != slots.elevatorSlot) {
+        free(elevatorSlot);
+      }
+    }
+    Set<Integer> visibleSet = new HashSet<>(visible);
+    for (int slot : recordSlots) {
+      if (!visibleSet.contains(slot)) {
+        free(slot);
+      } else {
+        buffer.putInt(offset(slot) + REPLACED_OFFSET, 0);
+      }
+    }
+
+    TreeMap<Short, byte[]> nameChunks = new TreeMap<>();
+    TreeMap<Short, int[]> doors = new TreeMap<>();
+    TreeMap<Integer, ElevatorData.FloorData> floors = new TreeMap<>();
+    Map<Integer, TreeMap<Short, int[]>> floorDoors = new HashMap<>();
+    Map<Integer, int[][]> floorCallButtons = new HashMap<>();
+    TreeMap<Short, int[]> carBlocks = new TreeMap<>();
+    for (int slot : visible) {
+      int offset = offset(slot);
+      int data = offset + DATA_OFFSET;
+      switch (buffer.get(offset)) {
+        case NAME:
+          int length = buffer.get(data + 2);
+          if (length < 0 || length > NAME_CHUNK_SIZE) {
+            return skipCorrupt(slots, visible, "invalid name length");
+          }
+          byte[] chunk = new byte[length];
+          for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = buffer.get(data + 3 + i);
+          }
+          nameChunks.put(buffer.getShort(data), chunk);
+          slots.nameSlots.add(slot);
+          break;
+        case DOOR:
+          doors.put(buffer.getShort(data), readCoordinates(data + 2));
+          slots.doorSlots.add(slot);
+          break;
+        case FLOOR:
+          int floor = buffer.getInt(data);
+          floors.put(floor, new ElevatorData.FloorData(floor,
+              readCoordinates(data + 4), Collections.emptyList(),
+              buffer.get(data + 16) == 0 ? null :
+                  readCoordinates(data + 17), null, null));
+          slots.floorSlots.put(floor, slot);
+          break;
+        case FLOOR_CALL_BUTTONS:
+          int buttonsFloor = buffer.getInt(data);
+          byte flags = buffer.get(data + 4);
+          floorCallButtons.put(buttonsFloor, new int[][]{
+              (flags & 1) == 0 ? null : readCoordinates(data + 5),
+              (flags & 2) == 0 ? null : readCoordinates(data + 17)});
+          slots.floorCallButtonSlots.put(buttonsFloor, slot);
+          break;
+        case FLOOR_DOOR:
+          int doorFloor = buffer.getInt(data);
+          floorDoors.computeIfAbsent(doorFloor, k -> new TreeMap<>())
+              .put(buffer.getShort(data + 4), readCoordinates(data + 6));
+          slots.floorDoorSlots.computeIfAbsent(doorFloor,
+              k -> new ArrayList<>()).add(slot);
+          break;
+        case CAR:
+          slots.carSlot = slot;
+          break;
+        case CAR_BLOCKS:
+          int count = buffer.get(data + 2);
+          if (count < 0 || count > CAR_BLOCKS_PER_RECORD) {
+            return skipCorrupt(slots, visible, "invalid car block count");
+          }
+          int[] chunkOffsets = new int[count * 3];
+          for (int i = 0; i < chunkOffsets.length; i++) {
+            chunkOffsets[i] = buffer.getInt(data + 3 + i * 4);
+          }
+          carBlocks.put(buffer.getShort(data), chunkOffsets);
+          slots.carBlockSlots.add(slot);
+          break;
+        default:
+          break;
+      }
+    }
+    if (nameChunks.isEmpty()) {
+      free(slots.elevatorSlot);
+      visible.forEach(this::free);
+      return null;
+    }
+    int nameLength = 0;
+    for (byte[] chunk : nameChunks.values()) {
+      nameLength += chunk.length;
+    }
+    byte[] name = new byte[nameLength];
+    int position = 0;
+    for (byte[] chunk : nameChunks.values()) {
+      System.arraycopy(chunk, 0, name, position, chunk.length);
+      position += chunk.length;
+    }
+    String elevatorName = new String(name, StandardCharsets.UTF_8);
+    int data = offset(slots.elevatorSlot) + DATA_OFFSET;
+    int writeMode = buffer.get(data + 40);
+    int transitMode = buffer.get(data + 41);
+    if (writeMode < 0 || writeMode >= Elevator.WriteMode.values().length
+        || transitMode < 0
+        || transitMode >= Elevator.TransitMode.values().length) {
+      return skipCorrupt(slots, visible, "invalid write mode " + writeMode
+          + " or transit mode " + transitMode);
+    }
+    // sort the door slots like the doors, so updates find them by index
+    sortByIndex(slots.doorSlots, 0);
+    slots.floorDoorSlots.values().forEach(list -> sortByIndex(list, 4));
+    sortByIndex(slots.carBlockSlots, 0);
+    CarGeometry geometry = readGeometry(slots, carBlocks);
+    List<ElevatorData.FloorData> floorsData = new ArrayList<>();
+    for (ElevatorData.FloorData floor : floors.values()) {
+      TreeMap<Short, int[]> doorsOfFloor = floorDoors.get(floor.floor);
+      int[][] callButtons = floorCallButtons.getOrDefault(floor.floor,
+          new int[2][]);
+      floorsData.add(new ElevatorData.FloorData(floor.floor, floor.loc,
+          doorsOfFloor == null ? new ArrayList<>() :
+              new ArrayList<>(doorsOfFloor.values()), floor.callButton,
+          callButtons[0], callButtons[1]));
+    }
+    // call buttons of floors which don't exist are not kept
+    for (Map.Entry<Integer, Integer> entry :
+        new ArrayList<>(slots.floorCallButtonSlots.entrySet())) {
+      if (!floors.containsKey(entry.getKey())) {
+        replace(slots, entry.getValue());
+        slots.floorCallButtonSlots.remove(entry.getKey());
+      }
+    }
+    // floor doors of floors which don't exist are not kept
+    for (Map.Entry<Integer, List<Integer>> entry :
+        new ArrayList<>(slots.floorDoorSlots.entrySet())) {
+      if (!floors.containsKey(entry.getKey())) {
+        entry.getValue().forEach(slot -> replace(slots, slot));
+        slots.floorDoorSlots.remove(entry.getKey());
+      }
+    }
+    ElevatorData elevator = new ElevatorData(elevatorName,
+        new UUID(buffer.getLong(data), buffer.getLong(data + 8)),
+        readCoordinates(data + 16), readCoordinates(data + 28),
+        new ArrayList<>(doors.values()),
+        Elevator.WriteMode.values()[writeMode],
+        Elevator.TransitMode.values()[transitMode], floorsData, geometry);
+    if (slots.changed) {
+      // commit the records dropped above
+      commit(slots, elevator);
+    }
+    slots.data = elevator;
+    elevators.put(elevator.name, slots);
+    return elevator;
+  }
+
+  /**
+   * Skips an elevator which can't be parsed, freeing its records.
+   *
+   * @param slots Slots of the elevator.
+   * @param visible Slots of the elevator's records.
+   * @param reason Why the elevator can't be parsed.
+   * @return Null.
+   */
+  @Nullable
+  private ElevatorData skipCorrupt(@Nonnull Slots slots,
+                                   @Nonnull List<Integer> visible,
+                                   @Nonnull String reason) {
+    plugin.getLogger().warning("Skipping elevator " + slots.id + " in "
+        + "elevators file, because it can't be parsed: " + reason + ".");
+    free(slots.elevatorSlot);
+    visible.forEach(this::free);
+    return null;
+  }
+
+  /**
+   * Checks if a record is part of the version of its elevator committed
+   * with a sequence number: it was written by that change or an earlier
+   * one, and it wasn't replaced by that change or an earlier one.
+   *
+   * @param slot Slot of the record.
+   * @param seq Sequence number of the version.
+   * @return True if the record is part of the version, false otherwise.
+   */
+  private boolean isVisible(int slot, int seq) {
+    int offset = offset(slot);
+    int replaced = buffer.getInt(offset + REPLACED_OFFSET);
+    return buffer.getInt(offset + SEQ_OFFSET) <= seq
+        && (replaced == 0 || replaced > seq);
+  }
+
+  /**
+   * Builds the car geometry of an elevator from its records. Records of a
+   * geometry whose offsets don't match the block count are dropped.
+   *
+   * @param slots Slots of the elevator.
+   * @param carBlocks Offsets in the car blocks records, by index.
+   * @return The geometry, or null if there is none.
+   */
+  @Nullable
+  private CarGeometry readGeometry(@Nonnull Slots slots,
+                                   @Nonnull TreeMap<Short, int[]> carBlocks) {
+    int length = 0;
+    for (int[] chunk : carBlocks.values()) {
+      length += chunk.length;
+    }
+    if (slots.carSlot < 0 || buffer.getInt(offset(slots.carSlot)
+        + DATA_OFFSET + 20) * 3 != length) {
+      if (slots.carSlot >= 0) {
+        replace(slots, slots.carSlot);
+        slots.carSlot = -1;
+      }
+      slots.carBlockSlots.forEach(slot -> replace(slots, slot));
+      slots.carBlockSlots.clear();
+      return null;
+    }
+    int[] offsets = new int[length];
+    int position = 0;
+    for (int[] chunk : carBlocks.values()) {
+      System.arraycopy(chunk, 0, offsets, position, chunk.length);
+      position += chunk.length;
+    }
+    int data = offset(slots.carSlot) + DATA_OFFSET;
+    return new CarGeometry(readCoordinates(data), offsets,
+        buffer.getLong(data + 12));
+  }
+
+  /**
+   * Sorts a list of slots by the index stored in their records.
+   *
+   * @param slots Slots to sort.
+   * @param indexOffset Offset of the index in the data of the records.
+   */
+  private void sortByIndex(@Nonnull List<Integer> slots, int indexOffset) {
+    slots.sort(Comparator.comparingInt(slot ->
+        buffer.getShort(offset(slot) + DATA_OFFSET + indexOffset)));
+  }
+
+  /**
+   * Writes the name records of a new elevator.
+   *
+   * @param slots Slots of the elevator.
+   * @param name Name of the elevator.
+   */
+  private void writeName(@Nonnull Slots slots, @Nonnull String name) {
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    short seq = 0;
+    for (int start = 0; start == 0 || start < bytes.length;
+         start += NAME_CHUNK_SIZE) {
+      int length = Math.min(NAME_CHUNK_SIZE, bytes.length - start);
+      int slot = allocate();
+      int data = writeRecordHeader(slots, slot, NAME);
+      buffer.putShort(data, seq++);
+      buffer.put(data + 2, (byte) length);
+      for (int i = 0; i < length; i++) {
+        buffer.put(data + 3 + i, bytes[start + i]);
+      }
+      seal(slots, slot);
+      slots.nameSlots.add(slot);
+    }
+  }
+
+  /**
+   * Commits a change of an elevator by writing a new elevator record, then
+   * frees the previous elevator record and the records the change
+   * replaced.
+   *
+   * @param slots Slots of the elevator.
+   * @param elevator Data of the elevator.
+   */
+  private void commit(@Nonnull Slots slots, @Nonnull ElevatorData elevator) {
+    int slot = allocate();
+    int data = writeRecordHeader(slots, slot, ELEVATOR);
+    buffer.putLong(data, elevator.world.getMostSignificantBits());
+    buffer.putLong(data + 8, elevator.world.getLeastSignificantBits());
+    writeCoordinates(data + 16, elevator.loc1);
+    writeCoordinates(data + 28, elevator.loc2);
+    buffer.put(data + 40, (byte) elevator.writeMode.ordinal());
+    buffer.put(data + 41, (byte) elevator.transitMode.ordinal());
+    buffer.putInt(data + 42, slots.count);
+    buffer.putInt(data + 46, slots.checksums);
+    buffer.putInt(offset(slot) + CHECKSUM_OFFSET, checksum(slot));
+    // the previous version is kept until the change is on the disk
+    if (slots.elevatorSlot >= 0) {
+      slots.replaced.add(slots.elevatorSlot);
+    }
+    slots.elevatorSlot = slot;
+    slots.seq++;
+    release(slots.replaced);
+    slots.replaced.clear();
+    slots.changed = false;
+  }
+
+  /**
+   * Updates the door records of an elevator.
+   *
+   * @param slots Slots of the elevator.
+   * @param oldDoors Doors currently in the file.
+   * @param newDoors New doors.
+   */
+  private void writeDoors(@Nonnull Slots slots, @Nonnull List<int[]> oldDoors,
+                          @Nonnull List<int[]> newDoors) {
+    writeList(slots, slots.doorSlots, oldDoors, newDoors,
+        (door, index, slot) -> {
+          int data = writeRecordHeader(slots, slot, DOOR);
+          buffer.putShort(data, (short) index);
+          writeCoordinates(data + 2, door);
+        });
+  }
+
+  /**
+   * Updates the floor and floor door records of an elevator. Only floors
+   * whose data changed are written.
+   *
+   * @param slots Slots of the elevator.
+   * @param oldFloors Floors currently in the file.
+   * @param newFloors New floors.
+   */
+  private void writeFloors(@Nonnull Slots slots,
+                           @Nonnull List<ElevatorData.FloorData> oldFloors,
+                           @Nonnull List<ElevatorData.FloorData> newFloors) {
+    Map<Integer, ElevatorData.FloorData> old = new HashMap<>();
+    for (ElevatorData.FloorData floor : oldFloors) {
+      old.put(floor.floor, floor);
+    }
+    for (ElevatorData.FloorData floor : newFloors) {
+      ElevatorData.FloorData oldFloor = old.remove(floor.floor);
+      if (oldFloor == null || !Arrays.equals(oldFloor.loc, floor.loc)
+          || !Arrays.equals(oldFloor.callButton, floor.callButton)) {
+        writeFloor(slots, floor);
+      }
+      if (oldFloor == null
+          || !Arrays.equals(oldFloor.upCallButton, floor.upCallButton)
+          || !Arrays.equals(oldFloor.downCallButton, floor.downCallButton)) {
+        writeFloorCallButtons(slots, floor);
+      }
+      List<Integer> doorSlots = slots.floorDoorSlots.computeIfAbsent(
+          floor.floor, k -> new ArrayList<>());
+      writeList(slots, doorSlots, oldFloor == null ?
+          Collections.emptyList() : oldFloor.doors, floor.doors,
+          (door, index, slot) -> {
+            int data = writeRecordHeader(slots, slot, FLOOR_DOOR);
+            buffer.putInt(data, floor.floor);
+            buffer.putShort(data + 4, (short) index);
+            writeCoordinates(data + 6, door);
+          });
+    }
+    // remove the removed floors
+    for (int floor : old.keySet()) {
+      Integer slot = slots.floorSlots.remove(floor);
+      if (slot != null) {
+        replace(slots, slot);
+      }
+      Integer callButtonsSlot = slots.floorCallButtonSlots.remove(floor);
+      if (callButtonsSlot != null) {
+        replace(slots, callButtonsSlot);
+      }
+      List<Integer> doorSlots = slots.floorDoorSlots.remove(floor);
+      if (doorSlots != null) {
+        doorSlots.forEach(doorSlot -> replace(slots, doorSlot));
+      }
+    }
+  }
+
+  /**
+   * Writes the floor call buttons record of a floor, holding its up and
+   * down call buttons. The record is only kept for floors which have at
+   * least one of them.
+   *
+   * @param slots Slots of the elevator.
+   * @param floor Data of the floor.
+   */
+  private void writeFloorCallButtons(@Nonnull Slots slots,
+                                     @Nonnull ElevatorData.FloorData floor) {
+    Integer oldSlot = slots.floorCallButtonSlots.remove(floor.floor);
+    if (oldSlot != null) {
+      replace(slots, oldSlot);
+    }
+    if (floor.upCallButton == null && floor.downCallButton == null) {
+      return;
+    }
+    int slot = allocate();
+    int data = writeRecordHeader(slots, slot, FLOOR_CALL_BUTTONS);
+    buffer.putInt(data, floor.floor);
+    buffer.put(data + 4, (byte) ((floor.upCallButton == null ? 0 : 1)
+        | (floor.downCallButton == null ? 0 : 2)));
+    writeCoordinates(data + 5, floor.upCallButton == null ? new int[3] :
+        floor.upCallButton);
+    writeCoordinates(data + 17, floor.downCallButton == null ?
+        new int[3] : floor.downCallButton);
+    seal(slots, slot);
+    slots.floorCallButtonSlots.put(floor.floor, slot);
+  }
+
+  /**
+   * Writes the floor record of a floor, replacing its previous record.
+   *
+   * @param slots Slots of the elevator.
+   * @param floor Data of the floor.
+   */
+  private void writeFloor(@Nonnull Slots slots,
+                          @Nonnull ElevatorData.FloorData floor) {
+    Integer oldSlot = slots.floorSlots.get(floor.floor);
+    if (oldSlot != null) {
+      replace(slots, oldSlot);
+    }
+    int slot = allocate();
+    int data = writeRecordHeader(slots, slot, FLOOR);
+    buffer.putInt(data, floor.floor);
+    writeCoordinates(data + 4, floor.loc);
+    buffer.put(data + 16, (byte) (floor.callButton == null ? 0 : 1));
+    writeCoordinates(data + 17, floor.callButton == null ? new int[3] :
+        floor.callButton);
+    seal(slots, slot);
+    slots.floorSlots.put(floor.floor, slot);
+  }
+
+  /**
+   * Updates the car geometry records of an elevator. When only the car
+   * moved, only the car record is written.
+   *
+   * @param slots Slots of the elevator.
+   * @param oldGeometry Geometry currently in the file, or null.
+   * @param newGeometry New geometry, or null.
+   */
+  private void writeGeometry(@Nonnull Slots slots,
+                             @Nullable CarGeometry oldGeometry,
+                             @Nullable CarGeometry newGeometry) {
+    writeList(slots, slots.carBlockSlots, offsetChunks(oldGeometry),
+        offsetChunks(newGeometry), (chunk, index, slot) -> {
+          int data = writeRecordHeader(slots, slot, CAR_BLOCKS);
+          buffer.putShort(data, (short) index);
+          buffer.put(data + 2, (byte) (chunk.length / 3));
+          for (int i = 0; i < chunk.length; i++) {
+            buffer.putInt(data + 3 + i * 4, chunk[i]);
+          }
+        });
+    if (slots.carSlot >= 0 && newGeometry != null
+        && CarGeometry.same(oldGeometry, newGeometry)) {
+      return;
+    }
+    if (slots.carSlot >= 0) {
+      replace(slots, slots.carSlot);
+      slots.carSlot = -1;
+    }
+    if (newGeometry == null) {
+      return;
+    }
+    int slot = allocate();
+    int data = writeRecordHeader(slots, slot, CAR);
+    writeCoordinates(data, newGeometry.master);
+    buffer.putLong(data + 12, newGeometry.fingerprint);
+    buffer.putInt(data + 20, newGeometry.size());
+    seal(slots, slot);
+    slots.carSlot = slot;
+  }
+
+  /**
+   * Splits the offsets of a car geometry into the contents of car blocks
+   * records.
+   *
+   * @param geometry The geometry, or null.
+   * @return Offsets of each record, empty if the geometry is null.
+   */
+  @Nonnull
+  private static List<int[]> offsetChunks(@Nullable CarGeometry geometry) {
+    List<int[]> chunks = new ArrayList<>();
+    if (geometry != null) {
+      int chunkLength = CAR_BLOCKS_PER_RECORD * 3;
+      for (int i = 0; i < geometry.offsets.length; i += chunkLength) {
+        chunks.add(Arrays.copyOfRange(geometry.offsets, i,
+            Math.min(i + chunkLength, geometry.offsets.length)));
+      }
+    }
+    return chunks;
+  }
+
+  /**
+   * Updates a list of records. Elements whose coordinates didn't change
+   * are not written, changed and new elements are written into new
+   * records, and the records of changed and removed elements are
+   * replaced.
+   *
+   * @param slots Slots of the elevator.
+   * @param listSlots Slots of the records, in the order of the elements.
+   * @param oldList Elements currently in the file.
+   * @param newList New elements.
+   * @param writer Writes the data of an element into a record.
+   */
+  private void writeList(@Nonnull Slots slots,
+                         @Nonnull List<Integer> listSlots,
+                         @Nonnull List<int[]> oldList,
+                         @Nonnull List<int[]> newList,
+                         @Nonnull ElementWriter writer) {
+    for (int i = 0; i < newList.size(); i++) {
+      if (i < listSlots.size() && i < oldList.size()
+          && Arrays.equals(oldList.get(i), newList.get(i))) {
+        continue;
+      }
+      int slot = allocate();
+      writer.write(newList.get(i), i, slot);
+      seal(slots, slot);
+      if (i < listSlots.size()) {
+        replace(slots, listSlots.set(i, slot));
+      } else {
+        listSlots.add(slot);
+      }
+    }
+    while (listSlots.size() > newList.size()) {
+      replace(slots, listSlots.remove(listSlots.size() - 1));
+    }
+  }
+
+  /**
+   * Writes the header of a record written by the current change of an
+   * elevator, and clears the data of the record.
+   *
+   * @param slots Slots of the elevator.
+   * @param slot Slot of the record.
+   * @param type Type of the record.
+   * @return Offset of the data of the record.
+   */
+  private int writeRecordHeader(@Nonnull Slots slots, int slot, byte type) {
+    int offset = offset(slot);
+    buffer.put(offset, type);
+    buffer.putInt(offset + 1, slots.id);
+    buffer.putInt(offset + SEQ_OFFSET, slots.seq + 1);
+    buffer.putInt(offset + REPLACED_OFFSET, 0);
+    for (int i = DATA_OFFSET; i < RECORD_SIZE; i++) {
+      buffer.put(offset + i, (byte) 0);
+    }
+    return offset + DATA_OFFSET;
+  }
+
+  /**
+   * Writes the checksum of a record written by the current change of an
+   * elevator, and adds the record to the elevator's records.
+   *
+   * @param slots Slots of the elevator.
+   * @param slot Slot of the record.
+   */
+  private void seal(@Nonnull Slots slots, int slot) {
+    int checksum = checksum(slot);
+    buffer.putInt(offset(slot) + CHECKSUM_OFFSET, checksum);
+    slots.count++;
+    slots.checksums += checksum;
+    slots.changed = true;
+  }
+
+  /**
+   * Marks a record as replaced by the current change of an elevator. The
+   * record is kept until the change is committed.
+   *
+   * @param slots Slots of the elevator.
+   * @param slot Slot of the record.
+   */
+  private void replace(@Nonnull Slots slots, int slot) {
+    int offset = offset(slot);
+    buffer.putInt(offset + REPLACED_OFFSET, slots.seq + 1);
+    slots.count--;
+    slots.checksums -= buffer.getInt(offset + CHECKSUM_OFFSET);
+    slots.replaced.add(slot);
+    slots.changed = true;
+  }
+
+  /**
+   * Calculates the checksum of a record, covering everything except the
+   * replacing sequence number and the checksum itself.
+   *
+   * @param slot Slot of the record.
+   * @return The checksum.
+   */
+  private int checksum(int slot) {
+    int offset = offset(slot);
+    for (int i = 0; i < RECORD_SIZE; i++) {
+      record[i] = buffer.get(offset + i);
+    }
+    crc.reset();
+    crc.update(record, 0, REPLACED_OFFSET);
+    crc.update(record, DATA_OFFSET, RECORD_SIZE - DATA_OFFSET);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Reads coordinates.
+   *
+   * @param offset Offset of the coordinates.
+   * @return Coordinates.
+   */
+  @Nonnull
+  private int[] readCoordinates(int offset) {
+    return new int[]{buffer.getInt(offset), buffer.getInt(offset + 4),
+        buffer.getInt(offset + 8)};
+  }
+
+  /**
+   * Writes coordinates.
+   *
+   * @param offset Offset of the coordinates.
+   * @param coordinates Coordinates.
+   */
+  private void writeCoordinates(int offset, @Nonnull int[] coordinates) {
+    buffer.putInt(offset, coordinates[0]);
+    buffer.putInt(offset + 4, coordinates[1]);
+    buffer.putInt(offset + 8, coordinates[2]);
+  }
+
+  /**
+   * Allocates a slot, reusing free slots first. The file is mapped again
+   * with a larger size if it is full.
+   *
+   * @return The allocated slot.
+   */
+  private int allocate() {
+    int slot = freeSlots.nextSetBit(0);
+    if (slot >= 0) {
+      freeSlots.clear(slot);
+      return slot;
+    }
+    slot = slotCount++;
+    if (offset(slotCount) > buffer.capacity()) {
+      try {
+        map(HEADER_SIZE + (long) slotCount * 2 * RECORD_SIZE);
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to extend elevators file.",
+            e);
+      }
+    }
+    writeHeader();
+    return slot;
+  }
+
+  /**
+   * Marks a slot as free.
+   *
+   * @param slot The slot.
+   */
+  private void free(int slot) {
+    buffer.put(offset(slot), FREE);
+    freeSlots.set(slot);
+  }
+
+  /**
+   * Writes the slot count and the next elevator id to the header.
+   */
+  private void writeHeader() {
+    buffer.putInt(SLOT_COUNT_OFFSET, slotCount);
+    buffer.putInt(NEXT_ID_OFFSET, nextId);
+  }
+
+  /**
+   * Gets the offset of a slot in the file.
+   *
+   * @param slot The slot.
+   * @return Offset of the slot.
+   */
+  private static int offset(int slot) {
+    return HEADER_SIZE + slot * RECORD_SIZE;
+  }
+
+  /**
+   * Frees slots once the file was forced to the disk, and schedules
+   * forcing it.
+   *
+   * @param slots Slots of records which are no longer needed.
+   */
+  private void release(@Nonnull List<Integer> slots) {
+    synchronized (this) {
+      obsoleteSlots.addAll(slots);
+    }
+    scheduleForce();
+  }
+
+  /**
+   * Schedules forcing the file to the disk if it isn't scheduled yet. The
+   * slots released before the file is forced are freed on the main thread
+   * afterwards.
+   */
+  private synchronized void scheduleForce() {
+    if (task == null) {
+      task = plugin.getServer().getScheduler()
+          .runTaskLaterAsynchronously(plugin, () -> {
+            List<Integer> forced;
+            int forcedGeneration;
+            synchronized (this) {
+              task = null;
+              forced = obsoleteSlots;
+              obsoleteSlots = new ArrayList<>();
+              forcedGeneration = generation;
+            }
+            buffer.force();
+            if (!forced.isEmpty() && plugin.isEnabled()) {
+              plugin.getServer().getScheduler().runTask(plugin, () -> {
+                synchronized (this) {
+                  if (forcedGeneration != generation) {
+                    return;
+                  }
+                }
+                forced.forEach(this::free);
+              });
+            }
+          }, FORCE_DELAY);
+    }
+  }
+
+  /**
+   * Writes the data of an element of a list into a record.
+   */
+  private interface ElementWriter {
+    /**
+     * Writes the header and data of the record of an element. The record
+     * is sealed by the caller.
+     *
+     * @param element The element.
+     * @param index Index of the element in the list.
+     * @param slot Slot of the record.
+     */
+    void write(@Nonnull int[] element, int index, int slot);
+  }
+
+  /**
+   * Slots of the records of an elevator.
+   */
+  private static class Slots {
+    /**
+     * Id of the elevator.
+     */
+    private final int id;
+
+    /**
+     * Sequence number of the last committed change of the elevator.
+     */
+    private int seq = 0;
+
+    /**
+     * Number of records of the elevator, without the elevator record.
+     */
+    private int count = 0;
+
+    /**
+     * Sum of the checksums of the records of the elevator, without the
+     * elevator record.
+     */
+    private int checksums = 0;
+
+    /**
+     * Records replaced by the current change, freed when it is committed.
+     */
+    private final List<Integer> replaced = new ArrayList<>();
+
+    /**
+     * Whether the current change wrote or replaced a record.
+     */
+    private boolean changed = false;
+
+    /**
+     * Slot of the elevator record, or -1 if it wasn't written yet.
+     */
+    private int elevatorSlot = -1;
+
+    /**
+     * Slots of the name records, in the order of the name.
+     */
+    private final List<Integer> nameSlots = new ArrayList<>();
+
+    /**
+     * Slots of the door records, in the order of the doors.
+     */
+    private final List<Integer> doorSlots = new ArrayList<>();
+
+    /**
+     * Slots of the floor records, by floor number.
+     */
+    private final Map<Integer, Integer> floorSlots = new HashMap<>();
+
+    /**
+     * Slots of the floor call buttons records, by floor number. Only floors
+     * with an up or down call button have one.
+     */
+    private final Map<Integer, Integer> floorCallButtonSlots =
+        new HashMap<>();
+
+    /**
+     * Slots of the floor door records, by floor number, in the order of
+     * the doors.
+     */
+    private final Map<Integer, List<Integer>> floorDoorSlots =
+        new HashMap<>();
+
+    /**
+     * Slot of the car record, or -1 if the elevator has no car geometry.
+     */
+    private int carSlot = -1;
+
+    /**
+     * Slots of the car blocks records, in the order of the offsets.
+     */
+    private final List<Integer> carBlockSlots = new ArrayList<>();
+
+    /**
+     * Data of the elevator currently in the file.
+     */
+    private ElevatorData data;
+
+    /**
+     * Constructor.
+     *
+     * @param id Id of the elevator.
+     */
+    private Slots(int id) {
+      this.id = id;
+    }
+  }
+}
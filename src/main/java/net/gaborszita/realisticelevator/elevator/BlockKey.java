@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+/**
+ * Packs block coordinates into a single long. The Y coordinate is stored
+ * in the 12 most significant bits, followed by 26 bits of X and 26 bits of
+ * Z, so sorting keys orders the blocks by their Y coordinate first.
+ */
+final class BlockKey {
+  /**
+   * Mask of the X and Z coordinates.
+   */
+  private static final long HORIZONTAL_MASK = (1L << 26) - 1;
+
+  /**
+   * Private constructor, this class only has static methods.
+   */
+  private BlockKey() {
+  }
+
+  /**
+   * Packs block coordinates into a key.
+   *
+   * @param x X coordinate of the block.
+   * @param y Y coordinate of the block.
+   * @param z Z coordinate of the block.
+   * @return Key of the block.
+   */
+  static long pack(int x, int y, int z) {
+    return ((long) y << 52) | ((x & HORIZONTAL_MASK) << 26)
+        | (z & HORIZONTAL_MASK);
+  }
+
+  /**
+   * Gets the X coordinate of a key.
+   *
+   * @param key Key of the block.
+   * @return X coordinate of the block.
+   */
+  static int x(long key) {
+    return (int) (key << 12 >> 38);
+  }
+
+  /**
+   * Gets the Y coordinate of a key.
+   *
+   * @param key Key of the block.
+   * @return Y coordinate of the block.
+   */
+  static int y(long key) {
+    return (int) (key >> 52);
+  }
+
+  /**
+   * Gets the Z coordinate of a key.
+   *
+   * @param key Key of the block.
+   * @return Z coordinate of the block.
+   */
+  static int z(long key) {
+    return (int) (key << 38 >> 38);
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import java.util.Arrays;
+
+/**
+ * Blocks of an elevator car, stored as a sorted array of packed block
+ * coordinates. The blocks are sorted by their Y coordinate, and moving the
+ * car vertically only changes a Y offset, so the array itself is never
+ * rewritten while the elevator moves.
+ *
+ * @see BlockKey
+ */
+final class CarBlocks {
+  /**
+   * Keys of the blocks, without the Y offset applied. Only the first
+   * {@link #size size} elements are used.
+   */
+  private long[] keys = new long[16];
+
+  /**
+   * Number of blocks.
+   */
+  private int size = 0;
+
+  /**
+   * Y offset added to the Y coordinate of every key.
+   */
+  private int yOffset = 0;
+
+  /**
+   * Index of the master block, or -1 if it has to be recalculated.
+   *
+   * @see #masterIndex()
+   */
+  private int masterIndex = -1;
+
+  /**
+   * Incremented every time blocks are added or removed. Moving the blocks
+   * does not change the shape of the car, so it does not increment this.
+   */
+  private int modCount = 0;
+
+  /**
+   * Getter for the number of blocks.
+   *
+   * @return Number of blocks.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Checks if there are no blocks.
+   *
+   * @return True if there are no blocks, false otherwise.
+   */
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Gets the X coordinate of a block.
+   *
+   * @param i Index of the block.
+   * @return X coordinate of the block.
+   */
+  int x(int i) {
+    return BlockKey.x(keys[i]);
+  }
+
+  /**
+   * Gets the Y coordinate of a block.
+   *
+   * @param i Index of the block.
+   * @return Y coordinate of the block.
+   */
+  int y(int i) {
+    return BlockKey.y(keys[i]) + yOffset;
+  }
+
+  /**
+   * Gets the Z coordinate of a block.
+   *
+   * @param i Index of the block.
+   * @return Z coordinate of the block.
+   */
+  int z(int i) {
+    return BlockKey.z(keys[i]);
+  }
+
+  /**
+   * Gets the lowest Y coordinate of the blocks. Must not be called if there
+   * are no blocks.
+   *
+   * @return Lowest Y coordinate.
+   */
+  int minY() {
+    return y(0);
+  }
+
+  /**
+   * Gets the highest Y coordinate of the blocks. Must not be called if
+   * there are no blocks.
+   *
+   * @return Highest Y coordinate.
+   */
+  int maxY() {
+    return y(size - 1);
+  }
+
+  /**
+   * Getter for the modification count. Used to find out if data derived
+   * from the shape of the car is still valid.
+   *
+   * @return Modification count.
+   */
+  int modCount() {
+    return modCount;
+  }
+
+  /**
+   * Removes all blocks.
+   */
+  void clear() {
+    size = 0;
+    yOffset = 0;
+    masterIndex = -1;
+    modCount++;
+  }
+
+  /**
+   * Appends a block without keeping the blocks sorted. Used when adding
+   * many blocks at once; {@link #sort() sort} must be called afterwards.
+   *
+   * @param x X coordinate of the block.
+   * @param y Y coordinate of the block.
+   * @param z Z coordinate of the block.
+   */
+  void append(int x, int y, int z) {
+    ensureCapacity(size + 1);
+    keys[size++] = BlockKey.pack(x, y - yOffset, z);
+    masterIndex = -1;
+    modCount++;
+  }
+
+  /**
+   * Sorts the blocks after they have been added using
+   * {@link #append(int, int, int) append}.
+   */
+  void sort() {
+    Arrays.sort(keys, 0, size);
+    masterIndex = -1;
+  }
+
+  /**
+   * Finds a block.
+   *
+   * @param x X coordinate of the block.
+   * @param y Y coordinate of the block.
+   * @param z Z coordinate of the block.
+   * @return Index of the block, or a negative number if it is not found.
+   */
+  int indexOf(int x, int y, int z) {
+    return Arrays.binarySearch(keys, 0, size,
+        BlockKey.pack(x, y - yOffset, z));
+  }
+
+  /**
+   * Checks if a block is part of the car.
+   *
+   * @param x X coordinate of the block.
+   * @param y Y coordinate of the block.
+   * @param z Z coordinate of the block.
+   * @return True if the block is part of the car, false otherwise.
+   */
+  boolean contains(int x, int y, int z) {
+    return indexOf(x, y, z) >= 0;
+  }
+
+  /**
+   * Adds a block, keeping the blocks sorted.
+   *
+   * @param x X coordinate of the block.
+   * @param y Y coordinate of the block.
+   * @param z Z coordinate of the block.
+   * @return True if the block was added, false if it was already present.
+   */
+  boolean add(int x, int y, int z) {
+    int index = indexOf(x, y, z);
+    if (index >= 0) {
+      return false;
+    }
+    index = -index - 1;
+    ensureCapacity(size + 1);
+    System.arraycopy(keys, index, keys, index + 1, size - index);
+    keys[index] = BlockKey.pack(x, y - yOffset, z);
+    size++;
+    masterIndex = -1;
+    modCount++;
+    return true;
+  }
+
+  /**
+   * Removes a block.
+   *
+   * @param x X coordinate of the block.
+   * @param y Y coordinate of the block.
+   * @param z Z coordinate of the block.
+   * @return True if the block was removed, false if it was not present.
+   */
+  boolean remove(int x, int y, int z) {
+    int index = indexOf(x, y, z);
+    if (index < 0) {
+      return false;
+    }
+    System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+    size--;
+    masterIndex = -1;
+    modCount++;
+    return true;
+  }
+
+  /**
+   * Moves every block vertically.
+   *
+   * @param dy Number of blocks to move the blocks by.
+   */
+  void translate(int dy) {
+    yOffset += dy;
+  }
+
+  /**
+   * Gets the index of the master block, i.e. the block with the lowest X,
+   * then lowest Y, then lowest Z coordinate. Only recalculated after blocks
+   * are added or removed.
+   *
+   * @return Index of the master block, or -1 if there are no blocks.
+   */
+  int masterIndex() {
+    if (masterIndex < 0 && size > 0) {
+      int best = 0;
+      for (int i = 1; i < size; i++) {
+        int dx = x(i) - x(best);
+        if (dx < 0 || dx == 0 && (y(i) < y(best)
+            || y(i) == y(best) && z(i) < z(best))) {
+          best = i;
+        }
+      }
+      masterIndex = best;
+    }
+    return masterIndex;
+  }
+
+  /**
+   * Makes sure the key array can hold a number of blocks.
+   *
+   * @param capacity Number of blocks.
+   */
+  private void ensureCapacity(int capacity) {
+    if (capacity > keys.length) {
+      keys = Arrays.copyOf(keys, Math.max(capacity, keys.length * 2));
+    }
+  }
+}
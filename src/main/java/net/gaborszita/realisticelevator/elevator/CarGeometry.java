@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import org.bukkit.World;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Geometry of an elevator car found by scanning the elevator area: the
+ * position of the master block, the offsets of the car's blocks from the
+ * master block and a fingerprint of the blocks' types. It is saved with the
+ * elevator, so the car can be found again by checking only the blocks of
+ * the car instead of scanning the whole elevator area. Instances are
+ * immutable.
+ *
+ * @see Elevator
+ */
+final class CarGeometry {
+  /**
+   * Coordinates of the master block.
+   */
+  final int[] master;
+
+  /**
+   * Offsets of the car's blocks from the master block, three ints per
+   * block, in the order of the car's blocks.
+   */
+  final int[] offsets;
+
+  /**
+   * Hash of the types of the car's blocks, in the order of the offsets.
+   */
+  final long fingerprint;
+
+  /**
+   * Constructor.
+   *
+   * @param master Coordinates of the master block.
+   * @param offsets Offsets of the car's blocks from the master block.
+   * @param fingerprint Hash of the types of the car's blocks.
+   */
+  CarGeometry(@Nonnull int[] master, @Nonnull int[] offsets,
+              long fingerprint) {
+    this.master = master;
+    this.offsets = offsets;
+    this.fingerprint = fingerprint;
+  }
+
+  /**
+   * Gets the geometry of a car. Must be called on the main thread.
+   *
+   * @param world World of the car.
+   * @param carBlocks Blocks of the car.
+   * @return Geometry of the car, or null if the car has no blocks.
+   */
+  @Nullable
+  static CarGeometry of(@Nonnull World world, @Nonnull CarBlocks carBlocks) {
+    int masterIndex = carBlocks.masterIndex();
+    if (masterIndex < 0) {
+      return null;
+    }
+    int[] master = {carBlocks.x(masterIndex), carBlocks.y(masterIndex),
+        carBlocks.z(masterIndex)};
+    int[] offsets = new int[carBlocks.size() * 3];
+    for (int i = 0; i < carBlocks.size(); i++) {
+      offsets[i * 3] = carBlocks.x(i) - master[0];
+      offsets[i * 3 + 1] = carBlocks.y(i) - master[1];
+      offsets[i * 3 + 2] = carBlocks.z(i) - master[2];
+    }
+    return new CarGeometry(master, offsets,
+        fingerprint(world, master, offsets));
+  }
+
+  /**
+   * Gets the geometry of the same car at another position. The offsets and
+   * the fingerprint don't change when the whole car moves, so nothing is
+   * recalculated.
+   *
+   * @param master Coordinates of the master block at the new position.
+   * @return Geometry of the car at the new position.
+   */
+  @Nonnull
+  CarGeometry at(@Nonnull int[] master) {
+    return new CarGeometry(master, offsets, fingerprint);
+  }
+
+  /**
+   * Checks if two geometries are equal. Either of them may be null.
+   *
+   * @param a First geometry.
+   * @param b Second geometry.
+   * @return True if the geometries are equal, false otherwise.
+   */
+  static boolean same(@Nullable CarGeometry a, @Nullable CarGeometry b) {
+    if (a == null || b == null) {
+      return a == b;
+    }
+    return a.fingerprint == b.fingerprint && Arrays.equals(a.master, b.master)
+        && Arrays.equals(a.offsets, b.offsets);
+  }
+
+  /**
+   * Gets the number of blocks of the car.
+   *
+   * @return Number of blocks.
+   */
+  int size() {
+    return offsets.length / 3;
+  }
+
+  /**
+   * Checks if the blocks of the world at the car's positions still have
+   * the types they had when the geometry was saved. Only the car's
+   * positions are checked, so blocks added around the car are not noticed.
+   *
+   * @param world World of the car.
+   * @return True if the fingerprint matches, false otherwise.
+   */
+  boolean matches(@Nonnull World world) {
+    return fingerprint(world, master, offsets) == fingerprint;
+  }
+
+  /**
+   * Calculates the fingerprint of the blocks at a car's positions.
+   *
+   * @param world World of the car.
+   * @param master Coordinates of the master block.
+   * @param offsets Offsets of the car's blocks from the master block.
+   * @return The fingerprint.
+   */
+  private static long fingerprint(@Nonnull World world, @Nonnull int[] master,
+                                  @Nonnull int[] offsets) {
+    long hash = 17;
+    for (int i = 0; i < offsets.length; i += 3) {
+      // names are used instead of ordinals, which change between versions
+      hash = hash * 31 + world.getBlockAt(master[0] + offsets[i],
+          master[1] + offsets[i + 1], master[2] + offsets[i + 2]).getType()
+          .name().hashCode();
+    }
+    return hash;
+  }
+
+  /**
+   * Parses a geometry from the JSON format of the elevators files.
+   *
+   * @param json Serialized geometry.
+   * @return The geometry.
+   * @throws JSONException When the geometry can't be parsed.
+   */
+  @Nonnull
+  static CarGeometry fromJson(@Nonnull JSONObject json) {
+    JSONArray masterJson = json.getJSONArray("master");
+    JSONArray offsetsJson = json.getJSONArray("offsets");
+    if (offsetsJson.length() % 3 != 0) {
+      throw new JSONException("Car offsets must be triples.");
+    }
+    int[] offsets = new int[offsetsJson.length()];
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = offsetsJson.getInt(i);
+    }
+    return new CarGeometry(new int[]{masterJson.getInt(0),
+        masterJson.getInt(1), masterJson.getInt(2)}, offsets,
+        json.getLong("fingerprint"));
+  }
+
+  /**
+   * Converts the geometry to the JSON format of the elevators files.
+   *
+   * @return Serialized geometry.
+   */
+  @Nonnull
+  JSONObject toJson() {
+    JSONObject json = new JSONObject();
+    json.put("master", new JSONArray(master));
+    json.put("offsets", new JSONArray(offsets));
+    json.put("fingerprint", fingerprint);
+    return json;
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.data.AnaloguePowerable;
+import org.bukkit.block.data.Attachable;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.FaceAttachable;
+import org.bukkit.block.data.Powerable;
+import org.bukkit.block.data.Rail;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Moves the blocks of an elevator car vertically. A move is done in two
+ * phases: first the block data of the whole car is read into a snapshot,
+ * then the world is written in a single ordered pass from the snapshot.
+ * Since nothing is read after the first write, the order of the writes
+ * does not affect the result.
+ */
+final class CarShifter {
+  /**
+   * Block data of the car blocks, indexed like the car blocks.
+   */
+  private BlockData[] snapshot = new BlockData[0];
+
+  /**
+   * Car blocks which break when a neighboring block is moved (iron doors).
+   * These are removed before and placed after all other blocks.
+   */
+  private final BitSet special = new BitSet();
+
+  /**
+   * Indicates whether the last snapshot contains a block which depends on
+   * physics updates, e.g. redstone components or blocks affected by
+   * gravity.
+   */
+  private boolean physicsSensitive;
+
+  /**
+   * Car blocks which have at least one neighbor that is not part of the
+   * car.
+   */
+  private final BitSet shell = new BitSet();
+
+  /**
+   * Modification count of the car the shell was calculated for.
+   *
+   * @see CarBlocks#modCount()
+   */
+  private int shellModCount;
+
+  /**
+   * Car the shell was calculated for.
+   */
+  private CarBlocks shellCar;
+
+  /**
+   * Moves the car blocks in the world and updates their coordinates.
+   *
+   * @param world World of the car.
+   * @param car Blocks of the car.
+   * @param dy Number of blocks to move the car by.
+   * @param writeMode How to apply physics when writing the blocks. Falls
+   *                  back to {@link Elevator.WriteMode#IMMEDIATE} if the
+   *                  car contains physics sensitive blocks.
+   */
+  void shift(@Nonnull World world, @Nonnull CarBlocks car, int dy,
+             @Nonnull Elevator.WriteMode writeMode) {
+    int size = car.size();
+    takeSnapshot(world, car);
+    boolean deferred = writeMode == Elevator.WriteMode.DEFERRED
+        && !physicsSensitive;
+    if (deferred) {
+      updateShell(car);
+    }
+
+    // remove the special blocks first, so they don't break when their
+    // neighbors are moved
+    for (int i = special.nextSetBit(0); i >= 0;
+         i = special.nextSetBit(i + 1)) {
+      world.getBlockAt(car.x(i), car.y(i), car.z(i))
+          .setType(Material.AIR, !deferred);
+    }
+    // write the normal blocks to their new position; in deferred mode the
+    // inner blocks are written without physics and the shell is postponed
+    for (int i = 0; i < size; i++) {
+      if (!special.get(i) && !(deferred && shell.get(i))) {
+        moveBlock(world, car, i, dy, !deferred);
+      }
+    }
+    // write the shell with physics, which updates the car's neighbors once
+    if (deferred) {
+      for (int i = shell.nextSetBit(0); i >= 0;
+           i = shell.nextSetBit(i + 1)) {
+        if (!special.get(i)) {
+          moveBlock(world, car, i, dy, true);
+        }
+      }
+    }
+    // clear the positions no block moved into
+    for (int i = 0; i < size; i++) {
+      if (!special.get(i) && !car.contains(car.x(i), car.y(i) - dy,
+          car.z(i))) {
+        world.getBlockAt(car.x(i), car.y(i), car.z(i)).setType(Material.AIR);
+      }
+    }
+    // place the special blocks
+    for (int i = special.nextSetBit(0); i >= 0;
+         i = special.nextSetBit(i + 1)) {
+      world.getBlockAt(car.x(i), car.y(i) + dy, car.z(i))
+          .setBlockData(snapshot[i]);
+    }
+
+    car.translate(dy);
+    // don't keep references to the block data between moves
+    Arrays.fill(snapshot, 0, size, null);
+  }
+
+  /**
+   * Writes a block to its new position, unless the new position already
+   * holds the same data (e.g. inside a uniform wall).
+   *
+   * @param world World of the car.
+   * @param car Blocks of the car.
+   * @param i Index of the block.
+   * @param dy Number of blocks to move the block by.
+   * @param applyPhysics Whether to apply physics when writing the block.
+   */
+  private void moveBlock(@Nonnull World world, @Nonnull CarBlocks car, int i,
+                         int dy, boolean applyPhysics) {
+    int target = car.indexOf(car.x(i), car.y(i) + dy, car.z(i));
+    if (target < 0 || special.get(target)
+        || !snapshot[target].equals(snapshot[i])) {
+      world.getBlockAt(car.x(i), car.y(i) + dy, car.z(i))
+          .setBlockData(snapshot[i], applyPhysics);
+    }
+  }
+
+  /**
+   * Reads the block data of every car block and marks the special blocks.
+   *
+   * @param world World of the car.
+   * @param car Blocks of the car.
+   */
+  private void takeSnapshot(@Nonnull World world, @Nonnull CarBlocks car) {
+    int size = car.size();
+    if (snapshot.length < size) {
+      snapshot = new BlockData[size];
+    }
+    special.clear();
+    physicsSensitive = false;
+    for (int i = 0; i < size; i++) {
+      BlockData data = world.getBlockAt(car.x(i), car.y(i), car.z(i))
+          .getBlockData();
+      snapshot[i] = data;
+      if (data.getMaterial() == Material.IRON_DOOR) {
+        special.set(i);
+      } else if (isPhysicsSensitive(data)) {
+        physicsSensitive = true;
+      }
+    }
+  }
+
+  /**
+   * Recalculates the shell of the car if the car changed since the last
+   * calculation.
+   *
+   * @param car Blocks of the car.
+   */
+  private void updateShell(@Nonnull CarBlocks car) {
+    if (car == shellCar && car.modCount() == shellModCount) {
+      return;
+    }
+    shell.clear();
+    for (int i = 0; i < car.size(); i++) {
+      int x = car.x(i);
+      int y = car.y(i);
+      int z = car.z(i);
+      if (!car.contains(x - 1, y, z) || !car.contains(x + 1, y, z)
+          || !car.contains(x, y - 1, z) || !car.contains(x, y + 1, z)
+          || !car.contains(x, y, z - 1) || !car.contains(x, y, z + 1)) {
+        shell.set(i);
+      }
+    }
+    shellCar = car;
+    shellModCount = car.modCount();
+  }
+
+  /**
+   * Checks if a block depends on physics updates to work correctly.
+   *
+   * @param data Block data of the block.
+   * @return True if the block is physics sensitive, false otherwise.
+   */
+  private static boolean isPhysicsSensitive(@Nonnull BlockData data) {
+    return data instanceof Powerable || data instanceof AnaloguePowerable
+        || data instanceof Attachable || data instanceof FaceAttachable
+        || data instanceof Rail || data.getMaterial().hasGravity();
+  }
+}
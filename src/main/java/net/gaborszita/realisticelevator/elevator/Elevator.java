@@ -22,24 +22,20 @@ package net.gaborszita.realisticelevator.elevator;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
-import org.bukkit.block.data.BlockData;
 import org.bukkit.block.data.Openable;
-import org.bukkit.block.data.type.Switch;
+import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
-import org.bukkit.event.EventHandler;
-import org.bukkit.event.HandlerList;
-import org.bukkit.event.Listener;
-import org.bukkit.event.block.*;
-import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.scheduler.BukkitRunnable;
-import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.util.BoundingBox;
 import org.bukkit.util.Vector;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
+import java.util.function.BooleanSupplier;
 
 /**
  * Represents an elevator. It is responsible for handling the elevator's
@@ -84,19 +80,47 @@ public class Elevator {
   private final Map<Integer, Floor> floors;
 
   /**
-   * Queued stops of the elevators
+   * Index of the floors by their Y coordinate. Replaced when the floors
+   * change.
    */
-  private final Set<Integer> stops;
+  private FloorIndex floorIndex;
 
   /**
-   * Elevator mover task.
+   * Queued stops of the elevators, sorted by the floors' Y coordinate.
+   * Replaced when the floors change.
+   */
+  private StopQueue stops;
+
+  /**
+   * Destinations of the passengers waiting at a floor, entered on a
+   * destination panel. The key is the floor the passengers wait at. The
+   * destinations are queued as stops when the car opens its doors at the
+   * floor, so the car doesn't stop at a destination before picking up its
+   * passengers.
+   */
+  private final Map<Integer, Set<Integer>> pendingDestinations =
+      new HashMap<>();
+
+  /**
+   * How the elevator writes its blocks when moving.
+   */
+  private WriteMode writeMode;
+
+  /**
+   * How the elevator moves between stops.
+   */
+  private TransitMode transitMode;
+
+  /**
+   * Transit moving the elevator as entities, or null if the elevator isn't
+   * currently in an entity transit.
    */
-  private BukkitTask task;
+  private EntityTransit transit = null;
 
   /**
-   * Listens to blocks created and destroyed in the elevator area.
+   * Elevator mover task.
    */
-  private final BlockEventListener blockEventListener;
+  private Mover mover;
 
   /**
    * Indicates whether the elevator is loaded, meaning that it is actively
@@ -117,10 +141,62 @@ public class Elevator {
    */
   private Location masterBlock;
 
+  /**
+   * Indicates whether the blocks of the elevator object were scanned. The
+   * blocks are scanned once all chunks of the elevator area are loaded, or
+   * when they are needed, and released when one of the chunks is unloaded.
+   *
+   * @see #carBlocks
+   */
+  private boolean blocksFound = false;
+
+  /**
+   * Geometry of the car when its blocks were last found or moved, or null
+   * if the car has no blocks or its blocks were never found. Saved with
+   * the elevator, so the blocks can be found by checking only the car's
+   * positions.
+   */
+  @Nullable
+  private CarGeometry geometry = null;
+
+  /**
+   * Saved runtime state which wasn't restored yet, because the chunk of
+   * the car's saved position isn't loaded, or null if there is none.
+   * Restored when the chunk is loaded.
+   *
+   * @see #restoreState(ElevatorState)
+   */
+  @Nullable
+  private ElevatorState pendingState = null;
+
+  /**
+   * Indicates whether blocks of the car changed since its geometry was
+   * last calculated. The geometry is recalculated once, when the car stops,
+   * before its blocks are released or when the elevator is unloaded,
+   * instead of after every block change.
+   *
+   * @see #updateChangedGeometry()
+   */
+  private boolean blocksChanged = false;
+
+  /**
+   * Indicates whether the car moved since the elevator was last saved.
+   * The new position is saved with the next change of the elevator, or
+   * when it is unloaded, instead of after every trip.
+   *
+   * @see #saveMovedGeometry()
+   */
+  private boolean geometryMoved = false;
+
   /**
    * Contains all blocks of the moving elevator object.
    */
-  private final ArrayList<Location> elevatorBlocks = new ArrayList<>();
+  private final CarBlocks carBlocks = new CarBlocks();
+
+  /**
+   * Moves the blocks of the elevator object.
+   */
+  private final CarShifter shifter = new CarShifter();
 
   /**
    * Indicates floor elevator is currently at.
@@ -133,9 +209,9 @@ public class Elevator {
   private boolean doorsOpen = false;
 
   /**
-   * Coordinate of the moving elevator object.
+   * Coordinates of the elevator area cuboid region.
    */
-  private int lowX, highX, lowZ, highZ;
+  private int lowX, highX, lowY, highY, lowZ, highZ;
 
   /**
    * Height of the moving elevator object.
@@ -162,12 +238,13 @@ public class Elevator {
     this.loc1 = loc1;
     this.loc2 = loc2;
     this.doors = new ArrayList<>();
+    this.writeMode = WriteMode.IMMEDIATE;
+    this.transitMode = TransitMode.BLOCKS;
     this.floors = new HashMap<>();
-    stops = new HashSet<>();
-    findBlocks(null);
-    blockEventListener = new BlockEventListener();
-    plugin.getServer().getPluginManager().registerEvents(blockEventListener,
-        plugin);
+    floorIndex = new FloorIndex(Collections.emptyMap());
+    stops = new StopQueue(floorIndex);
+    updateBounds();
+    findBlocksIfLoaded();
     loaded = true;
   }
 
@@ -181,23 +258,30 @@ public class Elevator {
    * @param loc1 First location of the elevator area cuboid region.
    * @param loc2 Second location of the elevator area cuboid region.
    * @param doors List of doors.
+   * @param writeMode How the elevator writes its blocks when moving.
+   * @param transitMode How the elevator moves between stops.
+   * @param geometry Saved geometry of the car, or null if there is none.
    */
   Elevator(@Nonnull JavaPlugin plugin, @Nonnull String name,
            @Nonnull ElevatorManager manager,
            @Nonnull Location loc1, @Nonnull Location loc2,
-           @Nonnull List<Vector> doors) {
+           @Nonnull List<Vector> doors, @Nonnull WriteMode writeMode,
+           @Nonnull TransitMode transitMode,
+           @Nullable CarGeometry geometry) {
     this.plugin = plugin;
     this.name = name;
     this.manager = manager;
     this.loc1 = loc1;
     this.loc2 = loc2;
     this.doors = doors;
+    this.writeMode = writeMode;
+    this.transitMode = transitMode;
+    this.geometry = geometry;
     this.floors = new HashMap<>();
-    stops = new HashSet<>();
-    findBlocks(null);
-    blockEventListener = new BlockEventListener();
-    plugin.getServer().getPluginManager().registerEvents(blockEventListener,
-        plugin);
+    floorIndex = new FloorIndex(Collections.emptyMap());
+    stops = new StopQueue(floorIndex);
+    updateBounds();
+    findBlocksIfLoaded();
     loaded = true;
   }
 
@@ -219,18 +303,7 @@ public class Elevator {
    * @return True on success, false on failure.
    */
   public boolean setLocation(@Nonnull Location loc1, @Nonnull Location loc2) {
-    Location oldLoc1 = this.loc1;
-    Location oldLoc2 = this.loc2;
-    this.loc1 = loc1.clone();
-    this.loc2 = loc2.clone();
-    if (save()) {
-      reload();
-      return true;
-    } else {
-      this.loc1 = oldLoc1;
-      this.loc2 = oldLoc2;
-      return false;
-    }
+    return edit().setLocation(loc1, loc2).commit();
   }
 
   /**
@@ -275,14 +348,7 @@ public class Elevator {
    * @see #masterBlock
    */
   public boolean addDoor(@Nonnull Vector door) {
-    doors.add(door.clone());
-    if (save()) {
-      reload();
-      return true;
-    } else {
-      doors.remove(doors.size() - 1);
-      return false;
-    }
+    return edit().addDoor(door).commit();
   }
 
   /**
@@ -304,15 +370,47 @@ public class Elevator {
    * @see #masterBlock
    */
   public boolean removeDoor(@Nonnull Vector door) {
-    if (!doors.remove(door)) {
-      return false;
-    } else if (save()) {
-      reload();
-      return true;
-    } else {
-      doors.add(door.clone());
-      return false;
-    }
+    return edit().removeDoor(door).commit();
+  }
+
+  /**
+   * Getter for the write mode of the elevator.
+   *
+   * @return How the elevator writes its blocks when moving.
+   */
+  @Nonnull
+  public WriteMode getWriteMode() {
+    return writeMode;
+  }
+
+  /**
+   * Setter for the write mode of the elevator.
+   *
+   * @param writeMode How the elevator writes its blocks when moving.
+   * @return True on success, false on failure.
+   */
+  public boolean setWriteMode(@Nonnull WriteMode writeMode) {
+    return edit().setWriteMode(writeMode).commit();
+  }
+
+  /**
+   * Getter for the transit mode of the elevator.
+   *
+   * @return How the elevator moves between stops.
+   */
+  @Nonnull
+  public TransitMode getTransitMode() {
+    return transitMode;
+  }
+
+  /**
+   * Setter for the transit mode of the elevator.
+   *
+   * @param transitMode How the elevator moves between stops.
+   * @return True on success, false on failure.
+   */
+  public boolean setTransitMode(@Nonnull TransitMode transitMode) {
+    return edit().setTransitMode(transitMode).commit();
   }
 
   /**
@@ -337,26 +435,6 @@ public class Elevator {
     return floors.get(floor);
   }
 
-  /**
-   * Adds a floor to the elevator.
-   *
-   * @param floor Floor object.
-   * @return True on success, false on failure.
-   */
-  private boolean addFloor(int floorNumber, @Nonnull Floor floor) {
-    Floor oldFloor = floors.put(floorNumber, floor);
-    if (save()) {
-      if (oldFloor != null) {
-        oldFloor.unload();
-      }
-      reload();
-      return true;
-    } else {
-      floors.put(floorNumber, oldFloor);
-      return false;
-    }
-  }
-
   /**
    * Checks if the elevator contains a floor.
    *
@@ -374,17 +452,19 @@ public class Elevator {
    * @return True on success, false on failure.
    */
   public boolean removeFloor(int floorNumber) {
-    Floor oldFloor = floors.remove(floorNumber);
-    if (save()) {
-      if (oldFloor != null) {
-        oldFloor.unload();
-        reload();
-      }
-      return oldFloor != null;
-    } else {
-      floors.put(floorNumber, oldFloor);
-      return false;
-    }
+    return edit().removeFloor(floorNumber).commit();
+  }
+
+  /**
+   * Starts an edit of the elevator and its floors. Changes staged in the
+   * edit are applied together when it is committed, with a single save and
+   * a single reload of the elevator.
+   *
+   * @return The edit.
+   */
+  @Nonnull
+  public Edit edit() {
+    return new Edit();
   }
 
   /**
@@ -398,6 +478,20 @@ public class Elevator {
    */
   private void addFloorNoSave(int floorNumber, @Nonnull Floor floor) {
     floors.put(floorNumber, floor);
+    updateFloorIndex();
+  }
+
+  /**
+   * Rebuilds the index of the floors and the stop queue after the floors
+   * changed, keeping the stops of the floors which still exist.
+   */
+  private void updateFloorIndex() {
+    Map<Integer, Integer> ys = new HashMap<>();
+    for (Floor floor : floors.values()) {
+      ys.put(floor.floorNumber, floor.loc.getBlockY());
+    }
+    floorIndex = new FloorIndex(ys);
+    stops = stops.withFloors(floorIndex);
   }
 
   /**
@@ -417,7 +511,7 @@ public class Elevator {
                                @Nonnull ElevatorManager manager,
                                @Nonnull Location loc1,
                                @Nonnull Location loc2) {
-    if (manager.containsElevator(name)) {
+    if (manager.containsElevator(name) || manager.isDormant(name)) {
       throw new IllegalArgumentException("Elevator already exists: "
           + name);
     }
@@ -432,16 +526,229 @@ public class Elevator {
    * @return True on success, false on failure.
    */
   public boolean addStop(int floor) {
-    if (!floors.containsKey(floor) || !loaded) {
+    return addStop(floor, CallDirection.ANY);
+  }
+
+  /**
+   * Adds a hall call to the elevator. A call in a direction is only served
+   * when the elevator passes the floor in that direction, or at the end of
+   * its sweep.
+   *
+   * @param floor Floor number.
+   * @param direction Direction of the call.
+   * @return True on success, false on failure.
+   */
+  public boolean addStop(int floor, @Nonnull CallDirection direction) {
+    if (!loaded || !stops.add(floor, direction.sign())) {
+      return false;
+    }
+    ensureBlocks();
+    startMover((byte) 0);
+    return true;
+  }
+
+  /**
+   * Adds a trip of a passenger waiting at a floor. The car stops at the
+   * floor, and the destination is queued when it opens its doors there.
+   *
+   * @param origin Floor the passenger waits at.
+   * @param destination Floor the passenger goes to.
+   * @return True on success, false on failure.
+   */
+  boolean addTrip(int origin, int destination) {
+    if (!loaded || !floors.containsKey(destination)) {
+      return false;
+    }
+    if (active && doorsOpen && currentFloor == origin) {
+      // the car is boarding at the floor
+      return addStop(destination);
+    }
+    if (!addStop(origin)) {
       return false;
     }
-    stops.add(floor);
+    pendingDestinations.computeIfAbsent(origin, k -> new HashSet<>())
+        .add(destination);
+    return true;
+  }
+
+  /**
+   * Estimates the cost of adding a trip to the elevator: the estimated
+   * arrival at the passenger's floor, plus the delay of every stop the trip
+   * adds. A trip whose floors are already stops of the elevator adds no
+   * stops, so passengers going to the same floors are grouped into the same
+   * car.
+   *
+   * @param origin Floor the passenger waits at.
+   * @param destination Floor the passenger goes to.
+   * @return The estimate in mover ticks, or -1 if the elevator can't serve
+   *         the trip.
+   * @see #estimateArrival(int)
+   */
+  int estimateTrip(int origin, int destination) {
+    int cost = estimateArrival(origin);
+    if (cost < 0 || !floors.containsKey(destination)) {
+      return -1;
+    }
+    if (!stops.contains(origin)) {
+      cost += Mover.STOP_DELAY;
+    }
+    boolean destinationQueued = stops.contains(destination);
+    for (Set<Integer> destinations : pendingDestinations.values()) {
+      destinationQueued |= destinations.contains(destination);
+    }
+    return destinationQueued ? cost : cost + Mover.STOP_DELAY;
+  }
+
+  /**
+   * Checks if a stop is queued at a floor.
+   *
+   * @param floor Floor number.
+   * @return True if the stop is queued, false otherwise.
+   */
+  boolean hasStop(int floor) {
+    return stops.contains(floor);
+  }
+
+  /**
+   * Estimates how long it would take the car to arrive at a floor if a stop
+   * was queued there now. The estimate is in mover ticks: one per block
+   * travelled and {@link Mover#STOP_DELAY} per stop made on the way. A car
+   * moving away from the floor first finishes its sweep to its farthest
+   * stop. Used by {@link ElevatorGroup} to dispatch hall calls. If the
+   * blocks of the car weren't found, e.g. because its chunks aren't loaded,
+   * the estimate is based on the car's saved position, so no chunks are
+   * loaded just to rank the elevators of a group.
+   *
+   * @param floor Floor number.
+   * @return The estimate, or -1 if the elevator can't serve the floor, e.g.
+   *         because the floor doesn't exist or the car wasn't found.
+   */
+  int estimateArrival(int floor) {
+    Floor target = floors.get(floor);
+    if (!loaded || target == null) {
+      return -1;
+    }
+    int carY;
+    if (blocksFound) {
+      if (masterBlock == null) {
+        return -1;
+      }
+      carY = masterBlock.getBlockY();
+    } else if (pendingState != null && pendingState.masterBlock != null) {
+      carY = pendingState.masterBlock[1];
+    } else if (geometry != null) {
+      carY = geometry.master[1];
+    } else {
+      return -1;
+    }
+    int targetY = target.loc.getBlockY();
+    if (!active) {
+      return Math.abs(targetY - carY);
+    }
+    int direction = mover.direction != 0 ? mover.direction
+        : targetY >= carY ? 1 : -1;
+    int cost = mover.delay;
+    if ((targetY - carY) * direction >= 0) {
+      // the floor is on the way
+      return cost + Math.abs(targetY - carY) + Mover.STOP_DELAY
+          * stops.countBetween(Math.min(carY, targetY),
+          Math.max(carY, targetY));
+    }
+    int farthest = direction > 0 ? stops.highest() : stops.lowest();
+    int turnY = farthest < 0 ? carY : direction > 0
+        ? Math.max(carY, floorIndex.y(farthest))
+        : Math.min(carY, floorIndex.y(farthest));
+    return cost + Math.abs(turnY - carY) + Math.abs(turnY - targetY)
+        + Mover.STOP_DELAY * stops.size();
+  }
+
+  /**
+   * Starts the mover task if it isn't running and the elevator has blocks.
+   *
+   * @param direction Initial direction of the mover, 0 to let the mover
+   *                  choose.
+   */
+  private void startMover(byte direction) {
     if (!active && masterBlock != null) {
       active = true;
-      task = new Mover().runTaskTimer(plugin, Mover.TICK_INTERVAL,
-          Mover.TICK_INTERVAL);
+      mover = new Mover(direction);
+      mover.runTaskTimer(plugin, Mover.TICK_INTERVAL, Mover.TICK_INTERVAL);
+    }
+  }
+
+  /**
+   * Gets the runtime state of the elevator, to be saved in the state
+   * snapshot.
+   *
+   * @return Runtime state of the elevator.
+   */
+  @Nonnull
+  ElevatorState getState() {
+    if (pendingState != null && !active) {
+      return pendingState;
+    }
+    return new ElevatorState(name,
+        stops.toArray(), stops.callsToArray((byte) 1),
+        stops.callsToArray((byte) -1),
+        currentFloor, doorsOpen, active ? mover.direction : 0,
+        masterBlock == null ? null : new int[]{masterBlock.getBlockX(),
+            masterBlock.getBlockY(), masterBlock.getBlockZ()});
+  }
+
+  /**
+   * Restores the runtime state of the elevator saved in the state
+   * snapshot. The state is reconciled against the world: stops of floors
+   * which no longer exist are dropped, and if the car isn't where it was,
+   * the saved position and doors state are ignored and the mover chooses
+   * its direction again. Only the car's blocks are checked, if they were
+   * already found, instead of scanning the whole elevator area. If the
+   * chunk of the car's saved position isn't loaded, the state is restored
+   * when it is loaded, so no chunks are loaded or generated just to check
+   * the car.
+   *
+   * @param state Saved runtime state.
+   */
+  void restoreState(@Nonnull ElevatorState state) {
+    pendingState = null;
+    if (!loaded || active) {
+      return;
+    }
+    if (!blocksFound && state.masterBlock != null
+        && !Objects.requireNonNull(loc1.getWorld()).isChunkLoaded(
+            state.masterBlock[0] >> 4, state.masterBlock[2] >> 4)) {
+      pendingState = state;
+      return;
+    }
+    for (int stop : state.stops) {
+      // stops of floors which no longer exist are ignored by the queue
+      stops.add(stop);
+    }
+    for (int call : state.upCalls) {
+      stops.add(call, (byte) 1);
+    }
+    for (int call : state.downCalls) {
+      stops.add(call, (byte) -1);
+    }
+    boolean carInPlace = state.masterBlock != null
+        && floors.containsKey(state.currentFloor)
+        && (blocksFound ? masterBlock != null
+            && masterBlock.getBlockX() == state.masterBlock[0]
+            && masterBlock.getBlockY() == state.masterBlock[1]
+            && masterBlock.getBlockZ() == state.masterBlock[2]
+            : !Objects.requireNonNull(loc1.getWorld()).getBlockAt(
+                state.masterBlock[0], state.masterBlock[1],
+                state.masterBlock[2]).getType().equals(Material.AIR));
+    byte direction = 0;
+    if (carInPlace) {
+      currentFloor = state.currentFloor;
+      // the mover closes the doors if they were left open
+      doorsOpen = state.doorsOpen;
+      direction = state.direction;
+    }
+    if (!stops.isEmpty() || doorsOpen) {
+      ensureBlocks();
+      startMover(direction);
     }
-    return true;
   }
 
   /**
@@ -451,18 +758,29 @@ public class Elevator {
    */
   @Nullable
   public Location getMasterBlock() {
+    ensureBlocks();
     return masterBlock;
   }
 
   /**
    * Cancels the elevator mover task.
    *
-   * @see #task
+   * @see #mover
    */
   private void cancelTask() {
+    if (transit != null) {
+      transit.finish();
+    }
     if (active) {
-      task.cancel();
+      mover.cancel();
       active = false;
+      // the car stopped, only recalculate the geometry if its blocks
+      // changed on the way
+      if (blocksChanged) {
+        updateChangedGeometry();
+      } else {
+        moveGeometry();
+      }
     }
   }
 
@@ -470,18 +788,11 @@ public class Elevator {
    * Reloads the elevator. Used when a property of the elevator is changed.
    */
   private void reload() {
-    reload(null);
-  }
-
-  /**
-   * Reloads the elevator. Used when a property of the elevator is changed.
-   *
-   * @param ignoreBlock Block to ignore when reloading the elevator.
-   */
-  private void reload(@Nullable Block ignoreBlock) {
-    findBlocks(ignoreBlock);
     stops.clear();
+    pendingDestinations.clear();
     cancelTask();
+    releaseBlocks();
+    findBlocksIfLoaded();
   }
 
   /**
@@ -491,12 +802,13 @@ public class Elevator {
    */
   void unload() {
     if (loaded) {
+      // cleared first, so stopping the car doesn't save the elevator while
+      // the manager is removing it
+      loaded = false;
       cancelTask();
-      HandlerList.unregisterAll(blockEventListener);
       for (Floor floor : floors.values()) {
         floor.unload();
       }
-      loaded = false;
     }
   }
 
@@ -513,28 +825,99 @@ public class Elevator {
   }
 
   /**
-   * Finds the blocks of the elevator object.
+   * Called by the elevator manager when a chunk of the elevator area is
+   * loaded. Finds the blocks of the elevator object once every chunk of
+   * the area is loaded, and restores the saved runtime state once the
+   * chunk of the car's saved position is loaded.
+   */
+  void handleChunkLoad() {
+    if (loaded && !blocksFound) {
+      findBlocksIfLoaded();
+    }
+    if (pendingState != null) {
+      restoreState(pendingState);
+    }
+  }
+
+  /**
+   * Called by the elevator manager when a chunk of the elevator area is
+   * unloaded. Releases the blocks of the elevator object, unless the
+   * elevator is moving.
+   */
+  void handleChunkUnload() {
+    if (!active && transit == null) {
+      releaseBlocks();
+    }
+  }
+
+  /**
+   * Finds the blocks of the elevator object if they weren't found yet.
+   * Loads the chunks of the elevator area if they aren't loaded.
+   */
+  private void ensureBlocks() {
+    if (!blocksFound) {
+      findBlocks();
+    }
+  }
+
+  /**
+   * Finds the blocks of the elevator object if every chunk of the elevator
+   * area is loaded, so no chunks are loaded just to scan the area.
+   */
+  private void findBlocksIfLoaded() {
+    World world = Objects.requireNonNull(loc1.getWorld());
+    for (int chunkX = lowX >> 4; chunkX <= highX >> 4; chunkX++) {
+      for (int chunkZ = lowZ >> 4; chunkZ <= highZ >> 4; chunkZ++) {
+        if (!world.isChunkLoaded(chunkX, chunkZ)) {
+          return;
+        }
+      }
+    }
+    findBlocks();
+  }
+
+  /**
+   * Releases the blocks of the elevator object. They are found again when
+   * they are needed.
+   */
+  private void releaseBlocks() {
+    // the geometry is calculated from the found blocks
+    updateChangedGeometry();
+    carBlocks.clear();
+    masterBlock = null;
+    blocksFound = false;
+  }
+
+  /**
+   * Getter for the saved geometry of the car.
    *
-   * @param ignoreBlock Block to ignore when finding the blocks.
-   */
-  private void findBlocks(@Nullable Block ignoreBlock) {
-    int l1x,l1y,l1z,l2x,l2y,l2z;
-    l1x = loc1.getBlockX();
-    l1y = loc1.getBlockY();
-    l1z = loc1.getBlockZ();
-    l2x = loc2.getBlockX();
-    l2y = loc2.getBlockY();
-    l2z = loc2.getBlockZ();
+   * @return Geometry of the car, or null if there is none.
+   */
+  @Nullable
+  CarGeometry getGeometry() {
+    return geometry;
+  }
+
+  /**
+   * Finds the blocks of the elevator object. If the saved geometry of the
+   * car still matches the world, only the car's positions are checked,
+   * otherwise the whole elevator area is scanned.
+   */
+  private void findBlocks() {
     // reset the blocks list and masterBlock
-    elevatorBlocks.clear();
+    carBlocks.clear();
     masterBlock = null;
-    for (int x=Math.min(l1x, l2x); x<=Math.max(l1x, l2x); x++) {
-      for (int y=Math.min(l1y, l2y); y<=Math.max(l1y, l2y); y++) {
-        for (int z=Math.min(l1z, l2z); z<=Math.max(l1z, l2z); z++) {
-          Block block = Objects.requireNonNull(loc1.getWorld())
-              .getBlockAt(x, y, z);
-          if (!block.getType().equals(Material.AIR) && !block.equals(ignoreBlock)) {
-            elevatorBlocks.add(block.getLocation());
+    World world = Objects.requireNonNull(loc1.getWorld());
+    if (findBlocksFromGeometry(world)) {
+      blocksFound = true;
+      return;
+    }
+    for (int x=lowX; x<=highX; x++) {
+      for (int y=lowY; y<=highY; y++) {
+        for (int z=lowZ; z<=highZ; z++) {
+          Block block = world.getBlockAt(x, y, z);
+          if (!block.getType().equals(Material.AIR)) {
+            carBlocks.append(x, y, z);
             // If the master block is not set, set it to the first block that
             // is not null. Since the loops go from the smallest coordinates to
             // largest, the first discovered block that is not air will have
@@ -546,88 +929,304 @@ public class Elevator {
         }
       }
     }
-
-    lowX = Math.min(l1x, l2x);
-    highX = Math.max(l1x, l2x);
-    lowZ = Math.min(l1z, l2z);
-    highZ = Math.max(l1z, l2z);
-    sizeY = Math.max(l1y, l2y) - Math.min(l1y, l2y) + 1;
+    carBlocks.sort();
+    blocksFound = true;
+    updateGeometry();
   }
 
   /**
-   * Saves the elevator to the config file.
+   * Finds the blocks of the elevator object from the saved geometry of the
+   * car.
    *
-   * @return True on success, false on failure.
+   * @param world World of the elevator.
+   * @return True if the geometry is inside the elevator area and matches
+   *         the world, false if the area has to be scanned.
    */
-  private boolean save() {
-    return manager.saveElevator(name, this);
+  private boolean findBlocksFromGeometry(@Nonnull World world) {
+    if (geometry == null) {
+      return false;
+    }
+    int[] master = geometry.master;
+    int[] offsets = geometry.offsets;
+    for (int i = 0; i < offsets.length; i += 3) {
+      if (!regionContains(master[0] + offsets[i],
+          master[1] + offsets[i + 1], master[2] + offsets[i + 2])) {
+        return false;
+      }
+    }
+    if (!geometry.matches(world)) {
+      return false;
+    }
+    for (int i = 0; i < offsets.length; i += 3) {
+      carBlocks.append(master[0] + offsets[i], master[1] + offsets[i + 1],
+          master[2] + offsets[i + 2]);
+    }
+    carBlocks.sort();
+    masterBlock = new Location(world, master[0], master[1], master[2]);
+    return true;
   }
 
   /**
-   * This class listens for block placement and block removal events in the
-   * elevator's region.
+   * Updates the saved geometry of the car from its current blocks, and
+   * saves the elevator if the geometry changed. The elevator is not saved
+   * while it is being created or loaded.
    */
-  private class BlockEventListener implements Listener {
-    /**
-     * Listens for block placement events.
-     *
-     * @param event Block placement event.
-     */
-    @EventHandler
-    public void onBlockPlaceEvent(@Nonnull BlockPlaceEvent event) {
-      if (!event.isCancelled()) {
-        handle(event, null);
-      }
+  private void updateGeometry() {
+    if (!blocksFound) {
+      return;
     }
-
-    /**
-     * Listens for block removal events.
-     *
-     * @param event Block removal event.
-     */
-    @EventHandler
-    public void onBlockBreakEvent(@Nonnull BlockBreakEvent event) {
-      if (!event.isCancelled()) {
-        handle(event, event.getBlock());
+    CarGeometry current = CarGeometry.of(
+        Objects.requireNonNull(loc1.getWorld()), carBlocks);
+    if (!CarGeometry.same(current, geometry)) {
+      geometry = current;
+      if (loaded) {
+        save();
       }
     }
+  }
 
-    /**
-     * Handles the event.
-     *
-     * @param event Event to handle.
-     * @param ignoreBlock Block to ignore when reloading the elevator.
-     */
-    public void handle(@Nonnull BlockEvent event, @Nullable Block ignoreBlock) {
-      int l1x,l1y,l1z,l2x,l2y,l2z;
-      l1x = loc1.getBlockX();
-      l1y = loc1.getBlockY();
-      l1z = loc1.getBlockZ();
-      l2x = loc2.getBlockX();
-      l2y = loc2.getBlockY();
-      l2z = loc2.getBlockZ();
-
-      int x = event.getBlock().getX();
-      int y = event.getBlock().getY();
-      int z = event.getBlock().getZ();
-
-      // Reload the elevator if the block which generated the event is in the
-      // elevator's region.
-      if (x >= Math.min(l1x, l2x) && x <= Math.max(l1x, l2x) &&
-          y >= Math.min(l1y, l2y) && y <= Math.max(l1y, l2y) &&
-          z >= Math.min(l1z, l2z) && z <= Math.max(l1z, l2z)) {
-        reload(ignoreBlock);
-      }
+  /**
+   * Recalculates the geometry of the car if its blocks changed since it
+   * was last calculated, and saves the elevator if the geometry changed.
+   */
+  private void updateChangedGeometry() {
+    if (blocksChanged) {
+      blocksChanged = false;
+      updateGeometry();
     }
   }
 
   /**
-   * Represents a floor of the elevator.
+   * Moves the saved geometry of the car to the current position of its
+   * master block, after the car moved without its blocks changing. The
+   * elevator isn't saved.
    */
-  public static class Floor {
-    /**
-     * Plugin instance. Used for logging and creating the call button listener.
-     */
+  private void moveGeometry() {
+    if (!blocksFound || geometry == null || masterBlock == null) {
+      return;
+    }
+    int[] master = {masterBlock.getBlockX(), masterBlock.getBlockY(),
+        masterBlock.getBlockZ()};
+    if (!Arrays.equals(master, geometry.master)) {
+      geometry = geometry.at(master);
+      geometryMoved = true;
+    }
+  }
+
+  /**
+   * Saves the elevator if its car moved or, while it isn't moving, its
+   * blocks changed since it was last saved. Called by the elevator manager
+   * before the elevator is unloaded.
+   */
+  void saveMovedGeometry() {
+    if (!loaded) {
+      return;
+    }
+    if (!active) {
+      updateChangedGeometry();
+    }
+    if (geometryMoved) {
+      save();
+    }
+  }
+
+  /**
+   * Updates the cached coordinates of the elevator area cuboid region. Must
+   * be called whenever {@link #loc1 loc1} or {@link #loc2 loc2} changes.
+   */
+  private void updateBounds() {
+    lowX = Math.min(loc1.getBlockX(), loc2.getBlockX());
+    highX = Math.max(loc1.getBlockX(), loc2.getBlockX());
+    lowY = Math.min(loc1.getBlockY(), loc2.getBlockY());
+    highY = Math.max(loc1.getBlockY(), loc2.getBlockY());
+    lowZ = Math.min(loc1.getBlockZ(), loc2.getBlockZ());
+    highZ = Math.max(loc1.getBlockZ(), loc2.getBlockZ());
+    sizeY = highY - lowY + 1;
+  }
+
+  /**
+   * Checks if a block is in the elevator area cuboid region.
+   *
+   * @param x X coordinate of the block.
+   * @param y Y coordinate of the block.
+   * @param z Z coordinate of the block.
+   * @return True if the block is in the region, false otherwise.
+   */
+  boolean regionContains(int x, int y, int z) {
+    return x >= lowX && x <= highX && y >= lowY && y <= highY
+        && z >= lowZ && z <= highZ;
+  }
+
+  /**
+   * Calculates the squared distance between a block and the elevator area
+   * cuboid region.
+   *
+   * @param x X coordinate of the block.
+   * @param y Y coordinate of the block.
+   * @param z Z coordinate of the block.
+   * @return Squared distance in blocks, 0 if the block is in the region.
+   */
+  long regionDistanceSquared(int x, int y, int z) {
+    long dx = Math.max(0, Math.max(lowX - x, x - highX));
+    long dy = Math.max(0, Math.max(lowY - y, y - highY));
+    long dz = Math.max(0, Math.max(lowZ - z, z - highZ));
+    return dx * dx + dy * dy + dz * dz;
+  }
+
+  /**
+   * Called by the elevator manager when a block in the elevator's region
+   * is placed or broken. The elevator blocks are updated on the next tick,
+   * once the world reflects the change, including blocks like doors and
+   * beds which also change their neighboring block. Changes made during an
+   * entity transit are ignored.
+   *
+   * @param block Block which was placed or broken.
+   */
+  void handleBlockChange(@Nonnull Block block) {
+    plugin.getServer().getScheduler().runTask(plugin, () -> {
+      // the car blocks aren't in the world during an entity transit, and
+      // they are found from scratch if they weren't found yet
+      if (loaded && transit == null && blocksFound) {
+        updateBlocks(block.getX(), block.getY(), block.getZ());
+      }
+    });
+  }
+
+  /**
+   * Updates the elevator blocks at and around a block without rescanning
+   * the whole elevator region. The current trip is only interrupted if the
+   * master block changes, because floors and doors depend on it.
+   *
+   * @param x X coordinate of the block.
+   * @param y Y coordinate of the block.
+   * @param z Z coordinate of the block.
+   */
+  private void updateBlocks(int x, int y, int z) {
+    Location oldMasterBlock = masterBlock == null ? null :
+        masterBlock.clone();
+    updateBlock(x, y, z);
+    updateBlock(x - 1, y, z);
+    updateBlock(x + 1, y, z);
+    updateBlock(x, y - 1, z);
+    updateBlock(x, y + 1, z);
+    updateBlock(x, y, z - 1);
+    updateBlock(x, y, z + 1);
+    int master = carBlocks.masterIndex();
+    masterBlock = master < 0 ? null : new Location(loc1.getWorld(),
+        carBlocks.x(master), carBlocks.y(master), carBlocks.z(master));
+    if (!Objects.equals(oldMasterBlock, masterBlock)) {
+      stops.clear();
+      pendingDestinations.clear();
+      cancelTask();
+    }
+    // the geometry is recalculated once the car stops or its blocks are
+    // released, instead of after every edit of the car
+    blocksChanged = true;
+  }
+
+  /**
+   * Adds a block to or removes a block from the elevator blocks depending
+   * on whether it is air.
+   *
+   * @param x X coordinate of the block.
+   * @param y Y coordinate of the block.
+   * @param z Z coordinate of the block.
+   */
+  private void updateBlock(int x, int y, int z) {
+    if (!regionContains(x, y, z)) {
+      return;
+    }
+    Block block = Objects.requireNonNull(loc1.getWorld()).getBlockAt(x, y, z);
+    if (block.getType().equals(Material.AIR)) {
+      carBlocks.remove(x, y, z);
+    } else {
+      carBlocks.add(x, y, z);
+    }
+  }
+
+  /**
+   * Saves the elevator to the config file.
+   *
+   * @return True on success, false on failure.
+   */
+  private boolean save() {
+    // the data saved includes the current position of the car
+    geometryMoved = false;
+    return manager.saveElevator(name, this);
+  }
+
+  /**
+   * Specifies how an elevator writes its blocks when moving.
+   */
+  public enum WriteMode {
+    /**
+     * Every block is written with physics applied immediately.
+     */
+    IMMEDIATE,
+
+    /**
+     * Blocks inside the car are written without physics, and neighbor
+     * updates are only done once for the car's outer shell after each
+     * step. Cars containing physics sensitive blocks, like redstone
+     * components, are written as in {@link #IMMEDIATE} mode.
+     */
+    DEFERRED
+  }
+
+  /**
+   * Specifies how an elevator moves between stops.
+   */
+  public enum TransitMode {
+    /**
+     * The elevator's blocks are moved one block at a time.
+     */
+    BLOCKS,
+
+    /**
+     * The elevator's blocks are removed when it departs, moved smoothly as
+     * entities, and placed again when it arrives at the next stop.
+     */
+    ENTITIES
+  }
+
+  /**
+   * Direction of a call button of a floor.
+   */
+  public enum CallDirection {
+    /**
+     * The elevator stops at the floor whichever way it is going.
+     */
+    ANY,
+
+    /**
+     * The elevator stops at the floor when going up, or when it has no
+     * stops above the floor.
+     */
+    UP,
+
+    /**
+     * The elevator stops at the floor when going down, or when it has no
+     * stops below the floor.
+     */
+    DOWN;
+
+    /**
+     * Gets the direction as used by the mover.
+     *
+     * @return 1 for up, -1 for down, 0 for any direction.
+     */
+    private byte sign() {
+      return (byte) (this == UP ? 1 : this == DOWN ? -1 : 0);
+    }
+  }
+
+  /**
+   * Represents a floor of the elevator.
+   */
+  public static class Floor {
+    /**
+     * Plugin instance. Used for logging.
+     */
     private final JavaPlugin plugin;
 
     /**
@@ -656,9 +1255,19 @@ public class Elevator {
     private Location callButton;
 
     /**
-     * Call button listener.
+     * Call button for going up.
+     */
+    private Location upCallButton;
+
+    /**
+     * Call button for going down.
+     */
+    private Location downCallButton;
+
+    /**
+     * Call buttons registered in the elevator manager's call button index.
      */
-    private CallButtonListener callButtonListener = null;
+    private final List<Location> registeredCallButtons = new ArrayList<>();
 
     /**
      * Indicates if the floor is loaded, meaning that it is listening to the
@@ -693,16 +1302,22 @@ public class Elevator {
      * @param loc Location of the floor.
      * @param doors Doors of the floor.
      * @param callButton Call button of the floor.
+     * @param upCallButton Call button of the floor for going up.
+     * @param downCallButton Call button of the floor for going down.
      */
     Floor(@Nonnull JavaPlugin plugin, @Nonnull Elevator elevator,
           int floorNumber, @Nonnull Location loc,
-          @Nonnull List<Location> doors, @Nullable Location callButton) {
+          @Nonnull List<Location> doors, @Nullable Location callButton,
+          @Nullable Location upCallButton,
+          @Nullable Location downCallButton) {
       this.plugin = plugin;
       this.elevator = elevator;
       this.loc = loc;
       this.floorNumber = floorNumber;
       this.doors = doors;
       this.callButton = callButton;
+      this.upCallButton = upCallButton;
+      this.downCallButton = downCallButton;
       reload();
       elevator.addFloorNoSave(floorNumber, this);
     }
@@ -715,13 +1330,16 @@ public class Elevator {
         return;
       }
 
-      if (callButton != null && callButtonListener == null) {
-        callButtonListener = new CallButtonListener();
-        plugin.getServer().getPluginManager().registerEvents(
-            callButtonListener, plugin);
-      } else if (callButton == null && callButtonListener != null) {
-        HandlerList.unregisterAll(callButtonListener);
-        callButtonListener = null;
+      for (Location registered : registeredCallButtons) {
+        elevator.manager.unregisterCallButton(registered, this);
+      }
+      registeredCallButtons.clear();
+      for (Location button : new Location[]{callButton, upCallButton,
+          downCallButton}) {
+        if (button != null) {
+          elevator.manager.registerCallButton(button, this);
+          registeredCallButtons.add(button);
+        }
       }
     }
 
@@ -732,10 +1350,10 @@ public class Elevator {
      */
     private void unload() {
       if (loaded) {
-        if (callButtonListener != null) {
-          HandlerList.unregisterAll(callButtonListener);
-          callButtonListener = null;
+        for (Location registered : registeredCallButtons) {
+          elevator.manager.unregisterCallButton(registered, this);
         }
+        registeredCallButtons.clear();
         loaded = false;
       }
     }
@@ -765,8 +1383,7 @@ public class Elevator {
     public static boolean create(@Nonnull JavaPlugin plugin,
                                  @Nonnull Elevator elevator, int floorNumber,
                                  @Nonnull Location loc) {
-      return elevator.addFloor(floorNumber, new Floor(plugin, elevator,
-          floorNumber, loc.clone()));
+      return elevator.edit().addFloor(floorNumber, loc).commit();
     }
 
     /**
@@ -800,14 +1417,7 @@ public class Elevator {
      * @return True on success, false in failure.
      */
     public boolean addDoor(@Nonnull Location loc) {
-      doors.add(loc.clone());
-      if (save()) {
-        elevator.reload();
-        return true;
-      } else {
-        doors.remove(doors.size() - 1);
-        return false;
-      }
+      return elevator.edit().addFloorDoor(floorNumber, loc).commit();
     }
 
     /**
@@ -837,20 +1447,7 @@ public class Elevator {
      * @return True on success, false in failure.
      */
     public boolean removeDoor(int x, int y, int z) {
-      for (Location loc: doors) {
-        if (loc.getBlockX() == x && loc.getBlockY() == y
-            && loc.getBlockZ() == z) {
-          doors.remove(loc);
-          if (save()) {
-            elevator.reload();
-            return true;
-          } else {
-            doors.add(loc);
-            return false;
-          }
-        }
-      }
-      return false;
+      return elevator.edit().removeFloorDoor(floorNumber, x, y, z).commit();
     }
 
     /**
@@ -861,19 +1458,21 @@ public class Elevator {
      * @return True on success, false in failure.
      */
     public boolean setCallButton(@Nullable Location callButton) {
-      Location oldCallButton = this.callButton;
-      if (callButton != null) {
-        this.callButton = callButton.clone();
-      } else {
-        this.callButton = null;
-      }
-      if (save()) {
-        reload();
-        return true;
-      } else {
-        this.callButton = oldCallButton;
-        return false;
-      }
+      return setCallButton(callButton, CallDirection.ANY);
+    }
+
+    /**
+     * Sets a call button for the floor. To delete the call button, pass
+     * null as the parameter for the location of the call button.
+     *
+     * @param callButton Location of the call button.
+     * @param direction Direction of the call button.
+     * @return True on success, false in failure.
+     */
+    public boolean setCallButton(@Nullable Location callButton,
+                                 @Nonnull CallDirection direction) {
+      return elevator.edit()
+          .setFloorCallButton(floorNumber, callButton, direction).commit();
     }
 
     /**
@@ -887,36 +1486,58 @@ public class Elevator {
     }
 
     /**
-     * Listener for the call button of the floor.
-     */
-    private class CallButtonListener implements Listener {
-      /**
-       * Listens for a player interact event. If the player interacts with
-       * the call button, it will add the floor to the elevator's stop queue.
-       *
-       * @param event Player interact event.
-       */
-      @EventHandler
-      public void onPlayerInteractEvent(@Nonnull PlayerInteractEvent event) {
-        if (event.getAction().equals(Action.RIGHT_CLICK_BLOCK)) {
-          Location blockLoc = Objects.requireNonNull(event.getClickedBlock())
-              .getLocation();
-          if (blockLoc.getBlockX() == callButton.getBlockX() &&
-              blockLoc.getBlockY() == callButton.getBlockY() &&
-              blockLoc.getBlockZ() == callButton.getBlockZ() &&
-              blockLoc.getBlock().getBlockData() instanceof Switch) {
-            if (elevator.addStop(floorNumber)) {
-              event.getPlayer().sendMessage("Elevator coming to your floor. " +
-                  "Please wait.");
-            } else {
-              event.getPlayer().sendMessage(ChatColor.RED + "Failed to " +
-                  "queue elevator to come to your floor.");
-            }
-          }
-        }
+     * Getter for a call button of the floor.
+     *
+     * @param direction Direction of the call button.
+     * @return Location of the call button.
+     */
+    @Nullable
+    public Location getCallButton(@Nonnull CallDirection direction) {
+      return direction == CallDirection.UP ? upCallButton
+          : direction == CallDirection.DOWN ? downCallButton : callButton;
+    }
+
+    /**
+     * Called by the elevator manager when a player presses a call button
+     * of the floor. Adds a hall call in the direction of the button to the
+     * elevator's stop queue.
+     *
+     * @param player Player who pressed the call button.
+     * @param x X coordinate of the call button.
+     * @param y Y coordinate of the call button.
+     * @param z Z coordinate of the call button.
+     */
+    void handleCallButtonPress(@Nonnull Player player, int x, int y, int z) {
+      CallDirection direction = CallDirection.ANY;
+      if (isAt(upCallButton, x, y, z)) {
+        direction = CallDirection.UP;
+      } else if (isAt(downCallButton, x, y, z)) {
+        direction = CallDirection.DOWN;
+      }
+      if (elevator.addStop(floorNumber, direction)) {
+        player.sendMessage("Elevator coming to your floor. Please wait.");
+      } else {
+        player.sendMessage(ChatColor.RED + "Failed to queue elevator to " +
+            "come to your floor.");
       }
     }
 
+    /**
+     * Checks if a call button is at the given coordinates.
+     *
+     * @param button Location of the call button, or null.
+     * @param x X coordinate.
+     * @param y Y coordinate.
+     * @param z Z coordinate.
+     * @return True if the call button is at the coordinates, false
+     *         otherwise.
+     */
+    private static boolean isAt(@Nullable Location button, int x, int y,
+                                int z) {
+      return button != null && button.getBlockX() == x
+          && button.getBlockY() == y && button.getBlockZ() == z;
+    }
+
     /**
      * Saves the floor to the config file.
      *
@@ -927,6 +1548,330 @@ public class Elevator {
     }
   }
 
+  /**
+   * Edit of an elevator and its floors. Changes are staged by calling the
+   * methods of the edit, which can be chained, and applied in order when
+   * the edit is committed. The elevator is saved once, and reloaded once
+   * if a change affects the elevator's blocks, doors or floors. If a change
+   * can't be applied, e.g. because a door or floor doesn't exist, or the
+   * elevator can't be saved, every change of the edit is rolled back.
+   *
+   * <p>Example:
+   * <pre>{@code
+   * elevator.edit()
+   *     .addFloor(1, loc1)
+   *     .addFloorDoor(1, door1)
+   *     .addFloor(2, loc2)
+   *     .addFloorDoor(2, door2)
+   *     .commit();
+   * }</pre>
+   */
+  public class Edit {
+    /**
+     * Staged changes. A change returns false if it can't be applied.
+     */
+    private final List<BooleanSupplier> changes = new ArrayList<>();
+
+    /**
+     * Indicates whether a staged change requires reloading the elevator.
+     */
+    private boolean reloadNeeded = false;
+
+    /**
+     * Indicates whether the edit was committed.
+     */
+    private boolean committed = false;
+
+    /**
+     * Private constructor, used by {@link Elevator#edit()}.
+     */
+    private Edit() {
+    }
+
+    /**
+     * Sets the location of the elevator.
+     *
+     * @param loc1 First location of the elevator area cuboid region.
+     * @param loc2 Second location of the elevator area cuboid region.
+     * @return This edit.
+     */
+    @Nonnull
+    public Edit setLocation(@Nonnull Location loc1, @Nonnull Location loc2) {
+      Location newLoc1 = loc1.clone();
+      Location newLoc2 = loc2.clone();
+      return stage(true, () -> {
+        Elevator.this.loc1 = newLoc1;
+        Elevator.this.loc2 = newLoc2;
+        updateBounds();
+        return true;
+      });
+    }
+
+    /**
+     * Adds a door to the elevator.
+     *
+     * @param door Coordinate of door relative to the master block.
+     * @return This edit.
+     */
+    @Nonnull
+    public Edit addDoor(@Nonnull Vector door) {
+      Vector newDoor = door.clone();
+      return stage(true, () -> doors.add(newDoor));
+    }
+
+    /**
+     * Removes a door from the elevator. Fails if the elevator doesn't
+     * contain the door.
+     *
+     * @param door Coordinate of door relative to the master block.
+     * @return This edit.
+     */
+    @Nonnull
+    public Edit removeDoor(@Nonnull Vector door) {
+      Vector oldDoor = door.clone();
+      return stage(true, () -> doors.remove(oldDoor));
+    }
+
+    /**
+     * Sets the write mode of the elevator.
+     *
+     * @param writeMode How the elevator writes its blocks when moving.
+     * @return This edit.
+     */
+    @Nonnull
+    public Edit setWriteMode(@Nonnull WriteMode writeMode) {
+      return stage(false, () -> {
+        Elevator.this.writeMode = writeMode;
+        return true;
+      });
+    }
+
+    /**
+     * Sets the transit mode of the elevator.
+     *
+     * @param transitMode How the elevator moves between stops.
+     * @return This edit.
+     */
+    @Nonnull
+    public Edit setTransitMode(@Nonnull TransitMode transitMode) {
+      return stage(false, () -> {
+        Elevator.this.transitMode = transitMode;
+        return true;
+      });
+    }
+
+    /**
+     * Adds a floor to the elevator. An existing floor with the same number
+     * is replaced.
+     *
+     * @param floorNumber Floor number.
+     * @param loc Location of the floor.
+     * @return This edit.
+     */
+    @Nonnull
+    public Edit addFloor(int floorNumber, @Nonnull Location loc) {
+      Location floorLoc = loc.clone();
+      return stage(true, () -> {
+        floors.put(floorNumber, new Floor(plugin, Elevator.this,
+            floorNumber, floorLoc));
+        return true;
+      });
+    }
+
+    /**
+     * Removes a floor from the elevator. Fails if the floor doesn't exist.
+     *
+     * @param floorNumber Floor number.
+     * @return This edit.
+     */
+    @Nonnull
+    public Edit removeFloor(int floorNumber) {
+      return stage(true, () -> floors.remove(floorNumber) != null);
+    }
+
+    /**
+     * Adds a door to a floor. Fails if the floor doesn't exist.
+     *
+     * @param floorNumber Floor number.
+     * @param loc Location of the door.
+     * @return This edit.
+     */
+    @Nonnull
+    public Edit addFloorDoor(int floorNumber, @Nonnull Location loc) {
+      Location door = loc.clone();
+      return stage(true, () -> {
+        Floor floor = floors.get(floorNumber);
+        return floor != null && floor.doors.add(door);
+      });
+    }
+
+    /**
+     * Removes a door from a floor. Fails if the floor or the door doesn't
+     * exist.
+     *
+     * @param floorNumber Floor number.
+     * @param x X coordinate of the door.
+     * @param y Y coordinate of the door.
+     * @param z Z coordinate of the door.
+     * @return This edit.
+     */
+    @Nonnull
+    public Edit removeFloorDoor(int floorNumber, int x, int y, int z) {
+      return stage(true, () -> {
+        Floor floor = floors.get(floorNumber);
+        if (floor == null) {
+          return false;
+        }
+        for (Location door : floor.doors) {
+          if (door.getBlockX() == x && door.getBlockY() == y
+              && door.getBlockZ() == z) {
+            return floor.doors.remove(door);
+          }
+        }
+        return false;
+      });
+    }
+
+    /**
+     * Sets the call button of a floor. Fails if the floor doesn't exist.
+     *
+     * @param floorNumber Floor number.
+     * @param callButton Location of the call button, or null to remove the
+     *                   call button.
+     * @return This edit.
+     */
+    @Nonnull
+    public Edit setFloorCallButton(int floorNumber,
+                                   @Nullable Location callButton) {
+      return setFloorCallButton(floorNumber, callButton, CallDirection.ANY);
+    }
+
+    /**
+     * Sets a call button of a floor. Fails if the floor doesn't exist.
+     *
+     * @param floorNumber Floor number.
+     * @param callButton Location of the call button, or null to remove the
+     *                   call button.
+     * @param direction Direction of the call button.
+     * @return This edit.
+     */
+    @Nonnull
+    public Edit setFloorCallButton(int floorNumber,
+                                   @Nullable Location callButton,
+                                   @Nonnull CallDirection direction) {
+      Location newCallButton = callButton == null ? null :
+          callButton.clone();
+      return stage(false, () -> {
+        Floor floor = floors.get(floorNumber);
+        if (floor == null) {
+          return false;
+        }
+        if (direction == CallDirection.UP) {
+          floor.upCallButton = newCallButton;
+        } else if (direction == CallDirection.DOWN) {
+          floor.downCallButton = newCallButton;
+        } else {
+          floor.callButton = newCallButton;
+        }
+        return true;
+      });
+    }
+
+    /**
+     * Applies the staged changes, saves the elevator and reloads it if
+     * needed. If a change can't be applied or the elevator can't be saved,
+     * every change is rolled back.
+     *
+     * @return True on success, false on failure.
+     * @throws IllegalStateException If the edit was already committed.
+     */
+    public boolean commit() {
+      if (committed) {
+        throw new IllegalStateException("Edit already committed.");
+      }
+      committed = true;
+      // snapshot of the elevator, restored on failure
+      Location oldLoc1 = loc1;
+      Location oldLoc2 = loc2;
+      List<Vector> oldDoors = new ArrayList<>(doors);
+      WriteMode oldWriteMode = writeMode;
+      TransitMode oldTransitMode = transitMode;
+      Map<Integer, Floor> oldFloors = new HashMap<>(floors);
+      Map<Floor, List<Location>> oldFloorDoors = new HashMap<>();
+      Map<Floor, Location[]> oldCallButtons = new HashMap<>();
+      for (Floor floor : floors.values()) {
+        oldFloorDoors.put(floor, new ArrayList<>(floor.doors));
+        oldCallButtons.put(floor, new Location[]{floor.callButton,
+            floor.upCallButton, floor.downCallButton});
+      }
+
+      boolean applied = true;
+      for (BooleanSupplier change : changes) {
+        if (!change.getAsBoolean()) {
+          applied = false;
+          break;
+        }
+      }
+      if (applied && save()) {
+        // unload replaced and removed floors, and register the call
+        // buttons of the others
+        for (Floor floor : oldFloors.values()) {
+          if (floors.get(floor.floorNumber) != floor) {
+            floor.unload();
+          }
+        }
+        floors.values().forEach(Floor::reload);
+        updateFloorIndex();
+        if (reloadNeeded) {
+          reload();
+        }
+        return true;
+      }
+
+      // roll back, unloading the floors created by the edit
+      for (Floor floor : floors.values()) {
+        if (!oldFloorDoors.containsKey(floor)) {
+          floor.unload();
+        }
+      }
+      loc1 = oldLoc1;
+      loc2 = oldLoc2;
+      updateBounds();
+      doors.clear();
+      doors.addAll(oldDoors);
+      writeMode = oldWriteMode;
+      transitMode = oldTransitMode;
+      floors.clear();
+      floors.putAll(oldFloors);
+      for (Floor floor : floors.values()) {
+        floor.doors.clear();
+        floor.doors.addAll(oldFloorDoors.get(floor));
+        Location[] callButtons = oldCallButtons.get(floor);
+        floor.callButton = callButtons[0];
+        floor.upCallButton = callButtons[1];
+        floor.downCallButton = callButtons[2];
+      }
+      return false;
+    }
+
+    /**
+     * Stages a change.
+     *
+     * @param reload Whether the change requires reloading the elevator.
+     * @param change The change, returning false if it can't be applied.
+     * @return This edit.
+     */
+    @Nonnull
+    private Edit stage(boolean reload, @Nonnull BooleanSupplier change) {
+      if (committed) {
+        throw new IllegalStateException("Edit already committed.");
+      }
+      changes.add(change);
+      reloadNeeded |= reload;
+      return this;
+    }
+  }
+
   /**
    * Moves the elevator object.
    */
@@ -936,7 +1881,7 @@ public class Elevator {
     /**
      * Direction of the elevator. 1 for up, -1 for down.
      */
-    private byte direction = 0;
+    private byte direction;
 
     /**
      * Delay the mover has to wait for. Used when the elevator is at a floor
@@ -944,17 +1889,38 @@ public class Elevator {
      */
     private int delay = 0;
 
+    /**
+     * Constructor.
+     *
+     * @param direction Initial direction of the elevator, 0 to choose it
+     *                  from the stops.
+     */
+    private Mover(byte direction) {
+      this.direction = direction;
+    }
+
     /**
      * Specifies the tick frequency of the mover.
      */
     private static final int TICK_INTERVAL = 10;
 
+    /**
+     * Number of mover ticks the elevator waits at a stop for players to
+     * board.
+     */
+    private static final int STOP_DELAY = 5 * 20 / TICK_INTERVAL;
+
     /**
      * Main method that's get called every {@link #TICK_INTERVAL TICK_INTERVAL}
      * ticks.
      */
     @Override
     public void run() {
+      // wait for the entity transit to arrive
+      if (transit != null) {
+        return;
+      }
+
       if (delay > 0) {
         delay--;
         return;
@@ -962,11 +1928,10 @@ public class Elevator {
 
       // if the elevator is at a stop and has to start moving again, choose
       // its direction
+      int masterY = masterBlock.getBlockY();
       if (doorsOpen) {
-        if (stops.stream().map(floors::get)
-            .map(floor -> floor.getLocation().getBlockY())
-            .allMatch(y -> direction > 0 ? y <= masterBlock.getBlockY() :
-                y >= masterBlock.getBlockY())) {
+        if ((direction > 0 ? stops.nextAbove(masterY)
+            : stops.nextBelow(masterY)) < 0) {
           direction = (byte)(direction == 1 ? -1 : 1);
         }
       }
@@ -982,35 +1947,40 @@ public class Elevator {
 
       // choose direction of the elevator if the mover was just created
       if (direction == 0) {
-        direction = -1;
-        stops.stream().map(floors::get)
-            .map(floor -> floor.getLocation().getBlockY())
-            .min(Comparator.comparingInt(y ->
-                Math.abs(y - masterBlock.getBlockY())))
-            .filter(y -> y > masterBlock.getBlockY())
-            .ifPresent(y -> direction = 1);
+        // go towards the closest stop, going down on a tie
+        int above = stops.nextAbove(masterY);
+        int below = stops.nextBelow(masterY + 1);
+        direction = (byte)(above >= 0 && (below < 0
+            || floorIndex.y(above) - masterY
+            < masterY - floorIndex.y(below)) ? 1 : -1);
       }
 
       // check if at a stop
-      if (stops.stream().map(floors::get)
-          .anyMatch(floor -> floor.getLocation().getBlockX() ==
-              masterBlock.getBlockX() &&
-              floor.getLocation().getBlockY() == masterBlock.getBlockY() &&
-              floor.getLocation().getBlockZ() == masterBlock.getBlockZ())) {
+      int arrived = arrivedAt(masterY);
+      if (arrived >= 0) {
         // set delay for 5 seconds
-        delay = 5 * 20 / TICK_INTERVAL;
-        setCurrentFloor();
+        delay = STOP_DELAY;
+        currentFloor = floorIndex.floorNumber(arrived);
         // open doors
         setDoorsState(true);
-        stops.remove(currentFloor);
+        stops.serve(arrived, direction);
+        // queue the destinations of the passengers boarding here
+        Set<Integer> destinations = pendingDestinations.remove(currentFloor);
+        if (destinations != null) {
+          destinations.forEach(stops::add);
+        }
+        return;
+      }
+
+      // move the elevator to the next stop as entities if possible
+      if (transitMode == TransitMode.ENTITIES && startTransit()) {
         return;
       }
 
       // move the elevator up or down 1 block
       if (direction == 1) {
         // check if elevator is going out of range
-        if (elevatorBlocks.get(elevatorBlocks.size() - 1).getBlockY()+1 >
-            Math.max(loc1.getBlockY(), loc2.getBlockY())) {
+        if (carBlocks.maxY() + 1 > highY) {
           plugin.getLogger().warning("Elevator " + name + " was going up " +
               "and reached max height, but still didn't arrive at a stop! " +
               "Please check if floor coordinates are correct.");
@@ -1020,8 +1990,7 @@ public class Elevator {
         }
       } else {
         // check if elevator is going out of range
-        if (elevatorBlocks.get(0).getBlockY()-1 <
-            Math.min(loc1.getBlockY(), loc2.getBlockY())) {
+        if (carBlocks.minY() - 1 < lowY) {
           plugin.getLogger().warning("Elevator " + name + " was going down " +
               "and reached min height, but still didn't arrive at a stop! " +
               "Please check if floor coordinates are correct.");
@@ -1032,6 +2001,30 @@ public class Elevator {
       }
     }
 
+    /**
+     * Finds the floor the master block is at if the car stops there in its
+     * direction. The floors at the master block's Y coordinate are looked
+     * up in the floor index, so only they are checked.
+     *
+     * @param masterY Y coordinate of the master block.
+     * @return Floor index of the stop, or -1 if the elevator isn't at a
+     *         stop, e.g. because it is between floors.
+     */
+    private int arrivedAt(int masterY) {
+      for (int i = floorIndex.indexAt(masterY);
+           i >= 0 && i < floorIndex.size() && floorIndex.y(i) == masterY;
+           i++) {
+        if (stops.stopsAt(i, direction)) {
+          Location loc = floors.get(floorIndex.floorNumber(i)).loc;
+          if (loc.getBlockX() == masterBlock.getBlockX()
+              && loc.getBlockZ() == masterBlock.getBlockZ()) {
+            return i;
+          }
+        }
+      }
+      return -1;
+    }
+
     /**
      * Moves the elevator blocks by the given number of blocks.
      *
@@ -1039,92 +2032,69 @@ public class Elevator {
      */
     private void moveBlocks(int num) {
       // move players in the elevator
-      for (Player p: Objects.requireNonNull(loc1.getWorld()).getPlayers()) {
-        if (!p.isFlying() &&
-            p.getLocation().getX() >= lowX &&
-            p.getLocation().getX() < highX + 1 &&
-            p.getLocation().getY() >= masterBlock.getBlockY() &&
-            p.getLocation().getY() < masterBlock.getBlockY() + sizeY &&
-            p.getLocation().getZ() >= lowZ &&
-            p.getLocation().getZ() < highZ + 1) {
-          p.teleport(p.getLocation().add(0, num, 0));
-        }
+      for (Player p : findPassengers()) {
+        p.teleport(p.getLocation().add(0, num, 0));
       }
-      // handle blocks (door and doors) that break when moved as other blocks
-      // separately
-      List<Integer> breakingBlocksIndex = new ArrayList<>();
-      List<BlockData> breakingBlocks = new ArrayList<>();
-      // put breaking blocks to the lists
-      for (int i=0; i< elevatorBlocks.size(); i++) {
-        Material material =
-            elevatorBlocks.get(i).getBlock().getBlockData().getMaterial();
-        if (material == Material.IRON_DOOR) {
-          breakingBlocksIndex.add(i);
-          breakingBlocks.add(elevatorBlocks.get(i).getBlock().getBlockData());
-        }
-      }
-      // set the content of these blocks to air and update them to point to
-      // the new blocks
-      for (Integer index : breakingBlocksIndex) {
-        elevatorBlocks.get(index).getBlock().setType(Material.AIR);
-        elevatorBlocks.get(index).add(0, num, 0);
-      }
-      // move normal blocks
-      if (num > 0) {
-        for (int i= elevatorBlocks.size()-1; i>=0; i--) {
-          if (!breakingBlocksIndex.contains(i)) {
-            moveBlock(i, num);
-            elevatorBlocks.get(i).add(0, num, 0);
-          }
-        }
-      } else if (num < 0) {
-        for (int i=0; i< elevatorBlocks.size(); i++) {
-          if (!breakingBlocksIndex.contains(i)) {
-            moveBlock(i, num);
-            elevatorBlocks.get(i).add(0, num, 0);
-          }
-        }
-      }
-      // move breaking blocks
-      for (int i=0; i<breakingBlocks.size(); i++) {
-        elevatorBlocks.get(breakingBlocksIndex.get(i)).getBlock().setBlockData
-         (breakingBlocks.get(i));
-      }
-      // update the master block's coordinates
+      // move the blocks and update the master block's coordinates
+      shifter.shift(Objects.requireNonNull(loc1.getWorld()), carBlocks, num,
+          writeMode);
       masterBlock.add(0, num, 0);
     }
 
     /**
-     * Moves a block by the given number of blocks.
+     * Starts an entity transit to the closest stop in the elevator's
+     * direction.
      *
-     * @param i Index of the block to move in
-     *          {@link #elevatorBlocks elevatorBlocks}.
-     * @param num Number of blocks to move the block by.
+     * @return True if the transit was started, false if there is no stop in
+     *         the elevator's direction within the elevator's region.
      */
-    private void moveBlock(int i, int num) {
-      new Location(elevatorBlocks.get(i).getWorld(),
-          elevatorBlocks.get(i).getX(),
-          elevatorBlocks.get(i).getY() + num,
-          elevatorBlocks.get(i).getZ()).getBlock().setBlockData(
-          elevatorBlocks.get(i).getBlock().getBlockData());
-      elevatorBlocks.get(i).getBlock().setType(Material.AIR);
+    private boolean startTransit() {
+      int masterY = masterBlock.getBlockY();
+      int target = stops.nextStop(masterY, direction);
+      if (target < 0) {
+        return false;
+      }
+      int dy = floorIndex.y(target) - masterY;
+      // let the step by step movement log the out of range warning
+      if (carBlocks.maxY() + dy > highY || carBlocks.minY() + dy < lowY) {
+        return false;
+      }
+      transit = new EntityTransit(Objects.requireNonNull(loc1.getWorld()),
+          carBlocks, dy, 1.0 / TICK_INTERVAL, findPassengers(), () -> {
+            masterBlock.add(0, transit.getMoved(), 0);
+            transit = null;
+          });
+      transit.start(plugin);
+      return true;
     }
 
     /**
-     * Sets the current floor. Used when elevator is at a stop.
+     * Finds the players riding the elevator. Only the entities in the chunks
+     * around the car are queried, so the cost doesn't depend on the number
+     * of players in the world.
      *
-     * @throws RuntimeException When unable to find the current floor.
-     */
-    private void setCurrentFloor() {
-      OptionalInt currentFloorOpt = floors.entrySet().stream().filter(
-              floor -> floor.getValue().getLocation().getBlockY() ==
-                  masterBlock.getBlockY())
-          .mapToInt(Map.Entry::getKey).findFirst();
-      if (currentFloorOpt.isPresent()) {
-        currentFloor = currentFloorOpt.getAsInt();
-      } else {
-        throw new RuntimeException("Cannot find current floor!");
+     * @return Players in the elevator.
+     */
+    @Nonnull
+    private List<Player> findPassengers() {
+      int carY = masterBlock.getBlockY();
+      BoundingBox box = new BoundingBox(lowX, carY, lowZ, highX + 1,
+          carY + sizeY, highZ + 1);
+      List<Player> passengers = new ArrayList<>();
+      for (Entity entity : Objects.requireNonNull(loc1.getWorld())
+          .getNearbyEntities(box, e -> e instanceof Player)) {
+        Player p = (Player) entity;
+        Location loc = p.getLocation();
+        // the query matches entities whose bounding box overlaps the car,
+        // but only players standing inside it are passengers
+        if (!p.isFlying() &&
+            loc.getX() >= lowX && loc.getX() < highX + 1 &&
+            loc.getY() >= carY && loc.getY() < carY + sizeY &&
+            loc.getZ() >= lowZ && loc.getZ() < highZ + 1) {
+          passengers.add(p);
+        }
       }
+      return passengers;
     }
 
     /**
@@ -1139,9 +2109,12 @@ public class Elevator {
       }
 
       Floor floor = floors.get(currentFloor);
+      // the floor may have been removed while the doors were open
+      List<Location> floorDoors = floor == null ? Collections.emptyList()
+          : floor.getDoors();
       // log a warning message if the floor doors are not of type iron
       // door
-      if (floor.getDoors().stream().map(door ->
+      if (floorDoors.stream().map(door ->
               door.getBlock().getBlockData().getMaterial())
           .anyMatch(material -> material != Material.IRON_DOOR)) {
         plugin.getLogger().warning("One of floor " + currentFloor + " of " +
@@ -1157,7 +2130,7 @@ public class Elevator {
             "material type not iron door!");
       }
       // set the floor doors state
-      floor.getDoors().stream()
+      floorDoors.stream()
           .map(Location::getBlock)
           .filter(block -> block.getBlockData().getMaterial() ==
               Material.IRON_DOOR)
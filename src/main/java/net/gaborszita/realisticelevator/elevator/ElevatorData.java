@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import org.bukkit.Location;
+import org.bukkit.util.Vector;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Persistent data of an elevator, independent of the server. Elevators are
+ * converted to this form on the main thread, after which the data can be
+ * handed to a storage on any thread. Coordinates are stored as arrays of
+ * three ints. Instances are immutable.
+ *
+ * @see ElevatorStore
+ */
+final class ElevatorData {
+  /**
+   * Name of the elevator.
+   */
+  final String name;
+
+  /**
+   * UID of the world of the elevator.
+   */
+  final UUID world;
+
+  /**
+   * Coordinates of the first location of the elevator.
+   */
+  final int[] loc1;
+
+  /**
+   * Coordinates of the second location of the elevator.
+   */
+  final int[] loc2;
+
+  /**
+   * Coordinates of the doors relative to the master block.
+   */
+  final List<int[]> doors;
+
+  /**
+   * How the elevator writes its blocks when moving.
+   */
+  final Elevator.WriteMode writeMode;
+
+  /**
+   * How the elevator moves between stops.
+   */
+  final Elevator.TransitMode transitMode;
+
+  /**
+   * Floors of the elevator, sorted by floor number.
+   */
+  final List<FloorData> floors;
+
+  /**
+   * Saved geometry of the car, or null if there is none.
+   */
+  @Nullable
+  final CarGeometry geometry;
+
+  /**
+   * Constructor.
+   *
+   * @param name Name of the elevator.
+   * @param world UID of the world of the elevator.
+   * @param loc1 Coordinates of the first location of the elevator.
+   * @param loc2 Coordinates of the second location of the elevator.
+   * @param doors Coordinates of the doors relative to the master block.
+   * @param writeMode How the elevator writes its blocks when moving.
+   * @param transitMode How the elevator moves between stops.
+   * @param floors Floors of the elevator, sorted by floor number.
+   * @param geometry Saved geometry of the car, or null if there is none.
+   */
+  ElevatorData(@Nonnull String name, @Nonnull UUID world,
+               @Nonnull int[] loc1, @Nonnull int[] loc2,
+               @Nonnull List<int[]> doors,
+               @Nonnull Elevator.WriteMode writeMode,
+               @Nonnull Elevator.TransitMode transitMode,
+               @Nonnull List<FloorData> floors,
+               @Nullable CarGeometry geometry) {
+    this.name = name;
+    this.world = world;
+    this.loc1 = loc1;
+    this.loc2 = loc2;
+    this.doors = Collections.unmodifiableList(doors);
+    this.writeMode = writeMode;
+    this.transitMode = transitMode;
+    this.floors = Collections.unmodifiableList(floors);
+    this.geometry = geometry;
+  }
+
+  /**
+   * Gets the data of an elevator. Must be called on the main thread.
+   *
+   * @param name Name of the elevator.
+   * @param elevator The elevator.
+   * @return Data of the elevator.
+   */
+  @Nonnull
+  static ElevatorData of(@Nonnull String name, @Nonnull Elevator elevator) {
+    List<int[]> doors = new ArrayList<>();
+    for (Vector door : elevator.getDoors()) {
+      doors.add(new int[]{door.getBlockX(), door.getBlockY(),
+          door.getBlockZ()});
+    }
+    List<FloorData> floors = new ArrayList<>();
+    for (Map.Entry<Integer, Elevator.Floor> floor :
+        new TreeMap<>(elevator.getFloors()).entrySet()) {
+      List<int[]> floorDoors = new ArrayList<>();
+      for (Location door : floor.getValue().getDoors()) {
+        floorDoors.add(coordinates(door));
+      }
+      Elevator.Floor elevatorFloor = floor.getValue();
+      floors.add(new FloorData(floor.getKey(),
+          coordinates(elevatorFloor.getLocation()), floorDoors,
+          callButton(elevatorFloor, Elevator.CallDirection.ANY),
+          callButton(elevatorFloor, Elevator.CallDirection.UP),
+          callButton(elevatorFloor, Elevator.CallDirection.DOWN)));
+    }
+    Location loc1 = elevator.getLoc1();
+    return new ElevatorData(name,
+        Objects.requireNonNull(loc1.getWorld()).getUID(), coordinates(loc1),
+        coordinates(elevator.getLoc2()), doors, elevator.getWriteMode(),
+        elevator.getTransitMode(), floors, elevator.getGeometry());
+  }
+
+  /**
+   * Parses the data of an elevator from the JSON format of the elevators
+   * files.
+   *
+   * @param elevatorJson Serialized elevator.
+   * @return Data of the elevator.
+   * @throws JSONException When the elevator can't be parsed.
+   */
+  @Nonnull
+  static ElevatorData fromJson(@Nonnull JSONObject elevatorJson) {
+    // doors of the elevator
+    JSONArray doorsJson = elevatorJson.getJSONArray("doors");
+    List<int[]> doors = new ArrayList<>();
+    for (int x=0; x<doorsJson.length(); x++) {
+      doors.add(coordinates(doorsJson.getJSONArray(x)));
+    }
+    // floors
+    JSONArray floorsJson = elevatorJson.getJSONArray("floors");
+    List<FloorData> floors = new ArrayList<>();
+    for (int x=0; x<floorsJson.length(); x++) {
+      JSONObject floorJson = floorsJson.getJSONObject(x);
+      // doors of the floor
+      JSONArray floorDoorsJson = floorJson.getJSONArray("doors");
+      List<int[]> floorDoors = new ArrayList<>();
+      for (int j=0; j<floorDoorsJson.length(); j++) {
+        floorDoors.add(coordinates(floorDoorsJson.getJSONArray(j)));
+      }
+      // call button of the floor, null if the floor doesn't have one
+      int[] callButton = floorJson.isNull("callButton") ? null :
+          coordinates(floorJson.getJSONArray("callButton"));
+      // directional call buttons, missing in files saved by older versions
+      int[] upCallButton = floorJson.isNull("upCallButton") ? null :
+          coordinates(floorJson.getJSONArray("upCallButton"));
+      int[] downCallButton = floorJson.isNull("downCallButton") ? null :
+          coordinates(floorJson.getJSONArray("downCallButton"));
+      floors.add(new FloorData(floorJson.getInt("floor"),
+          coordinates(floorJson.getJSONArray("loc")), floorDoors,
+          callButton, upCallButton, downCallButton));
+    }
+    floors.sort(Comparator.comparingInt(floor -> floor.floor));
+    // write and transit mode and geometry of the elevator, missing in
+    // files saved by older versions
+    JSONObject geometryJson = elevatorJson.optJSONObject("car");
+    return new ElevatorData(elevatorJson.getString("name"),
+        UUID.fromString(elevatorJson.getString("world")),
+        coordinates(elevatorJson.getJSONArray("loc1")),
+        coordinates(elevatorJson.getJSONArray("loc2")), doors,
+        elevatorJson.optEnum(Elevator.WriteMode.class, "writeMode",
+            Elevator.WriteMode.IMMEDIATE),
+        elevatorJson.optEnum(Elevator.TransitMode.class, "transitMode",
+            Elevator.TransitMode.BLOCKS),
+        floors,
+        geometryJson == null ? null : CarGeometry.fromJson(geometryJson));
+  }
+
+  /**
+   * Converts the data to the JSON format of the elevators files.
+   *
+   * @return Serialized elevator.
+   */
+  @Nonnull
+  JSONObject toJson() {
+    JSONObject elevatorJson = new JSONObject();
+    elevatorJson.put("name", name);
+    elevatorJson.put("world", world.toString());
+    elevatorJson.put("loc1", new JSONArray(loc1));
+    elevatorJson.put("loc2", new JSONArray(loc2));
+    JSONArray doorsJson = new JSONArray();
+    for (int[] door : doors) {
+      doorsJson.put(new JSONArray(door));
+    }
+    elevatorJson.put("doors", doorsJson);
+    elevatorJson.put("writeMode", writeMode.name());
+    elevatorJson.put("transitMode", transitMode.name());
+    JSONArray floorsJson = new JSONArray();
+    for (FloorData floor : floors) {
+      JSONObject floorJson = new JSONObject();
+      floorJson.put("floor", floor.floor);
+      floorJson.put("loc", new JSONArray(floor.loc));
+      JSONArray floorDoorsJson = new JSONArray();
+      for (int[] door : floor.doors) {
+        floorDoorsJson.put(new JSONArray(door));
+      }
+      // null if there isn't a call button on this floor
+      floorJson.put("callButton", floor.callButton == null ?
+          JSONObject.NULL : new JSONArray(floor.callButton));
+      floorJson.put("upCallButton", floor.upCallButton == null ?
+          JSONObject.NULL : new JSONArray(floor.upCallButton));
+      floorJson.put("downCallButton", floor.downCallButton == null ?
+          JSONObject.NULL : new JSONArray(floor.downCallButton));
+      floorJson.put("doors", floorDoorsJson);
+      floorsJson.put(floorJson);
+    }
+    elevatorJson.put("floors", floorsJson);
+    if (geometry != null) {
+      elevatorJson.put("car", geometry.toJson());
+    }
+    return elevatorJson;
+  }
+
+  /**
+   * Gets the block coordinates of a location.
+   *
+   * @param loc The location.
+   * @return Coordinates of the location.
+   */
+  @Nonnull
+  private static int[] coordinates(@Nonnull Location loc) {
+    return new int[]{loc.getBlockX(), loc.getBlockY(), loc.getBlockZ()};
+  }
+
+  /**
+   * Gets the coordinates of a call button of a floor.
+   *
+   * @param floor The floor.
+   * @param direction Direction of the call button.
+   * @return Coordinates, or null if the floor doesn't have the call button.
+   */
+  @Nullable
+  private static int[] callButton(@Nonnull Elevator.Floor floor,
+                                  @Nonnull Elevator.CallDirection direction) {
+    Location callButton = floor.getCallButton(direction);
+    return callButton == null ? null : coordinates(callButton);
+  }
+
+  /**
+   * Parses coordinates from a JSON array.
+   *
+   * @param json JSON array of three ints.
+   * @return Coordinates.
+   * @throws JSONException When the coordinates can't be parsed.
+   */
+  @Nonnull
+  private static int[] coordinates(@Nonnull JSONArray json) {
+    return new int[]{json.getInt(0), json.getInt(1), json.getInt(2)};
+  }
+
+  /**
+   * Persistent data of a floor.
+   */
+  static final class FloorData {
+    /**
+     * Floor number.
+     */
+    final int floor;
+
+    /**
+     * Coordinates of the floor's location.
+     */
+    final int[] loc;
+
+    /**
+     * Coordinates of the floor's doors.
+     */
+    final List<int[]> doors;
+
+    /**
+     * Coordinates of the floor's call button, or null if the floor doesn't
+     * have a call button.
+     */
+    @Nullable
+    final int[] callButton;
+
+    /**
+     * Coordinates of the floor's call button for going up, or null if the
+     * floor doesn't have one.
+     */
+    @Nullable
+    final int[] upCallButton;
+
+    /**
+     * Coordinates of the floor's call button for going down, or null if the
+     * floor doesn't have one.
+     */
+    @Nullable
+    final int[] downCallButton;
+
+    /**
+     * Constructor.
+     *
+     * @param floor Floor number.
+     * @param loc Coordinates of the floor's location.
+     * @param doors Coordinates of the floor's doors.
+     * @param callButton Coordinates of the floor's call button, or null if
+     *                   the floor doesn't have a call button.
+     * @param upCallButton Coordinates of the floor's call button for going
+     *                     up, or null if the floor doesn't have one.
+     * @param downCallButton Coordinates of the floor's call button for going
+     *                       down, or null if the floor doesn't have one.
+     */
+    FloorData(int floor, @Nonnull int[] loc, @Nonnull List<int[]> doors,
+              @Nullable int[] callButton, @Nullable int[] upCallButton,
+              @Nullable int[] downCallButton) {
+      this.floor = floor;
+      this.loc = loc;
+      this.doors = Collections.unmodifiableList(doors);
+      this.callButton = callButton;
+      this.upCallButton = upCallButton;
+      this.downCallButton = downCallButton;
+    }
+  }
+}
@@ -0,0 +1,598 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * A bank of elevators sharing their floors and hall call buttons. A floor of
+ * the group is the floor with the same number in each of its elevators.
+ * When a call button of the group is pressed, the call is dispatched to the
+ * elevator which is estimated to arrive at the floor first, based on its
+ * position, direction and queued stops.
+ *
+ * <p>Floors can also have a destination panel, where players choose the
+ * floor they go to before boarding. Passengers going to the same floors
+ * are then grouped into the same elevator, and each player is told which
+ * elevator to take.
+ *
+ * @see ElevatorManager#createGroup(String)
+ */
+public class ElevatorGroup {
+  /**
+   * Name of the group.
+   */
+  private final String name;
+
+  /**
+   * Elevator manager the group belongs to.
+   */
+  private final ElevatorManager manager;
+
+  /**
+   * Names of the elevators of the group.
+   */
+  private final List<String> elevators;
+
+  /**
+   * World of the call buttons and panels, or null if the group has none.
+   */
+  private UUID world;
+
+  /**
+   * Coordinates of the call buttons by floor number.
+   */
+  private final SortedMap<Integer, int[]> callButtons;
+
+  /**
+   * Coordinates of the destination panels by floor number.
+   */
+  private final SortedMap<Integer, int[]> panels;
+
+  /**
+   * Maximum number of destinations shown on a panel, the size of the
+   * largest chest inventory.
+   */
+  private static final int MAX_PANEL_SIZE = 54;
+
+  /**
+   * Constructor.
+   *
+   * @param name Name of the group.
+   * @param manager Elevator manager.
+   * @param elevators Names of the elevators of the group.
+   * @param world World of the call buttons and panels, or null if there
+   *              are none.
+   * @param callButtons Coordinates of the call buttons by floor number.
+   * @param panels Coordinates of the destination panels by floor number.
+   */
+  ElevatorGroup(@Nonnull String name, @Nonnull ElevatorManager manager,
+                @Nonnull List<String> elevators, @Nullable UUID world,
+                @Nonnull SortedMap<Integer, int[]> callButtons,
+                @Nonnull SortedMap<Integer, int[]> panels) {
+    this.name = name;
+    this.manager = manager;
+    this.elevators = elevators;
+    this.world = world;
+    this.callButtons = callButtons;
+    this.panels = panels;
+  }
+
+  /**
+   * Getter for the name of the group.
+   *
+   * @return Name of the group.
+   */
+  @Nonnull
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Gets the names of the elevators of the group.
+   *
+   * @return Names of the elevators.
+   */
+  @Nonnull
+  public List<String> getElevators() {
+    return new ArrayList<>(elevators);
+  }
+
+  /**
+   * Gets the call buttons of the group.
+   *
+   * @return Locations of the call buttons by floor number. The map is empty
+   *         if the world of the call buttons isn't loaded.
+   */
+  @Nonnull
+  public SortedMap<Integer, Location> getCallButtons() {
+    return locations(callButtons);
+  }
+
+  /**
+   * Gets the destination panels of the group.
+   *
+   * @return Locations of the panels by floor number. The map is empty if
+   *         the world of the panels isn't loaded.
+   */
+  @Nonnull
+  public SortedMap<Integer, Location> getPanels() {
+    return locations(panels);
+  }
+
+  /**
+   * Gets the floors served by the loaded elevators of the group.
+   *
+   * @return Floor numbers, sorted.
+   */
+  @Nonnull
+  public SortedSet<Integer> getFloors() {
+    SortedSet<Integer> result = new TreeSet<>();
+    for (String elevatorName : elevators) {
+      Elevator elevator = manager.getElevator(elevatorName);
+      if (elevator != null) {
+        result.addAll(elevator.getFloors().keySet());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Converts coordinates of call buttons or panels to locations.
+   *
+   * @param blocks Coordinates of the blocks by floor number.
+   * @return Locations of the blocks by floor number, empty if the world
+   *         isn't loaded.
+   */
+  @Nonnull
+  private SortedMap<Integer, Location> locations(
+      @Nonnull Map<Integer, int[]> blocks) {
+    SortedMap<Integer, Location> result = new TreeMap<>();
+    World blockWorld = world == null ? null : Bukkit.getWorld(world);
+    if (blockWorld != null) {
+      blocks.forEach((floor, coords) -> result.put(floor,
+          new Location(blockWorld, coords[0], coords[1], coords[2])));
+    }
+    return result;
+  }
+
+  /**
+   * Adds an elevator to the group.
+   *
+   * @param elevatorName Name of the elevator.
+   * @return True on success, false on failure.
+   */
+  public boolean addElevator(@Nonnull String elevatorName) {
+    if (elevators.contains(elevatorName)) {
+      return false;
+    }
+    elevators.add(elevatorName);
+    if (manager.saveGroups()) {
+      return true;
+    } else {
+      elevators.remove(elevatorName);
+      return false;
+    }
+  }
+
+  /**
+   * Removes an elevator from the group.
+   *
+   * @param elevatorName Name of the elevator.
+   * @return True on success, false on failure.
+   */
+  public boolean removeElevator(@Nonnull String elevatorName) {
+    int index = elevators.indexOf(elevatorName);
+    if (index < 0) {
+      return false;
+    }
+    elevators.remove(index);
+    if (manager.saveGroups()) {
+      return true;
+    } else {
+      elevators.add(index, elevatorName);
+      return false;
+    }
+  }
+
+  /**
+   * Sets the call button of a floor of the group.
+   *
+   * @param floor Floor number.
+   * @param callButton Location of the call button, or null to remove it.
+   * @throws IllegalArgumentException If the call button is in another world
+   *                                  than the other call buttons and panels
+   *                                  of the group.
+   * @return True on success, false on failure.
+   */
+  public boolean setCallButton(int floor, @Nullable Location callButton) {
+    return setBlock(callButtons, floor, callButton);
+  }
+
+  /**
+   * Sets the destination panel of a floor of the group. Players choose
+   * their destination on the panel instead of calling an elevator.
+   *
+   * @param floor Floor number.
+   * @param panel Location of the panel, or null to remove it.
+   * @throws IllegalArgumentException If the panel is in another world than
+   *                                  the other call buttons and panels of
+   *                                  the group.
+   * @return True on success, false on failure.
+   */
+  public boolean setPanel(int floor, @Nullable Location panel) {
+    return setBlock(panels, floor, panel);
+  }
+
+  /**
+   * Sets a call button or panel of a floor and saves the group.
+   *
+   * @param blocks Coordinates of the call buttons or panels by floor
+   *               number.
+   * @param floor Floor number.
+   * @param loc Location of the block, or null to remove it.
+   * @throws IllegalArgumentException If the block is in another world than
+   *                                  the other call buttons and panels of
+   *                                  the group.
+   * @return True on success, false on failure.
+   */
+  private boolean setBlock(@Nonnull Map<Integer, int[]> blocks, int floor,
+                           @Nullable Location loc) {
+    UUID oldWorld = world;
+    int[] oldBlock = blocks.get(floor);
+    if (loc == null) {
+      if (blocks.remove(floor) == null) {
+        return false;
+      }
+      if (callButtons.isEmpty() && panels.isEmpty()) {
+        world = null;
+      }
+    } else {
+      UUID blockWorld = Objects.requireNonNull(loc.getWorld()).getUID();
+      int others = callButtons.size() + panels.size()
+          - (oldBlock == null ? 0 : 1);
+      if (world != null && !world.equals(blockWorld) && others > 0) {
+        throw new IllegalArgumentException("Call buttons and panels of "
+            + "group " + name + " must be in the same world.");
+      }
+      world = blockWorld;
+      blocks.put(floor, new int[]{loc.getBlockX(), loc.getBlockY(),
+          loc.getBlockZ()});
+    }
+    if (manager.saveGroups()) {
+      return true;
+    } else {
+      world = oldWorld;
+      if (oldBlock == null) {
+        blocks.remove(floor);
+      } else {
+        blocks.put(floor, oldBlock);
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Calls an elevator of the group to a floor. If an elevator of the group
+   * already has a stop queued at the floor, no other elevator is sent.
+   * Otherwise the stop is queued in the elevator with the lowest estimated
+   * arrival time.
+   *
+   * @param floor Floor number.
+   * @return The elevator coming to the floor, or null if no elevator of the
+   *         group can serve the floor.
+   */
+  @Nullable
+  public Elevator call(int floor) {
+    Elevator best = null;
+    int bestCost = Integer.MAX_VALUE;
+    for (String elevatorName : elevators) {
+      Elevator elevator = manager.getElevator(elevatorName);
+      if (elevator == null) {
+        // dormant or deleted elevator
+        continue;
+      }
+      if (elevator.hasStop(floor)) {
+        return elevator;
+      }
+      int cost = elevator.estimateArrival(floor);
+      if (cost >= 0 && cost < bestCost) {
+        best = elevator;
+        bestCost = cost;
+      }
+    }
+    return best != null && best.addStop(floor) ? best : null;
+  }
+
+  /**
+   * Sends an elevator of the group to pick up a passenger and take them to
+   * their destination. The trip is added to the elevator with the lowest
+   * estimated cost, which prefers elevators already stopping at the
+   * passenger's floor and destination.
+   *
+   * @param origin Floor the passenger waits at.
+   * @param destination Floor the passenger goes to.
+   * @return The elevator the passenger should take, or null if no elevator
+   *         of the group can serve the trip.
+   */
+  @Nullable
+  public Elevator dispatch(int origin, int destination) {
+    Elevator best = null;
+    int bestCost = Integer.MAX_VALUE;
+    for (String elevatorName : elevators) {
+      Elevator elevator = manager.getElevator(elevatorName);
+      if (elevator == null) {
+        continue;
+      }
+      int cost = elevator.estimateTrip(origin, destination);
+      if (cost >= 0 && cost < bestCost) {
+        best = elevator;
+        bestCost = cost;
+      }
+    }
+    return best != null && best.addTrip(origin, destination) ? best : null;
+  }
+
+  /**
+   * Called by the elevator manager when a player uses a destination panel
+   * of the group. Opens a menu of the destinations, one item per floor.
+   *
+   * @param floor Floor of the panel.
+   * @param player Player who used the panel.
+   */
+  void openPanel(int floor, @Nonnull Player player) {
+    List<Integer> destinations = new ArrayList<>(getFloors());
+    destinations.remove((Integer) floor);
+    if (destinations.isEmpty()) {
+      player.sendMessage(ChatColor.RED + "There are no floors to go to.");
+      return;
+    }
+    if (destinations.size() > MAX_PANEL_SIZE) {
+      destinations = destinations.subList(0, MAX_PANEL_SIZE);
+    }
+    player.openInventory(new Panel(floor, destinations).getInventory());
+  }
+
+  /**
+   * Called by the elevator manager when a player presses a call button of
+   * the group. Dispatches the call to an elevator of the group.
+   *
+   * @param floor Floor of the call button.
+   * @param player Player who pressed the call button.
+   */
+  void handleCallButtonPress(int floor, @Nonnull Player player) {
+    Elevator elevator = call(floor);
+    if (elevator != null) {
+      player.sendMessage("Elevator " + elevator.getName() + " coming to "
+          + "your floor. Please wait.");
+    } else {
+      player.sendMessage(ChatColor.RED + "Failed to queue elevator to "
+          + "come to your floor.");
+    }
+  }
+
+  /**
+   * Gets the world of the call buttons.
+   *
+   * @return World UID, or null if the group has no call buttons.
+   */
+  @Nullable
+  UUID getWorld() {
+    return world;
+  }
+
+  /**
+   * Gets the coordinates of the call buttons.
+   *
+   * @return Coordinates of the call buttons by floor number.
+   */
+  @Nonnull
+  Map<Integer, int[]> getCallButtonCoordinates() {
+    return Collections.unmodifiableMap(callButtons);
+  }
+
+  /**
+   * Gets the coordinates of the destination panels.
+   *
+   * @return Coordinates of the panels by floor number.
+   */
+  @Nonnull
+  Map<Integer, int[]> getPanelCoordinates() {
+    return Collections.unmodifiableMap(panels);
+  }
+
+  /**
+   * Removes an elevator from the group without saving the group. Used when
+   * the elevator is deleted.
+   *
+   * @param elevatorName Name of the elevator.
+   * @return True if the elevator was in the group, false otherwise.
+   */
+  boolean removeElevatorNoSave(@Nonnull String elevatorName) {
+    return elevators.remove(elevatorName);
+  }
+
+  /**
+   * Parses a group from the JSON format of the groups file.
+   *
+   * @param manager Elevator manager.
+   * @param json Serialized group.
+   * @return The group.
+   * @throws JSONException When the group can't be parsed.
+   * @throws IllegalArgumentException When the world UID is invalid.
+   */
+  @Nonnull
+  static ElevatorGroup fromJson(@Nonnull ElevatorManager manager,
+                                @Nonnull JSONObject json) {
+    List<String> elevators = new ArrayList<>();
+    JSONArray elevatorsJson = json.getJSONArray("elevators");
+    for (int i = 0; i < elevatorsJson.length(); i++) {
+      elevators.add(elevatorsJson.getString(i));
+    }
+    UUID world = json.isNull("world") ? null
+        : UUID.fromString(json.getString("world"));
+    // groups saved before panels were added have no panels
+    JSONArray panelsJson = json.optJSONArray("panels");
+    return new ElevatorGroup(json.getString("name"), manager, elevators,
+        world, blocksFromJson(json.getJSONArray("callButtons")),
+        panelsJson == null ? new TreeMap<>() : blocksFromJson(panelsJson));
+  }
+
+  /**
+   * Parses the call buttons or panels of a group.
+   *
+   * @param json Serialized blocks.
+   * @return Coordinates of the blocks by floor number.
+   * @throws JSONException When the blocks can't be parsed.
+   */
+  @Nonnull
+  private static SortedMap<Integer, int[]> blocksFromJson(
+      @Nonnull JSONArray json) {
+    SortedMap<Integer, int[]> blocks = new TreeMap<>();
+    for (int i = 0; i < json.length(); i++) {
+      JSONObject block = json.getJSONObject(i);
+      JSONArray coords = block.getJSONArray("loc");
+      blocks.put(block.getInt("floor"), new int[]{coords.getInt(0),
+          coords.getInt(1), coords.getInt(2)});
+    }
+    return blocks;
+  }
+
+  /**
+   * Converts call buttons or panels to the JSON format of the groups file.
+   *
+   * @param blocks Coordinates of the blocks by floor number.
+   * @return Serialized blocks.
+   */
+  @Nonnull
+  private static JSONArray blocksToJson(@Nonnull Map<Integer, int[]> blocks) {
+    JSONArray json = new JSONArray();
+    blocks.forEach((floor, coords) -> {
+      JSONObject block = new JSONObject();
+      block.put("floor", floor);
+      block.put("loc", new JSONArray(coords));
+      json.put(block);
+    });
+    return json;
+  }
+
+  /**
+   * Converts the group to the JSON format of the groups file.
+   *
+   * @return Serialized group.
+   */
+  @Nonnull
+  JSONObject toJson() {
+    JSONObject json = new JSONObject();
+    json.put("name", name);
+    json.put("elevators", new JSONArray(elevators));
+    json.put("world", world == null ? JSONObject.NULL : world.toString());
+    json.put("callButtons", blocksToJson(callButtons));
+    json.put("panels", blocksToJson(panels));
+    return json;
+  }
+
+  /**
+   * Menu of a destination panel. Every item of the menu is a destination
+   * floor; clicking it dispatches an elevator and tells the player which
+   * elevator to take.
+   */
+  class Panel implements InventoryHolder {
+    /**
+     * Floor of the panel.
+     */
+    private final int floor;
+
+    /**
+     * Destination floors, in the order of the menu's slots.
+     */
+    private final List<Integer> destinations;
+
+    /**
+     * Inventory of the menu.
+     */
+    private final Inventory inventory;
+
+    /**
+     * Constructor. Creates the menu's inventory.
+     *
+     * @param floor Floor of the panel.
+     * @param destinations Destination floors.
+     */
+    private Panel(int floor, @Nonnull List<Integer> destinations) {
+      this.floor = floor;
+      this.destinations = destinations;
+      inventory = Bukkit.createInventory(this,
+          (destinations.size() + 8) / 9 * 9, "Destination floor");
+      for (int i = 0; i < destinations.size(); i++) {
+        ItemStack item = new ItemStack(Material.PAPER);
+        ItemMeta meta = Objects.requireNonNull(item.getItemMeta());
+        meta.setDisplayName("Floor " + destinations.get(i));
+        item.setItemMeta(meta);
+        inventory.setItem(i, item);
+      }
+    }
+
+    @Nonnull
+    @Override
+    public Inventory getInventory() {
+      return inventory;
+    }
+
+    /**
+     * Called by the elevator manager when a player clicks a slot of the
+     * menu. Dispatches an elevator to the chosen destination.
+     *
+     * @param slot Raw slot clicked.
+     * @param player Player who clicked the slot.
+     */
+    void handleClick(int slot, @Nonnull Player player) {
+      if (slot < 0 || slot >= destinations.size()) {
+        return;
+      }
+      player.closeInventory();
+      int destination = destinations.get(slot);
+      Elevator elevator = dispatch(floor, destination);
+      if (elevator != null) {
+        player.sendMessage("Please take elevator " + elevator.getName()
+            + " to floor " + destination + ".");
+      } else {
+        player.sendMessage(ChatColor.RED + "Failed to queue elevator to "
+            + "floor " + destination + ".");
+      }
+    }
+  }
+}
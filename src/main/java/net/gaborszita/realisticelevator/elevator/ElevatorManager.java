@@ -20,9 +20,29 @@
 package net.gaborszita.realisticelevator.elevator;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.type.Switch;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
 import org.bukkit.util.Vector;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -31,10 +51,9 @@ import org.json.JSONObject;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.*;
 
 /**
@@ -52,19 +71,165 @@ public class ElevatorManager {
   private Map<String, Elevator> elevators;
 
   /**
-   * Name of the manager's config file.
+   * Names of the elevators whose world is not loaded, by world UID. Their
+   * data is loaded from the storage when their world is loaded.
    */
-  private static final String elevatorsFileName = "elevators.json";
+  private final Map<UUID, Set<String>> dormantElevators = new HashMap<>();
 
   /**
-   * Path of the manager's config file.
+   * Spatial index of the elevators' regions.
    */
-  private final File elevatorsFile;
+  private final RegionIndex regionIndex = new RegionIndex();
 
   /**
-   * Elevators file version number.
+   * Listens to blocks created and destroyed in the elevators' regions.
    */
-  private static final int ELEVATORS_FILE_VERSION = 2;
+  private final BlockEventListener blockEventListener;
+
+  /**
+   * Floors by the location of their call button. The key of the outer map
+   * is the world UID, the key of the inner map is the block key of the call
+   * button. Several floors can share a call button, e.g. floors of
+   * elevators next to each other, and are all called when it is pressed.
+   *
+   * @see BlockKey
+   */
+  private final Map<UUID, Map<Long, List<Elevator.Floor>>> callButtons =
+      new HashMap<>();
+
+  /**
+   * Elevator groups by name.
+   */
+  private final Map<String, ElevatorGroup> groups = new HashMap<>();
+
+  /**
+   * Groups and floors by the location of their call buttons. The key of
+   * the outer map is the world UID, the key of the inner map is the block
+   * key of the call button. Rebuilt when the groups are saved.
+   *
+   * @see BlockKey
+   */
+  private final Map<UUID, Map<Long, GroupFloor>> groupCallButtons =
+      new HashMap<>();
+
+  /**
+   * Groups and floors by the location of their destination panels, keyed
+   * like {@link #groupCallButtons}. Rebuilt when the groups are saved.
+   */
+  private final Map<UUID, Map<Long, GroupFloor>> groupPanels =
+      new HashMap<>();
+
+  /**
+   * Listens to call button presses.
+   */
+  private final CallButtonListener callButtonListener;
+
+  /**
+   * Listens to worlds being loaded and unloaded.
+   */
+  private final WorldListener worldListener;
+
+  /**
+   * Listens to chunks of the elevators' regions being loaded and unloaded.
+   */
+  private final ChunkListener chunkListener;
+
+  /**
+   * Name of the single elevators file used by version 2 of the file
+   * format. It is imported into the storage on startup, replacing the
+   * elevators in the storage.
+   */
+  private static final String legacyElevatorsFileName = "elevators.json";
+
+  /**
+   * Name of the file the elevators are exported to, in the format of the
+   * single elevators file of version 2.
+   */
+  public static final String EXPORT_FILE_NAME = "elevators-export.json";
+
+  /**
+   * Version number of the single elevators file which is imported.
+   */
+  private static final int LEGACY_ELEVATORS_FILE_VERSION = 2;
+
+  /**
+   * Name of the file the elevator groups are saved to.
+   */
+  private static final String GROUPS_FILE_NAME = "groups.json";
+
+  /**
+   * Version number of the elevator groups file.
+   */
+  private static final int GROUPS_FILE_VERSION = 1;
+
+  /**
+   * Indicates whether the elevator groups were loaded successfully. If they
+   * weren't, the groups are not saved, so the file isn't overwritten.
+   */
+  private boolean groupsLoaded = false;
+
+  /**
+   * Name of the file the runtime state snapshot is saved to.
+   */
+  private static final String STATE_FILE_NAME = "state.json";
+
+  /**
+   * Version number of the runtime state snapshot file.
+   */
+  private static final int STATE_FILE_VERSION = 1;
+
+  /**
+   * Number of ticks between runtime state snapshots.
+   */
+  private static final long STATE_SAVE_INTERVAL = 6000;
+
+  /**
+   * Runtime states read from the snapshot which weren't restored yet,
+   * because their elevator's world isn't loaded. Restored when the
+   * elevator is activated.
+   */
+  private final Map<String, ElevatorState> savedStates = new HashMap<>();
+
+  /**
+   * Task saving the runtime state snapshot periodically.
+   */
+  private final BukkitTask stateTask;
+
+  /**
+   * Number of runtime state snapshots taken. Only accessed on the main
+   * thread.
+   */
+  private long stateGeneration = 0;
+
+  /**
+   * Number of the newest runtime state snapshot written to the file.
+   * Guarded by this.
+   */
+  private long writtenStateGeneration = 0;
+
+  /**
+   * Names of the storages which can be selected in the plugin's config.
+   */
+  private static final List<String> STORAGES =
+      Arrays.asList("json", "binary", "sqlite");
+
+  /**
+   * Name of the file holding the name of the storage the elevators were
+   * last loaded from, so the elevators are imported when the storage is
+   * changed.
+   */
+  private static final String STORAGE_FILE_NAME = "storage.txt";
+
+  /**
+   * Storage of the elevators, selected in the plugin's config.
+   */
+  private final ElevatorStore store;
+
+  /**
+   * Indicates whether the elevators were loaded successfully. If they
+   * weren't, elevators are not saved, so the storage isn't overwritten.
+   */
+  private boolean fileLoaded = false;
 
   /**
    * Constructor. Creates a new ElevatorManager instance.
@@ -73,43 +238,245 @@ public class ElevatorManager {
    */
   public ElevatorManager(@Nonnull JavaPlugin plugin) {
     this.plugin = plugin;
-    elevatorsFile =  new File(plugin.getDataFolder(), elevatorsFileName);
-    createElevatorsFileIfNotExists();
-    loadElevators();
+    String storage = plugin.getConfig().getString("storage", "json");
+    if (!STORAGES.contains(storage)) {
+      plugin.getLogger().warning("Unknown storage " + storage + ", using "
+          + "json instead.");
+      storage = "json";
+    }
+    store = createStore(storage);
+    readState();
+    loadElevators(storage);
+    readGroups();
+    blockEventListener = new BlockEventListener();
+    plugin.getServer().getPluginManager().registerEvents(blockEventListener,
+        plugin);
+    callButtonListener = new CallButtonListener();
+    plugin.getServer().getPluginManager().registerEvents(callButtonListener,
+        plugin);
+    worldListener = new WorldListener();
+    plugin.getServer().getPluginManager().registerEvents(worldListener,
+        plugin);
+    chunkListener = new ChunkListener();
+    plugin.getServer().getPluginManager().registerEvents(chunkListener,
+        plugin);
+    stateTask = plugin.getServer().getScheduler().runTaskTimer(plugin,
+        () -> saveState(true), STATE_SAVE_INTERVAL, STATE_SAVE_INTERVAL);
   }
 
   /**
-   * Checks if the manager contains an elevator with the given name.
+   * Checks if the manager contains an elevator with the given name. Doesn't
+   * include elevators whose world is not loaded.
    *
    * @param name Name of the elevator.
    * @return True if the manager contains an elevator with the given name,
    *         false otherwise.
+   * @see #isDormant(String)
    */
   public boolean containsElevator(@Nonnull String name) {
     return elevators.containsKey(name);
   }
 
   /**
-   * Deletes an elevator from the manager.
+   * Checks if an elevator exists, but its world is not loaded. Such
+   * elevators are activated when their world is loaded.
+   *
+   * @param name Name of the elevator.
+   * @return True if the elevator's world is not loaded, false otherwise.
+   */
+  public boolean isDormant(@Nonnull String name) {
+    for (Set<String> worldElevators : dormantElevators.values()) {
+      if (worldElevators.contains(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Deletes an elevator from the manager. Elevators whose world is not
+   * loaded can be deleted too.
    *
    * @param name Name of the elevator.
    * @return True on success, false on failure.
    */
   public boolean deleteElevator(@Nonnull String name) {
+    for (Set<String> worldElevators : dormantElevators.values()) {
+      if (worldElevators.contains(name)) {
+        if (!saveElevator(name, null)) {
+          return false;
+        }
+        worldElevators.remove(name);
+        savedStates.remove(name);
+        removeFromGroups(name);
+        return true;
+      }
+    }
     Elevator elevator = elevators.remove(name);
     if (elevator != null && saveElevator(name, null)) {
+      regionIndex.remove(elevator);
       elevator.unload();
+      removeFromGroups(name);
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * Exports every elevator, including the elevators of worlds which aren't
+   * loaded, to {@link #EXPORT_FILE_NAME} in the plugin's folder. The file
+   * has the format of the single elevators file of version 2, so it is
+   * imported when it is renamed to elevators.json and the plugin is
+   * enabled again.
+   *
+   * @return Number of elevators exported, or -1 on failure.
+   */
+  public int exportElevators() {
+    if (!fileLoaded) {
+      plugin.getLogger().severe("Not exporting the elevators, because they "
+          + "couldn't be loaded.");
+      return -1;
+    }
+    JSONArray elevatorsJson = new JSONArray();
+    for (Map.Entry<String, Elevator> elevator : elevators.entrySet()) {
+      elevatorsJson.put(ElevatorData.of(elevator.getKey(),
+          elevator.getValue()).toJson());
+    }
+    for (UUID world : dormantElevators.keySet()) {
+      List<ElevatorData> worldElevators = loadWorld(world);
+      if (worldElevators == null) {
+        return -1;
+      }
+      for (ElevatorData elevator : worldElevators) {
+        elevatorsJson.put(elevator.toJson());
+      }
+    }
+    JSONObject main = new JSONObject();
+    main.put("version", LEGACY_ELEVATORS_FILE_VERSION);
+    main.put("elevators", elevatorsJson);
+    try {
+      JsonElevatorStore.writeFile(new File(plugin.getDataFolder(),
+          EXPORT_FILE_NAME), main.toString());
+    } catch (IOException e) {
+      plugin.getLogger().severe("Failed to export the elevators."
+          + System.lineSeparator() + e);
+      return -1;
+    }
+    return elevatorsJson.length();
+  }
+
+  /**
+   * Loads the elevators of a world from the storage.
+   *
+   * @param world UID of the world.
+   * @return Data of the elevators, or null on failure.
+   */
+  @Nullable
+  private List<ElevatorData> loadWorld(@Nonnull UUID world) {
+    try {
+      return store.loadByWorld(world);
+    } catch (JSONException e) {
+      plugin.getLogger().severe("Failed to parse elevators of world "
+          + world + "." + System.lineSeparator() + e);
+      return null;
+    }
+  }
+
+  /**
+   * Checks if the manager contains a group with the given name.
+   *
+   * @param name Name of the group.
+   * @return True if the group exists, false otherwise.
+   */
+  public boolean containsGroup(@Nonnull String name) {
+    return groups.containsKey(name);
+  }
+
+  /**
+   * Gets a group from the manager.
+   *
+   * @param name Name of the group.
+   * @return The group with the given name, or null if it does not exist.
+   */
+  @Nullable
+  public ElevatorGroup getGroup(@Nonnull String name) {
+    return groups.get(name);
+  }
+
+  /**
+   * Gets all groups from the manager.
+   *
+   * @return All groups.
+   */
+  @Nonnull
+  public Map<String, ElevatorGroup> getGroups() {
+    return new HashMap<>(groups);
+  }
+
+  /**
+   * Creates a new, empty group.
+   *
+   * @param name Name of the group.
+   * @throws IllegalArgumentException If a group with the supplied name
+   *                                  already exists.
+   * @return True on success, false on failure.
+   */
+  public boolean createGroup(@Nonnull String name) {
+    if (groups.containsKey(name)) {
+      throw new IllegalArgumentException("Group already exists: " + name);
+    }
+    groups.put(name, new ElevatorGroup(name, this, new ArrayList<>(), null,
+        new TreeMap<>(), new TreeMap<>()));
+    if (saveGroups()) {
+      return true;
+    } else {
+      groups.remove(name);
+      return false;
+    }
+  }
+
+  /**
+   * Deletes a group. The elevators of the group are not deleted.
+   *
+   * @param name Name of the group.
+   * @return True on success, false on failure.
+   */
+  public boolean deleteGroup(@Nonnull String name) {
+    ElevatorGroup group = groups.remove(name);
+    if (group == null) {
+      return false;
+    }
+    if (saveGroups()) {
       return true;
     } else {
+      groups.put(name, group);
       return false;
     }
   }
 
   /**
-   * Unloads all elevators in the manager;
+   * Unloads all elevators in the manager and writes the pending changes to
+   * the elevators files. The runtime state of the elevators is saved
+   * before they are unloaded.
    */
   public void unloadAll() {
+    stateTask.cancel();
+    saveState(false);
+    HandlerList.unregisterAll(blockEventListener);
+    HandlerList.unregisterAll(callButtonListener);
+    HandlerList.unregisterAll(worldListener);
+    HandlerList.unregisterAll(chunkListener);
+    elevators.values().forEach(Elevator::saveMovedGeometry);
     elevators.values().forEach(Elevator::unload);
+    dormantElevators.clear();
+    savedStates.clear();
+    regionIndex.clear();
+    callButtons.clear();
+    groupCallButtons.clear();
+    groupPanels.clear();
+    store.flush();
+    store.close();
   }
 
   /**
@@ -134,272 +501,882 @@ public class ElevatorManager {
   }
 
   /**
-   * Saves an elevator to the config file.
+   * Gets the elevator whose area contains a location.
+   *
+   * @param loc Location to check.
+   * @return The elevator containing the location, or null if the location
+   *         is not in an elevator.
+   */
+  @Nullable
+  public Elevator getElevatorAt(@Nonnull Location loc) {
+    World world = loc.getWorld();
+    if (world == null) {
+      return null;
+    }
+    return regionIndex.getAt(world.getUID(), loc.getBlockX(),
+        loc.getBlockY(), loc.getBlockZ());
+  }
+
+  /**
+   * Gets the elevator whose area is the closest to a location.
+   *
+   * @param loc Location to check.
+   * @param maxDistance Maximum distance in blocks between the location and
+   *                    the elevator's area.
+   * @return The closest elevator, or null if there is no elevator within
+   *         the maximum distance.
+   */
+  @Nullable
+  public Elevator getNearestElevator(@Nonnull Location loc,
+                                     int maxDistance) {
+    World world = loc.getWorld();
+    if (world == null) {
+      return null;
+    }
+    return regionIndex.getNearest(world.getUID(), loc.getBlockX(),
+        loc.getBlockY(), loc.getBlockZ(), maxDistance);
+  }
+
+  /**
+   * Saves an elevator. The elevator's data is handed to the storage, which
+   * writes it in the background.
    *
    * @param name Name of the elevator.
-   * @param elevator Elevator object.
+   * @param elevator Elevator object, or null to delete the elevator.
    * @return True on success, false on failure.
    */
   boolean saveElevator(String name, Elevator elevator) {
-    // load file
-    String content;
+    if (!fileLoaded) {
+      plugin.getLogger().severe("Not saving elevator " + name + ", because "
+          + "the elevators couldn't be loaded.");
+      return false;
+    }
+    if (elevator == null) {
+      // if elevator object is null, meaning we want to delete it, remove it
+      // from the storage
+      store.remove(name);
+      return true;
+    }
+    store.put(ElevatorData.of(name, elevator));
+    // add the elevator to the map
+    elevators.put(name, elevator);
+    regionIndex.put(elevator);
+    return true;
+  }
+
+  /**
+   * Registers the call button of a floor.
+   *
+   * @param callButton Location of the call button.
+   * @param floor Floor the call button belongs to.
+   */
+  void registerCallButton(@Nonnull Location callButton,
+                          @Nonnull Elevator.Floor floor) {
+    World world = callButton.getWorld();
+    if (world == null) {
+      return;
+    }
+    List<Elevator.Floor> floors = callButtons.computeIfAbsent(
+        world.getUID(), k -> new HashMap<>()).computeIfAbsent(
+        BlockKey.pack(callButton.getBlockX(), callButton.getBlockY(),
+            callButton.getBlockZ()), k -> new ArrayList<>(1));
+    // a floor may have the same button for several directions
+    if (!floors.contains(floor)) {
+      floors.add(floor);
+    }
+  }
+
+  /**
+   * Unregisters the call button of a floor. The call button stays
+   * registered to the other floors sharing it.
+   *
+   * @param callButton Location of the call button.
+   * @param floor Floor the call button belongs to.
+   */
+  void unregisterCallButton(@Nonnull Location callButton,
+                            @Nonnull Elevator.Floor floor) {
+    World world = callButton.getWorld();
+    if (world == null) {
+      return;
+    }
+    Map<Long, List<Elevator.Floor>> worldButtons =
+        callButtons.get(world.getUID());
+    if (worldButtons == null) {
+      return;
+    }
+    long key = BlockKey.pack(callButton.getBlockX(), callButton.getBlockY(),
+        callButton.getBlockZ());
+    List<Elevator.Floor> floors = worldButtons.get(key);
+    if (floors != null && floors.remove(floor) && floors.isEmpty()) {
+      worldButtons.remove(key);
+      if (worldButtons.isEmpty()) {
+        callButtons.remove(world.getUID());
+      }
+    }
+  }
+
+  /**
+   * Saves the elevator groups and updates the index of their call buttons.
+   * The groups file is small, so it is written synchronously.
+   *
+   * @return True on success, false on failure.
+   */
+  boolean saveGroups() {
+    if (!groupsLoaded) {
+      plugin.getLogger().severe("Not saving elevator groups, because the "
+          + "groups file couldn't be loaded.");
+      return false;
+    }
+    JSONArray groupsJson = new JSONArray();
+    for (ElevatorGroup group : groups.values()) {
+      groupsJson.put(group.toJson());
+    }
+    JSONObject main = new JSONObject();
+    main.put("version", GROUPS_FILE_VERSION);
+    main.put("groups", groupsJson);
     try {
-      content =
-          new String(Files.readAllBytes(elevatorsFile.toPath()));
+      JsonElevatorStore.writeFile(new File(plugin.getDataFolder(),
+          GROUPS_FILE_NAME), main.toString());
     } catch (IOException e) {
-      plugin.getLogger().severe("Failed to load elevators file."
+      plugin.getLogger().severe("Failed to write elevator groups file."
           + System.lineSeparator() + e);
       return false;
     }
+    updateGroupCallButtons();
+    return true;
+  }
+
+  /**
+   * Reads the elevator groups file. Groups which can't be parsed are
+   * skipped.
+   */
+  private void readGroups() {
+    File groupsFile = new File(plugin.getDataFolder(), GROUPS_FILE_NAME);
+    if (!groupsFile.exists()) {
+      groupsLoaded = true;
+      return;
+    }
     try {
-      JSONObject main = new JSONObject(content);
-      // check version
-      int version = main.getInt("version");
-      if (version != ELEVATORS_FILE_VERSION) {
-        plugin.getLogger().severe("Unable to load elevators file. " +
-            "File version is incorrect. " +
-            "Expected: " + ELEVATORS_FILE_VERSION + " " +
-            "Found: " + version);
-        return false;
-      }
-      // get the main elevators object
-      JSONArray elevatorsJson = main.getJSONArray("elevators");
-      JSONObject elevatorJson = null;
-      // search for the elevator to update in the file
-      int i;
-      for (i=0; i<elevatorsJson.length(); i++) {
-        JSONObject currentElevatorJson = elevatorsJson.getJSONObject(i);
-        String currentElevatorName = currentElevatorJson.getString("name");
-        if (name.equals(currentElevatorName)) {
-          elevatorJson = currentElevatorJson;
-          break;
-        }
+      JSONObject main = new JSONObject(
+          new String(Files.readAllBytes(groupsFile.toPath()),
+              StandardCharsets.UTF_8));
+      if (main.getInt("version") != GROUPS_FILE_VERSION) {
+        plugin.getLogger().severe("Elevator groups file version is "
+            + "incorrect. Expected: " + GROUPS_FILE_VERSION + " Found: "
+            + main.getInt("version"));
+        return;
       }
-      if (elevator == null) {
-        // if elevator object is null, meaning we want to delete it, remove it
-        // from the file
-        if (elevatorJson != null) {
-          elevatorsJson.remove(i);
-        }
-      } else {
-        // if elevator object is not null, update/add it to the file
-        if (elevatorJson == null) {
-          elevatorJson = new JSONObject();
-          elevatorJson.put("name", name);
-          elevatorsJson.put(elevatorJson);
-        }
-        // first location of the elevator
-        Location loc1 = elevator.getLoc1();
-        // get the UID of the world the elevator is in to store it in the file
-        String worldUID = Objects.requireNonNull(loc1.getWorld()).getUID()
-            .toString();
-        elevatorJson.put("world", worldUID);
-        int[] loc1Arr = {loc1.getBlockX(), loc1.getBlockY(),
-            loc1.getBlockZ()};
-        JSONArray loc1Json = new JSONArray(loc1Arr);
-        elevatorJson.put("loc1", loc1Json);
-        // second location of the elevator
-        Location loc2 = elevator.getLoc2();
-        int[] loc2Arr = {loc2.getBlockX(), loc2.getBlockY(),
-            loc2.getBlockZ()};
-        JSONArray loc2Json = new JSONArray(loc2Arr);
-        elevatorJson.put("loc2", loc2Json);
-        // doors of the elevator
-        // iterate through the doors of the elevator and add them to the
-        // file
-        JSONArray doorsJson = new JSONArray();
-        for (Vector door : elevator.getDoors()) {
-          int[] doorArr = {door.getBlockX(),
-              door.getBlockY(), door.getBlockZ()};
-          JSONArray doorJson = new JSONArray(doorArr);
-          doorsJson.put(doorJson);
-        }
-        elevatorJson.put("doors", doorsJson);
-        // floors of the elevator
-        JSONArray floorsJson = new JSONArray();
-        Set<Map.Entry<Integer, Elevator.Floor>> floors = elevator.getFloors()
-            .entrySet();
-        // iterate through the floors
-        for (Map.Entry<Integer, Elevator.Floor> floor : floors) {
-          JSONObject floorJson = new JSONObject();
-          // floor number
-          floorJson.put("floor", floor.getKey());
-          Location loc = floor.getValue().getLocation();
-          // floor location
-          int[] locArr = {loc.getBlockX(), loc.getBlockY(), loc.getBlockZ()};
-          JSONArray locJson = new JSONArray(locArr);
-          floorJson.put("loc", locJson);
-          // doors of the floor
-          JSONArray floorDoorsJson = new JSONArray();
-          for (Location door : floor.getValue().getDoors()) {
-            int[] doorArr = {door.getBlockX(),
-                door.getBlockY(), door.getBlockZ()};
-            JSONArray floorDoorJson = new JSONArray(doorArr);
-            floorDoorsJson.put(floorDoorJson);
-          }
-          // call button of the floor
-          Location callButton = floor.getValue().getCallButton();
-          // if the call button is null, meaning there isn't a call button on
-          // this floor, add null to the file
-          if (callButton == null) {
-            floorJson.put("callButton", JSONObject.NULL);
-          } else {
-            int[] callButtonArr = { callButton.getBlockX(),
-                callButton.getBlockY(), callButton.getBlockZ() };
-            JSONArray callButtonJson = new JSONArray(callButtonArr);
-            floorJson.put("callButton", callButtonJson);
-          }
-          floorJson.put("doors", floorDoorsJson);
-          // add the floor to the floors of the elevator
-          floorsJson.put(floorJson);
+      JSONArray groupsJson = main.getJSONArray("groups");
+      for (int i = 0; i < groupsJson.length(); i++) {
+        try {
+          ElevatorGroup group =
+              ElevatorGroup.fromJson(this, groupsJson.getJSONObject(i));
+          groups.put(group.getName(), group);
+        } catch (JSONException | IllegalArgumentException e) {
+          plugin.getLogger().warning("Skipping an elevator group, because "
+              + "it can't be parsed: " + e.getMessage());
         }
-        elevatorJson.put("floors", floorsJson);
       }
-      // write to the file
-      try (FileWriter writer = new FileWriter(elevatorsFile)) {
-        main.write(writer);
-      } catch (IOException e) {
-        plugin.getLogger().severe("Failed to write to elevators file."
-            + System.lineSeparator() + e);
-        return false;
+      groupsLoaded = true;
+      updateGroupCallButtons();
+    } catch (IOException | JSONException e) {
+      plugin.getLogger().severe("Failed to read elevator groups file."
+          + System.lineSeparator() + e);
+    }
+  }
+
+  /**
+   * Rebuilds the index of the groups' call buttons and destination panels.
+   */
+  private void updateGroupCallButtons() {
+    groupCallButtons.clear();
+    groupPanels.clear();
+    for (ElevatorGroup group : groups.values()) {
+      UUID world = group.getWorld();
+      if (world == null) {
+        continue;
+      }
+      for (Map.Entry<Integer, int[]> button
+          : group.getCallButtonCoordinates().entrySet()) {
+        int[] coords = button.getValue();
+        groupCallButtons.computeIfAbsent(world, k -> new HashMap<>())
+            .put(BlockKey.pack(coords[0], coords[1], coords[2]),
+                new GroupFloor(group, button.getKey()));
       }
-      // if elevator is not null, add it to the map
-      if (elevator != null) {
-        elevators.put(name, elevator);
+      for (Map.Entry<Integer, int[]> panel
+          : group.getPanelCoordinates().entrySet()) {
+        int[] coords = panel.getValue();
+        groupPanels.computeIfAbsent(world, k -> new HashMap<>())
+            .put(BlockKey.pack(coords[0], coords[1], coords[2]),
+                new GroupFloor(group, panel.getKey()));
       }
-    } catch (JSONException e) {
-      plugin.getLogger().severe("Failed to parse elevators file."
+    }
+  }
+
+  /**
+   * Removes a deleted elevator from the groups it was in.
+   *
+   * @param name Name of the elevator.
+   */
+  private void removeFromGroups(@Nonnull String name) {
+    boolean changed = false;
+    for (ElevatorGroup group : groups.values()) {
+      changed |= group.removeElevatorNoSave(name);
+    }
+    if (changed && !saveGroups()) {
+      plugin.getLogger().warning("Failed to remove elevator " + name
+          + " from its groups.");
+    }
+  }
+
+  /**
+   * Creates a storage.
+   *
+   * @param storage Name of the storage, one of {@link #STORAGES}.
+   * @return The storage.
+   */
+  @Nonnull
+  private ElevatorStore createStore(@Nonnull String storage) {
+    if (storage.equals("binary")) {
+      return new BinaryElevatorStore(plugin, storeFile(storage));
+    } else if (storage.equals("sqlite")) {
+      return new SqliteElevatorStore(plugin, storeFile(storage));
+    } else {
+      return new JsonElevatorStore(plugin,
+          new File(plugin.getDataFolder(), "elevators"));
+    }
+  }
+
+  /**
+   * Gets the file which exists if a storage exists, without creating the
+   * storage: the file of the binary and SQLite storages, and the index
+   * file of the JSON storage.
+   *
+   * @param storage Name of the storage, one of {@link #STORAGES}.
+   * @return File of the storage.
+   */
+  @Nonnull
+  private File storeFile(@Nonnull String storage) {
+    if (storage.equals("binary")) {
+      return new File(plugin.getDataFolder(), "elevators.bin");
+    } else if (storage.equals("sqlite")) {
+      return new File(plugin.getDataFolder(), "elevators.db");
+    } else {
+      return new File(new File(plugin.getDataFolder(), "elevators"),
+          JsonElevatorStore.INDEX_FILE_NAME);
+    }
+  }
+
+  /**
+   * Reads the name of the storage the elevators were last loaded from.
+   *
+   * @return Name of the storage, or null if it isn't known.
+   */
+  @Nullable
+  private String readLastStorage() {
+    File storageFile = new File(plugin.getDataFolder(), STORAGE_FILE_NAME);
+    if (!storageFile.exists()) {
+      return null;
+    }
+    try {
+      String storage = new String(Files.readAllBytes(storageFile.toPath()),
+          StandardCharsets.UTF_8).trim();
+      return STORAGES.contains(storage) ? storage : null;
+    } catch (IOException e) {
+      plugin.getLogger().warning("Failed to read the storage file."
           + System.lineSeparator() + e);
-      return false;
+      return null;
     }
-    return true;
   }
 
   /**
-   * Loads all elevators from the config file.
+   * Writes the name of the storage the elevators were loaded from.
+   *
+   * @param storage Name of the storage.
    */
-  private void loadElevators() {
-    elevators = new HashMap<>();
-    // load file
-    String content;
+  private void writeLastStorage(@Nonnull String storage) {
     try {
-      content =
-          new String(Files.readAllBytes(
-              Paths.get(plugin.getDataFolder().getPath(), elevatorsFileName)));
+      JsonElevatorStore.writeFile(new File(plugin.getDataFolder(),
+          STORAGE_FILE_NAME), storage);
     } catch (IOException e) {
-      plugin.getLogger().severe("Failed to load elevators file."
+      plugin.getLogger().warning("Failed to write the storage file."
           + System.lineSeparator() + e);
+    }
+  }
+
+  /**
+   * Finds the storage to import the elevators from. When the storage was
+   * changed, the elevators are imported from the storage they were last
+   * loaded from, even if the selected storage has elevators from an
+   * earlier switch. If that isn't known and the selected storage doesn't
+   * exist, the most recently modified other storage is used.
+   *
+   * @param storage Name of the selected storage.
+   * @param lastStorage Name of the storage the elevators were last loaded
+   *                    from, or null if it isn't known.
+   * @return Name of the storage to import from, or null if the elevators
+   *         are not imported from another storage.
+   */
+  @Nullable
+  private String importSource(@Nonnull String storage,
+                              @Nullable String lastStorage) {
+    if (lastStorage != null && !lastStorage.equals(storage)
+        && storeFile(lastStorage).exists()) {
+      return lastStorage;
+    }
+    if (storeFile(storage).exists()) {
+      return null;
+    }
+    String newest = null;
+    for (String candidate : STORAGES) {
+      File file = storeFile(candidate);
+      if (!candidate.equals(storage) && file.exists() && (newest == null
+          || file.lastModified() > storeFile(newest).lastModified())) {
+        newest = candidate;
+      }
+    }
+    return newest;
+  }
+
+  /**
+   * Loads all elevators from the storage. If there is a single elevators
+   * file of version 2, e.g. an export, the elevators are imported from it.
+   * Otherwise, if the storage was changed since the elevators were last
+   * loaded, or the storage doesn't exist yet, the elevators are imported
+   * from another storage.
+   *
+   * @param storage Name of the selected storage.
+   */
+  private void loadElevators(@Nonnull String storage) {
+    elevators = new HashMap<>();
+    List<ElevatorData> elevatorsData;
+    String lastStorage = readLastStorage();
+    File legacyFile = new File(plugin.getDataFolder(),
+        legacyElevatorsFileName);
+    boolean legacy = legacyFile.exists();
+    String otherStorage = legacy ? null : importSource(storage, lastStorage);
+    if (!legacy && otherStorage == null && store.exists()) {
+      elevatorsData = store.load();
+    } else {
+      if (legacy) {
+        if (store.exists()) {
+          plugin.getLogger().warning("Found " + legacyElevatorsFileName
+              + ". The elevators in the " + storage + " storage will be "
+              + "REPLACED by the elevators imported from it.");
+        }
+        elevatorsData = readLegacyFile(legacyFile);
+      } else if (otherStorage != null) {
+        if (store.exists()) {
+          plugin.getLogger().warning("The storage was changed from "
+              + otherStorage + " to " + storage + ". The elevators in the "
+              + storage + " storage are outdated and will be REPLACED by "
+              + "the elevators imported from the " + otherStorage
+              + " storage.");
+        } else {
+          plugin.getLogger().warning("Importing elevators from the "
+              + otherStorage + " storage into the " + storage
+              + " storage.");
+        }
+        ElevatorStore other = createStore(otherStorage);
+        elevatorsData = other.load();
+        other.close();
+      } else {
+        elevatorsData = new ArrayList<>();
+      }
+      if (elevatorsData == null) {
+        return;
+      }
+      if (!store.replaceAll(elevatorsData)) {
+        plugin.getLogger().severe("Failed to write the elevators to the "
+            + storage + " storage.");
+        return;
+      }
+      if (legacy) {
+        // keep the old file as a backup, but don't import it again
+        File backup = new File(plugin.getDataFolder(),
+            legacyElevatorsFileName + ".bak");
+        if (legacyFile.renameTo(backup)) {
+          plugin.getLogger().info("Migrated " + elevatorsData.size()
+              + " elevators to the " + storage + " storage. The old "
+              + "elevators file was renamed to " + backup.getName() + ".");
+        } else {
+          plugin.getLogger().warning("Migrated the elevators to the "
+              + storage + " storage, but failed to rename the old "
+              + "elevators file.");
+        }
+      }
+    }
+    if (elevatorsData != null && !storage.equals(lastStorage)) {
+      writeLastStorage(storage);
+    }
+    if (elevatorsData == null) {
+      return;
+    }
+    // the storage is loaded, elevators may be saved while they are
+    // activated
+    fileLoaded = true;
+    for (ElevatorData elevatorData : elevatorsData) {
+      if (Bukkit.getWorld(elevatorData.world) == null) {
+        // the world may be loaded later, e.g. by another plugin
+        dormantElevators.computeIfAbsent(elevatorData.world,
+            k -> new HashSet<>()).add(elevatorData.name);
+      } else {
+        activate(elevatorData);
+      }
+    }
+    if (!dormantElevators.isEmpty()) {
+      plugin.getLogger().info("Elevators in " + dormantElevators.size()
+          + " worlds which aren't loaded will be loaded with their world.");
+    }
+  }
+
+  /**
+   * Creates an elevator from its data and adds it to the manager. The
+   * elevator's world must be loaded.
+   *
+   * @param data Data of the elevator.
+   */
+  private void activate(@Nonnull ElevatorData data) {
+    Elevator elevator = loadElevator(data);
+    elevators.put(elevator.getName(), elevator);
+    regionIndex.put(elevator);
+    // save the geometry if the car had to be scanned
+    if (!CarGeometry.same(elevator.getGeometry(), data.geometry)) {
+      saveElevator(data.name, elevator);
+    }
+    ElevatorState state = savedStates.remove(data.name);
+    if (state != null) {
+      elevator.restoreState(state);
+    }
+  }
+
+  /**
+   * Reads the runtime state snapshot. States which can't be parsed are
+   * skipped.
+   */
+  private void readState() {
+    File stateFile = new File(plugin.getDataFolder(), STATE_FILE_NAME);
+    if (!stateFile.exists()) {
       return;
     }
     try {
-      JSONObject main = new JSONObject(content);
-      // check version
-      int version = main.getInt("version");
-      if (version != ELEVATORS_FILE_VERSION) {
-        plugin.getLogger().severe("Unable to load elevators file. " +
-            "File version is incorrect. " +
-            "Expected: " + ELEVATORS_FILE_VERSION + " " +
-            "Found: " + version);
+      JSONObject main = new JSONObject(
+          new String(Files.readAllBytes(stateFile.toPath()),
+              StandardCharsets.UTF_8));
+      if (main.getInt("version") != STATE_FILE_VERSION) {
+        plugin.getLogger().warning("Ignoring the elevator state file, "
+            + "because its version is incorrect.");
         return;
       }
-      // get main elevators object
-      JSONArray elevatorsJson = main.getJSONArray("elevators");
-      for (int i=0; i<elevatorsJson.length(); i++) {
-        JSONObject elevatorJson = elevatorsJson.getJSONObject(i);
-        // elevator name
-        String name = elevatorJson.getString("name");
-        // get world object from UID stored in file
-        World world = Bukkit.getWorld(UUID.fromString(elevatorJson.getString(
-            "world")));
-        // first location of the elevator
-        JSONArray loc1Json = elevatorJson.getJSONArray("loc1");
-        Location loc1 = new Location(world, loc1Json.getInt(0),
-            loc1Json.getInt(1),
-            loc1Json.getInt(2));
-        // second location of the elevator
-        JSONArray loc2Json = elevatorJson.getJSONArray("loc2");
-        Location loc2 = new Location(world, loc2Json.getInt(0),
-            loc2Json.getInt(1),
-            loc2Json.getInt(2));
-        // doors of the elevator
-        JSONArray doorsJson = elevatorJson.getJSONArray("doors");
-        List<Vector> doors = new ArrayList<>();
-        for (int x=0; x<doorsJson.length(); x++) {
-          JSONArray doorJson = doorsJson.getJSONArray(x);
-          doors.add(new Vector(doorJson.getInt(0),
-              doorJson.getInt(1), doorJson.getInt(2)));
+      JSONArray statesJson = main.getJSONArray("elevators");
+      for (int i = 0; i < statesJson.length(); i++) {
+        try {
+          ElevatorState state =
+              ElevatorState.fromJson(statesJson.getJSONObject(i));
+          savedStates.put(state.name, state);
+        } catch (JSONException e) {
+          plugin.getLogger().warning("Skipping the state of an elevator, "
+              + "because it can't be parsed: " + e.getMessage());
         }
-        Elevator elevator = new Elevator(plugin, name, this, loc1, loc2,
-            doors);
-        // floors
-        JSONArray floorsJson = elevatorJson.getJSONArray("floors");
-        for (int x=0; x<floorsJson.length(); x++) {
-          JSONObject floorJson = floorsJson.getJSONObject(x);
-          // floor number
-          int floorNumber = floorJson.getInt("floor");
-          // floor location
-          JSONArray locJson = floorJson.getJSONArray("loc");
-          Location loc = new Location(world, locJson.getInt(0),
-              locJson.getInt(1), locJson.getInt(2));
-          // doors of the floor
-          JSONArray floorDoorsJson = floorJson.getJSONArray("doors");
-          List<Location> floorDoors = new ArrayList<>();
-          for (int j=0; j<floorDoorsJson.length(); j++) {
-            JSONArray floorDoorJson = floorDoorsJson.getJSONArray(j);
-            floorDoors.add(new Location(world,
-                floorDoorJson.getInt(0), floorDoorJson.getInt(1),
-                floorDoorJson.getInt(2)));
-          }
-          // call button of the floor
-          Location callButton = null;
-          // only load the call button if it is not null
-          if (!floorJson.isNull("callButton")) {
-            JSONArray callButtonJson = floorJson.getJSONArray("callButton");
-            callButton = new Location(world, callButtonJson.getInt(0),
-                callButtonJson.getInt(1), callButtonJson.getInt(2));
-          }
-          new Elevator.Floor(plugin, elevator, floorNumber, loc,
-              floorDoors, callButton);
-        }
-        elevators.put(name, elevator);
       }
+    } catch (IOException | JSONException e) {
+      plugin.getLogger().warning("Failed to read the elevator state file."
+          + System.lineSeparator() + e);
+    }
+  }
+
+  /**
+   * Saves the runtime state snapshot. Only elevators with queued stops or
+   * open doors are saved, along with the states which weren't restored
+   * yet. The snapshot is built on the main thread. A snapshot is never
+   * written after a newer one, so a pending asynchronous write can't
+   * overwrite the final snapshot saved when the plugin is disabled.
+   *
+   * @param async Whether to write the file on an asynchronous task.
+   */
+  private void saveState(boolean async) {
+    JSONArray statesJson = new JSONArray();
+    for (Elevator elevator : elevators.values()) {
+      ElevatorState state = elevator.getState();
+      if (state.isBusy()) {
+        statesJson.put(state.toJson());
+      }
+    }
+    for (ElevatorState state : savedStates.values()) {
+      statesJson.put(state.toJson());
+    }
+    JSONObject main = new JSONObject();
+    main.put("version", STATE_FILE_VERSION);
+    main.put("elevators", statesJson);
+    String content = main.toString();
+    File stateFile = new File(plugin.getDataFolder(), STATE_FILE_NAME);
+    long generation = ++stateGeneration;
+    if (async) {
+      plugin.getServer().getScheduler().runTaskAsynchronously(plugin,
+          () -> writeState(stateFile, content, generation));
+    } else {
+      writeState(stateFile, content, generation);
+    }
+  }
+
+  /**
+   * Writes the runtime state snapshot file, unless a newer snapshot was
+   * already written.
+   *
+   * @param stateFile State file.
+   * @param content Content of the file.
+   * @param generation Number of the snapshot.
+   */
+  private synchronized void writeState(@Nonnull File stateFile,
+                                       @Nonnull String content,
+                                       long generation) {
+    if (generation < writtenStateGeneration) {
+      return;
+    }
+    writtenStateGeneration = generation;
+    try {
+      JsonElevatorStore.writeFile(stateFile, content);
+    } catch (IOException e) {
+      plugin.getLogger().warning("Failed to write the elevator state file."
+          + System.lineSeparator() + e);
+    }
+  }
+
+  /**
+   * Reads the single elevators file of version 2.
+   *
+   * @param legacyFile Elevators file.
+   * @return Data of the elevators, or null if the file couldn't be read.
+   */
+  @Nullable
+  private List<ElevatorData> readLegacyFile(@Nonnull File legacyFile) {
+    try {
+      ElevatorsFileReader reader = new ElevatorsFileReader(legacyFile,
+          LEGACY_ELEVATORS_FILE_VERSION, plugin.getLogger());
+      List<ElevatorData> result = reader.read();
+      if (reader.getSkipped() > 0) {
+        plugin.getLogger().warning("Skipped " + reader.getSkipped()
+            + " elevators which couldn't be parsed.");
+      }
+      return result;
+    } catch (IOException e) {
+      plugin.getLogger().severe("Failed to load elevators file."
+          + System.lineSeparator() + e);
+      return null;
     } catch (JSONException e) {
       plugin.getLogger().severe("Failed to parse elevators file."
           + System.lineSeparator() + e);
-      elevators = new HashMap<>();
+      return null;
     }
   }
 
   /**
-   * Creates the elevators file if it does not exist.
+   * Creates an elevator from its data. Must be called on the main thread,
+   * and the elevator's world must be loaded.
+   *
+   * @param data Data of the elevator.
+   * @return The elevator.
    */
-  private void createElevatorsFileIfNotExists() {
-    if (!elevatorsFile.exists()) {
-      createElevatorsFile();
+  @Nonnull
+  private Elevator loadElevator(@Nonnull ElevatorData data) {
+    // get world object from UID stored in the storage
+    World world = Objects.requireNonNull(Bukkit.getWorld(data.world));
+    // doors of the elevator
+    List<Vector> doors = new ArrayList<>();
+    for (int[] door : data.doors) {
+      doors.add(new Vector(door[0], door[1], door[2]));
     }
+    Elevator elevator = new Elevator(plugin, data.name, this,
+        location(world, data.loc1), location(world, data.loc2), doors,
+        data.writeMode, data.transitMode, data.geometry);
+    // floors
+    for (ElevatorData.FloorData floor : data.floors) {
+      // doors of the floor
+      List<Location> floorDoors = new ArrayList<>();
+      for (int[] door : floor.doors) {
+        floorDoors.add(location(world, door));
+      }
+      // call button of the floor, null if the floor doesn't have one
+      Location callButton = floor.callButton == null ? null :
+          location(world, floor.callButton);
+      Location upCallButton = floor.upCallButton == null ? null :
+          location(world, floor.upCallButton);
+      Location downCallButton = floor.downCallButton == null ? null :
+          location(world, floor.downCallButton);
+      new Elevator.Floor(plugin, elevator, floor.floor,
+          location(world, floor.loc), floorDoors, callButton, upCallButton,
+          downCallButton);
+    }
+    return elevator;
   }
 
   /**
-   * Creates the elevators file.
+   * Creates a location from coordinates.
+   *
+   * @param world World of the location.
+   * @param coordinates Coordinates of the location.
+   * @return The location.
    */
-  private void createElevatorsFile() {
-    if (elevatorsFile.getParentFile().exists() ||
-        elevatorsFile.getParentFile().mkdirs()) {
-      JSONObject main = new JSONObject();
-      // version number of the config file - reserved for future use
-      main.put("version", ELEVATORS_FILE_VERSION);
-      // main elevators object
-      JSONArray elevators = new JSONArray();
-      main.put("elevators", elevators);
-      // write to the file
-      try (FileWriter writer = new FileWriter(elevatorsFile)) {
-        main.write(writer);
-      } catch (IOException e) {
-        plugin.getLogger().severe("Failed to create elevators file."
-            + System.lineSeparator() + e);
+  @Nonnull
+  private static Location location(@Nonnull World world,
+                                   @Nonnull int[] coordinates) {
+    return new Location(world, coordinates[0], coordinates[1],
+        coordinates[2]);
+  }
+
+  /**
+   * This class listens for block placement and block removal events and
+   * forwards them to the elevators whose region contains the block.
+   */
+  private class BlockEventListener implements Listener {
+    /**
+     * Listens for block placement events.
+     *
+     * @param event Block placement event.
+     */
+    @EventHandler
+    public void onBlockPlaceEvent(@Nonnull BlockPlaceEvent event) {
+      if (!event.isCancelled()) {
+        handle(event.getBlock());
       }
-    } else {
-      plugin.getLogger().severe("Failed to create plugin data folder.");
+    }
+
+    /**
+     * Listens for block removal events.
+     *
+     * @param event Block removal event.
+     */
+    @EventHandler
+    public void onBlockBreakEvent(@Nonnull BlockBreakEvent event) {
+      if (!event.isCancelled()) {
+        handle(event.getBlock());
+      }
+    }
+
+    /**
+     * Notifies the elevators whose region contains the block.
+     *
+     * @param block Block which generated the event.
+     */
+    private void handle(@Nonnull Block block) {
+      int x = block.getX();
+      int y = block.getY();
+      int z = block.getZ();
+      for (Elevator elevator : regionIndex.get(block.getWorld().getUID(),
+          x >> 4, z >> 4)) {
+        if (elevator.regionContains(x, y, z)) {
+          elevator.handleBlockChange(block);
+        }
+      }
+    }
+  }
+
+  /**
+   * Lets the elevators find their blocks when the chunks of their region
+   * are loaded and release them when the chunks are unloaded, so the
+   * elevators' chunks don't have to be loaded when the plugin is enabled.
+   */
+  private class ChunkListener implements Listener {
+    /**
+     * Listens for chunk load events.
+     *
+     * @param event Chunk load event.
+     */
+    @EventHandler
+    public void onChunkLoadEvent(@Nonnull ChunkLoadEvent event) {
+      Chunk chunk = event.getChunk();
+      for (Elevator elevator : regionIndex.get(chunk.getWorld().getUID(),
+          chunk.getX(), chunk.getZ())) {
+        elevator.handleChunkLoad();
+      }
+    }
+
+    /**
+     * Listens for chunk unload events.
+     *
+     * @param event Chunk unload event.
+     */
+    @EventHandler
+    public void onChunkUnloadEvent(@Nonnull ChunkUnloadEvent event) {
+      Chunk chunk = event.getChunk();
+      for (Elevator elevator : regionIndex.get(chunk.getWorld().getUID(),
+          chunk.getX(), chunk.getZ())) {
+        elevator.handleChunkUnload();
+      }
+    }
+  }
+
+  /**
+   * Activates the elevators of a world when it is loaded and makes them
+   * dormant again when it is unloaded.
+   */
+  private class WorldListener implements Listener {
+    /**
+     * Listens for world load events.
+     *
+     * @param event World load event.
+     */
+    @EventHandler
+    public void onWorldLoadEvent(@Nonnull WorldLoadEvent event) {
+      UUID world = event.getWorld().getUID();
+      if (!dormantElevators.containsKey(world)) {
+        return;
+      }
+      List<ElevatorData> worldElevators = loadWorld(world);
+      if (worldElevators == null) {
+        plugin.getLogger().severe("Failed to load the elevators of world "
+            + event.getWorld().getName() + ".");
+        return;
+      }
+      dormantElevators.remove(world);
+      for (ElevatorData elevator : worldElevators) {
+        if (!elevators.containsKey(elevator.name)) {
+          activate(elevator);
+        }
+      }
+    }
+
+    /**
+     * Listens for world unload events.
+     *
+     * @param event World unload event.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnloadEvent(@Nonnull WorldUnloadEvent event) {
+      if (event.isCancelled()) {
+        return;
+      }
+      UUID world = event.getWorld().getUID();
+      Iterator<Elevator> iterator = elevators.values().iterator();
+      while (iterator.hasNext()) {
+        Elevator elevator = iterator.next();
+        if (world.equals(Objects.requireNonNull(elevator.getLoc1()
+            .getWorld()).getUID())) {
+          // the elevator's data is already in the storage
+          dormantElevators.computeIfAbsent(world, k -> new HashSet<>())
+              .add(elevator.getName());
+          ElevatorState state = elevator.getState();
+          if (state.isBusy()) {
+            savedStates.put(elevator.getName(), state);
+          }
+          elevator.saveMovedGeometry();
+          iterator.remove();
+          regionIndex.remove(elevator);
+          elevator.unload();
+        }
+      }
+    }
+  }
+
+  /**
+   * Listens for call button presses and forwards them to the group or the
+   * floor the call button belongs to. Also opens the menus of destination
+   * panels and handles clicks in them.
+   */
+  private class CallButtonListener implements Listener {
+    /**
+     * Listens for a player interact event. If the player interacts with
+     * a call button, it will add the floor to the elevator's stop queue.
+     *
+     * @param event Player interact event.
+     */
+    @EventHandler
+    public void onPlayerInteractEvent(@Nonnull PlayerInteractEvent event) {
+      if (!event.getAction().equals(Action.RIGHT_CLICK_BLOCK)) {
+        return;
+      }
+      Block block = Objects.requireNonNull(event.getClickedBlock());
+      long key = BlockKey.pack(block.getX(), block.getY(), block.getZ());
+      Map<Long, GroupFloor> worldPanels =
+          groupPanels.get(block.getWorld().getUID());
+      GroupFloor panel = worldPanels == null ? null : worldPanels.get(key);
+      if (panel != null) {
+        // e.g. don't open the sign editor
+        event.setCancelled(true);
+        panel.group.openPanel(panel.floor, event.getPlayer());
+        return;
+      }
+      if (!(block.getBlockData() instanceof Switch)) {
+        return;
+      }
+      Map<Long, GroupFloor> worldGroupButtons =
+          groupCallButtons.get(block.getWorld().getUID());
+      GroupFloor button = worldGroupButtons == null ? null
+          : worldGroupButtons.get(key);
+      if (button != null) {
+        button.group.handleCallButtonPress(button.floor, event.getPlayer());
+        return;
+      }
+      Map<Long, List<Elevator.Floor>> worldButtons =
+          callButtons.get(block.getWorld().getUID());
+      if (worldButtons == null) {
+        return;
+      }
+      List<Elevator.Floor> floors = worldButtons.get(key);
+      if (floors != null) {
+        for (Elevator.Floor floor : floors) {
+          floor.handleCallButtonPress(event.getPlayer(), block.getX(),
+              block.getY(), block.getZ());
+        }
+      }
+    }
+
+    /**
+     * Listens for clicks in inventories. Clicks in the menu of a
+     * destination panel are cancelled and forwarded to the panel.
+     *
+     * @param event Inventory click event.
+     */
+    @EventHandler
+    public void onInventoryClickEvent(@Nonnull InventoryClickEvent event) {
+      InventoryHolder holder = event.getInventory().getHolder();
+      if (holder instanceof ElevatorGroup.Panel) {
+        event.setCancelled(true);
+        if (event.getWhoClicked() instanceof Player) {
+          ((ElevatorGroup.Panel) holder).handleClick(event.getRawSlot(),
+              (Player) event.getWhoClicked());
+        }
+      }
+    }
+
+    /**
+     * Listens for item drags in inventories, so items can't be dragged into
+     * or out of the menu of a destination panel.
+     *
+     * @param event Inventory drag event.
+     */
+    @EventHandler
+    public void onInventoryDragEvent(@Nonnull InventoryDragEvent event) {
+      if (event.getInventory().getHolder() instanceof ElevatorGroup.Panel) {
+        event.setCancelled(true);
+      }
+    }
+  }
+
+  /**
+   * Floor of an elevator group a call button or destination panel belongs
+   * to.
+   */
+  private static final class GroupFloor {
+    /**
+     * The group.
+     */
+    private final ElevatorGroup group;
+
+    /**
+     * Floor number.
+     */
+    private final int floor;
+
+    /**
+     * Constructor.
+     *
+     * @param group The group.
+     * @param floor Floor number.
+     */
+    private GroupFloor(@Nonnull ElevatorGroup group, int floor) {
+      this.group = group;
+      this.floor = floor;
     }
   }
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Runtime state of an elevator, which is not part of its persistent data:
+ * the queued stops, the position of the car and the state of the doors.
+ * Saved in a snapshot so that elevators resume service after a restart.
+ * Instances are immutable.
+ *
+ * @see Elevator#getState()
+ * @see Elevator#restoreState(ElevatorState)
+ */
+final class ElevatorState {
+  /**
+   * Name of the elevator.
+   */
+  final String name;
+
+  /**
+   * Queued stops.
+   */
+  final int[] stops;
+
+  /**
+   * Queued hall calls going up.
+   */
+  final int[] upCalls;
+
+  /**
+   * Queued hall calls going down.
+   */
+  final int[] downCalls;
+
+  /**
+   * Floor the elevator was last at.
+   */
+  final int currentFloor;
+
+  /**
+   * Whether the elevator's doors are open.
+   */
+  final boolean doorsOpen;
+
+  /**
+   * Direction of the elevator. 1 for up, -1 for down, 0 if the elevator is
+   * not moving.
+   */
+  final byte direction;
+
+  /**
+   * Coordinates of the master block, or null if the elevator doesn't have
+   * one or its blocks weren't found.
+   */
+  @Nullable
+  final int[] masterBlock;
+
+  /**
+   * Constructor.
+   *
+   * @param name Name of the elevator.
+   * @param stops Queued stops.
+   * @param upCalls Queued hall calls going up.
+   * @param downCalls Queued hall calls going down.
+   * @param currentFloor Floor the elevator was last at.
+   * @param doorsOpen Whether the elevator's doors are open.
+   * @param direction Direction of the elevator.
+   * @param masterBlock Coordinates of the master block, or null.
+   */
+  ElevatorState(@Nonnull String name, @Nonnull int[] stops,
+                @Nonnull int[] upCalls, @Nonnull int[] downCalls,
+                int currentFloor, boolean doorsOpen, byte direction,
+                @Nullable int[] masterBlock) {
+    this.name = name;
+    this.stops = stops;
+    this.upCalls = upCalls;
+    this.downCalls = downCalls;
+    this.currentFloor = currentFloor;
+    this.doorsOpen = doorsOpen;
+    this.direction = direction;
+    this.masterBlock = masterBlock;
+  }
+
+  /**
+   * Checks if the state differs from the state of an idle elevator, i.e.
+   * if it's worth saving.
+   *
+   * @return True if there are queued stops or hall calls or the doors are
+   *         open.
+   */
+  boolean isBusy() {
+    return stops.length > 0 || upCalls.length > 0 || downCalls.length > 0
+        || doorsOpen;
+  }
+
+  /**
+   * Parses a state from the JSON format of the state file.
+   *
+   * @param json Serialized state.
+   * @return The state.
+   * @throws JSONException When the state can't be parsed.
+   */
+  @Nonnull
+  static ElevatorState fromJson(@Nonnull JSONObject json) {
+    int[] stops = floors(json.getJSONArray("stops"));
+    // hall calls, missing in files saved by older versions
+    JSONArray upCallsJson = json.optJSONArray("upCalls");
+    JSONArray downCallsJson = json.optJSONArray("downCalls");
+    int[] masterBlock = null;
+    if (!json.isNull("masterBlock")) {
+      JSONArray masterJson = json.getJSONArray("masterBlock");
+      masterBlock = new int[]{masterJson.getInt(0), masterJson.getInt(1),
+          masterJson.getInt(2)};
+    }
+    return new ElevatorState(json.getString("name"), stops,
+        upCallsJson == null ? new int[0] : floors(upCallsJson),
+        downCallsJson == null ? new int[0] : floors(downCallsJson),
+        json.getInt("currentFloor"), json.getBoolean("doorsOpen"),
+        (byte) json.getInt("direction"), masterBlock);
+  }
+
+  /**
+   * Parses floor numbers from a JSON array.
+   *
+   * @param json JSON array of ints.
+   * @return Floor numbers.
+   * @throws JSONException When the floor numbers can't be parsed.
+   */
+  @Nonnull
+  private static int[] floors(@Nonnull JSONArray json) {
+    int[] floors = new int[json.length()];
+    for (int i = 0; i < floors.length; i++) {
+      floors[i] = json.getInt(i);
+    }
+    return floors;
+  }
+
+  /**
+   * Converts the state to the JSON format of the state file.
+   *
+   * @return Serialized state.
+   */
+  @Nonnull
+  JSONObject toJson() {
+    JSONObject json = new JSONObject();
+    json.put("name", name);
+    json.put("stops", new JSONArray(stops));
+    json.put("upCalls", new JSONArray(upCalls));
+    json.put("downCalls", new JSONArray(downCalls));
+    json.put("currentFloor", currentFloor);
+    json.put("doorsOpen", doorsOpen);
+    json.put("direction", direction);
+    json.put("masterBlock", masterBlock == null ? JSONObject.NULL :
+        new JSONArray(masterBlock));
+    return json;
+  }
+}
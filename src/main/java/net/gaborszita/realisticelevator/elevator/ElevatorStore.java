@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Storage of the elevators' persistent data. The elevator manager keeps the
+ * elevators in memory and tells the storage about every change; when and
+ * how the changes are written is up to the storage. All methods are called
+ * on the main thread.
+ *
+ * <p>Implementations are {@link JsonElevatorStore}, {@link
+ * BinaryElevatorStore} and {@link SqliteElevatorStore}, selected by the
+ * storage option of the plugin's config.
+ */
+interface ElevatorStore {
+  /**
+   * Checks if the storage contains saved elevators, i.e. if it was used
+   * before.
+   *
+   * @return True if the storage exists, false otherwise.
+   */
+  boolean exists();
+
+  /**
+   * Loads all elevators. Errors are logged.
+   *
+   * @return Data of the elevators, or null if the storage couldn't be
+   *         loaded.
+   */
+  @Nullable
+  List<ElevatorData> load();
+
+  /**
+   * Loads the elevators of a world. Used when a world is loaded after the
+   * elevators were loaded. Errors are logged.
+   *
+   * @param world UID of the world.
+   * @return Data of the world's elevators, or null if they couldn't be
+   *         loaded.
+   */
+  @Nullable
+  List<ElevatorData> loadByWorld(@Nonnull UUID world);
+
+  /**
+   * Replaces the content of the storage and writes it before returning.
+   * Used when importing elevators from another storage.
+   *
+   * @param elevators Data of the elevators.
+   * @return True on success, false on failure.
+   */
+  boolean replaceAll(@Nonnull Collection<ElevatorData> elevators);
+
+  /**
+   * Adds or updates an elevator.
+   *
+   * @param elevator Data of the elevator.
+   */
+  void put(@Nonnull ElevatorData elevator);
+
+  /**
+   * Removes an elevator.
+   *
+   * @param name Name of the elevator.
+   */
+  void remove(@Nonnull String name);
+
+  /**
+   * Writes the pending changes before returning. Called when the plugin is
+   * disabled.
+   *
+   * @return True if every change was written, false otherwise.
+   */
+  boolean flush();
+
+  /**
+   * Releases the resources of the storage. Called after the last flush
+   * when the plugin is disabled.
+   */
+  default void close() {
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Reads an elevators file of the form
+ * <code>{"version": ..., "elevators": [...]}</code> as a stream. The file is
+ * never held in memory as a whole: the text of one elevator entry is read
+ * at a time and converted to {@link ElevatorData} as soon as it is
+ * complete, so the memory used is bounded by the largest entry, not by the
+ * size of the file.
+ *
+ * <p>An entry which can't be parsed is skipped with a warning, and the rest
+ * of the elevators are still loaded. The file as a whole fails to load only
+ * if its structure is broken, e.g. the elevators array is not terminated,
+ * or if its version is incorrect.
+ */
+class ElevatorsFileReader {
+  /**
+   * The file.
+   */
+  private final File file;
+
+  /**
+   * Expected version of the file.
+   */
+  private final int version;
+
+  /**
+   * Logger the skipped entries are logged to.
+   */
+  private final Logger logger;
+
+  /**
+   * Number of entries skipped by the last read.
+   */
+  private int skipped = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param file The file.
+   * @param version Expected version of the file.
+   * @param logger Logger the skipped entries are logged to.
+   */
+  ElevatorsFileReader(@Nonnull File file, int version,
+                      @Nonnull Logger logger) {
+    this.file = file;
+    this.version = version;
+    this.logger = logger;
+  }
+
+  /**
+   * Reads the elevators in the file. Doesn't access the server, so it can
+   * be called from any thread.
+   *
+   * @return Data of the elevators, in the order of the file.
+   * @throws IOException When the file can't be read.
+   * @throws JSONException When the structure of the file is broken or its
+   *                       version is incorrect.
+   */
+  @Nonnull
+  List<ElevatorData> read() throws IOException {
+    skipped = 0;
+    try (Reader reader = Files.newBufferedReader(file.toPath(),
+        StandardCharsets.UTF_8)) {
+      JSONTokener tokener = new JSONTokener(reader);
+      List<ElevatorData> elevators = new ArrayList<>();
+      Integer fileVersion = null;
+      expect(tokener, '{');
+      char c = tokener.nextClean();
+      while (c != '}') {
+        tokener.back();
+        String key = tokener.nextValue().toString();
+        expect(tokener, ':');
+        if (key.equals("elevators")) {
+          readElevators(tokener, elevators);
+        } else if (key.equals("version")) {
+          fileVersion = ((Number) tokener.nextValue()).intValue();
+          // fail before parsing the elevators if the version is known
+          checkVersion(fileVersion);
+        } else {
+          tokener.nextValue();
+        }
+        c = tokener.nextClean();
+        if (c == ',') {
+          c = tokener.nextClean();
+        } else if (c != '}') {
+          throw tokener.syntaxError("Expected a ',' or '}'");
+        }
+      }
+      if (fileVersion == null) {
+        throw new JSONException("Elevators file " + file.getName()
+            + " is missing its version.");
+      }
+      return elevators;
+    } catch (ClassCastException e) {
+      throw new JSONException("Elevators file " + file.getName()
+          + " has an invalid version.", e);
+    }
+  }
+
+  /**
+   * Gets the number of entries skipped by the last read because they
+   * couldn't be parsed.
+   *
+   * @return Number of skipped entries.
+   */
+  int getSkipped() {
+    return skipped;
+  }
+
+  /**
+   * Reads the elevators array, converting every entry as soon as it is
+   * read.
+   *
+   * @param tokener Tokener positioned before the array.
+   * @param elevators List the elevators are added to.
+   * @throws JSONException When the array is not terminated.
+   */
+  private void readElevators(@Nonnull JSONTokener tokener,
+                             @Nonnull List<ElevatorData> elevators) {
+    expect(tokener, '[');
+    char c = tokener.nextClean();
+    int index = 0;
+    while (c != ']') {
+      String entry = readEntry(tokener, c);
+      try {
+        elevators.add(ElevatorData.fromJson(new JSONObject(entry)));
+      } catch (JSONException | IllegalArgumentException e) {
+        skipped++;
+        logger.warning("Skipping elevator " + index + " in elevators file "
+            + file.getName() + ", because it can't be parsed: "
+            + e.getMessage());
+      }
+      index++;
+      c = tokener.nextClean();
+      if (c == ',') {
+        c = tokener.nextClean();
+      } else if (c != ']') {
+        throw tokener.syntaxError("Expected a ',' or ']'");
+      }
+    }
+  }
+
+  /**
+   * Reads the text of an array entry without parsing it. The entry ends at
+   * the first ',' or ']' outside of a string and outside of any nested
+   * object or array.
+   *
+   * @param tokener Tokener positioned after the first character of the
+   *                entry.
+   * @param first First character of the entry.
+   * @return Text of the entry.
+   * @throws JSONException When the file ends inside the entry.
+   */
+  @Nonnull
+  private static String readEntry(@Nonnull JSONTokener tokener, char first) {
+    StringBuilder entry = new StringBuilder();
+    int depth = 0;
+    boolean inString = false;
+    char c = first;
+    while (true) {
+      if (c == 0 && tokener.end()) {
+        throw tokener.syntaxError("Unterminated elevators array");
+      }
+      if (inString) {
+        if (c == '\\') {
+          entry.append(c);
+          c = tokener.next();
+        } else if (c == '"') {
+          inString = false;
+        }
+      } else if (c == '"') {
+        inString = true;
+      } else if (c == '{' || c == '[') {
+        depth++;
+      } else if (c == '}' || c == ']') {
+        if (depth == 0) {
+          break;
+        }
+        depth--;
+      } else if (c == ',' && depth == 0) {
+        break;
+      }
+      entry.append(c);
+      if (depth == 0 && !inString && (c == '}' || c == ']')) {
+        return entry.toString();
+      }
+      c = tokener.next();
+    }
+    // the ',' or ']' ending the entry is read again by the caller
+    tokener.back();
+    return entry.toString();
+  }
+
+  /**
+   * Checks the version of the file.
+   *
+   * @param fileVersion Version found in the file.
+   * @throws JSONException When the version is incorrect.
+   */
+  private void checkVersion(int fileVersion) {
+    if (fileVersion != version) {
+      throw new JSONException("Elevators file " + file.getName()
+          + " version is incorrect. Expected: " + version
+          + " Found: " + fileVersion);
+    }
+  }
+
+  /**
+   * Reads the next character which is not whitespace and checks it.
+   *
+   * @param tokener The tokener.
+   * @param expected Expected character.
+   * @throws JSONException When the character is not the expected one.
+   */
+  private static void expect(@Nonnull JSONTokener tokener, char expected) {
+    if (tokener.nextClean() != expected) {
+      throw tokener.syntaxError("Expected a '" + expected + "'");
+    }
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.FallingBlock;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves an elevator car between two stops as entities. When the transit
+ * starts, the car's blocks are removed from the world and replaced by
+ * falling block entities without gravity, which are moved smoothly every
+ * tick together with the passengers. The real blocks are only placed again
+ * at the destination, so a trip costs two block writes per car block
+ * regardless of its distance.
+ */
+class EntityTransit extends BukkitRunnable {
+  /**
+   * World of the car.
+   */
+  private final World world;
+
+  /**
+   * Blocks of the car.
+   */
+  private final CarBlocks car;
+
+  /**
+   * Number of blocks the car moves by.
+   */
+  private final int dy;
+
+  /**
+   * Number of blocks the car moves every tick.
+   */
+  private final double speed;
+
+  /**
+   * Called after the blocks are placed at their final position.
+   */
+  private final Runnable onFinish;
+
+  /**
+   * Block data of the car blocks, indexed like the car blocks.
+   */
+  private final BlockData[] snapshot;
+
+  /**
+   * Entities representing the car blocks, indexed like the car blocks.
+   */
+  private final FallingBlock[] entities;
+
+  /**
+   * Passengers of the car.
+   */
+  private final List<Entity> passengers;
+
+  /**
+   * Y coordinates of the passengers relative to the car when the transit
+   * started, indexed like the passengers.
+   */
+  private final double[] passengerOffsets;
+
+  /**
+   * Distance the car has travelled so far, in blocks.
+   */
+  private double progress = 0;
+
+  /**
+   * Indicates whether the blocks have been placed at their final position.
+   */
+  private boolean finished = false;
+
+  /**
+   * Number of blocks the car was moved by when the transit finished.
+   */
+  private int moved = 0;
+
+  /**
+   * Constructor. Call {@link #start(JavaPlugin) start} to start the transit.
+   *
+   * @param world World of the car.
+   * @param car Blocks of the car.
+   * @param dy Number of blocks to move the car by.
+   * @param speed Number of blocks the car moves every tick.
+   * @param passengers Passengers of the car.
+   * @param onFinish Called after the blocks are placed at their final
+   *                 position.
+   */
+  EntityTransit(@Nonnull World world, @Nonnull CarBlocks car, int dy,
+                double speed, @Nonnull List<? extends Entity> passengers,
+                @Nonnull Runnable onFinish) {
+    this.world = world;
+    this.car = car;
+    this.dy = dy;
+    this.speed = speed;
+    this.onFinish = onFinish;
+    this.snapshot = new BlockData[car.size()];
+    this.entities = new FallingBlock[car.size()];
+    this.passengers = new ArrayList<>(passengers);
+    this.passengerOffsets = new double[passengers.size()];
+  }
+
+  /**
+   * Replaces the car blocks with entities and starts moving them.
+   *
+   * @param plugin Plugin instance, used to schedule the transit.
+   */
+  void start(@Nonnull JavaPlugin plugin) {
+    for (int i = 0; i < car.size(); i++) {
+      snapshot[i] = world.getBlockAt(car.x(i), car.y(i), car.z(i))
+          .getBlockData();
+    }
+    // remove iron doors first, so they don't drop when their neighbors are
+    // removed
+    for (int i = 0; i < car.size(); i++) {
+      if (snapshot[i].getMaterial() == Material.IRON_DOOR) {
+        world.getBlockAt(car.x(i), car.y(i), car.z(i)).setType(Material.AIR);
+      }
+    }
+    for (int i = 0; i < car.size(); i++) {
+      world.getBlockAt(car.x(i), car.y(i), car.z(i)).setType(Material.AIR);
+      FallingBlock entity = world.spawnFallingBlock(new Location(world,
+          car.x(i) + 0.5, car.y(i), car.z(i) + 0.5), snapshot[i]);
+      entity.setGravity(false);
+      entity.setDropItem(false);
+      entity.setHurtEntities(false);
+      entity.setInvulnerable(true);
+      entity.setPersistent(false);
+      entities[i] = entity;
+    }
+    for (int i = 0; i < passengers.size(); i++) {
+      passengerOffsets[i] = passengers.get(i).getLocation().getY()
+          - car.minY();
+    }
+    runTaskTimer(plugin, 1, 1);
+  }
+
+  /**
+   * Moves the entities and passengers, and places the blocks once the car
+   * arrived.
+   */
+  @Override
+  public void run() {
+    progress = Math.min(progress + speed, Math.abs(dy));
+    double offset = Math.signum(dy) * progress;
+    for (int i = 0; i < entities.length; i++) {
+      entities[i].teleport(new Location(world, car.x(i) + 0.5,
+          car.y(i) + offset, car.z(i) + 0.5));
+      // keep the entities from despawning on long trips
+      entities[i].setTicksLived(1);
+    }
+    for (int i = 0; i < passengers.size(); i++) {
+      Entity passenger = passengers.get(i);
+      if (passenger.isValid()) {
+        Location loc = passenger.getLocation();
+        loc.setY(car.minY() + offset + passengerOffsets[i]);
+        passenger.teleport(loc);
+        passenger.setFallDistance(0);
+      }
+    }
+    if (progress >= Math.abs(dy)) {
+      finish();
+    }
+  }
+
+  /**
+   * Places the blocks and removes the entities. If the car hasn't arrived
+   * yet, the blocks are placed at the position closest to the car's
+   * current position.
+   */
+  void finish() {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    if (!isCancelled()) {
+      cancel();
+    }
+    moved = (int) Math.round(Math.signum(dy) * progress);
+    for (FallingBlock entity : entities) {
+      if (entity != null) {
+        entity.remove();
+      }
+    }
+    // place iron doors last, so they have their neighbors to stand on
+    for (int i = 0; i < car.size(); i++) {
+      if (snapshot[i].getMaterial() != Material.IRON_DOOR) {
+        world.getBlockAt(car.x(i), car.y(i) + moved, car.z(i))
+            .setBlockData(snapshot[i]);
+      }
+    }
+    for (int i = 0; i < car.size(); i++) {
+      if (snapshot[i].getMaterial() == Material.IRON_DOOR) {
+        world.getBlockAt(car.x(i), car.y(i) + moved, car.z(i))
+            .setBlockData(snapshot[i]);
+      }
+    }
+    car.translate(moved);
+    onFinish.run();
+  }
+
+  /**
+   * Getter for the number of blocks the car was moved by. Only valid after
+   * the transit finished.
+   *
+   * @return Number of blocks the car was moved by.
+   */
+  int getMoved() {
+    return moved;
+  }
+
+  /**
+   * Checks if the transit finished.
+   *
+   * @return True if the blocks have been placed, false otherwise.
+   */
+  boolean isFinished() {
+    return finished;
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * Immutable index of the floors of an elevator by their Y coordinate. The
+ * floors are numbered densely in the order of their Y coordinate, and the
+ * floor at a Y coordinate is looked up in a table covering the range of the
+ * floors, so finding the floor the car is at doesn't depend on the number
+ * of floors. A new index is created when the floors change.
+ *
+ * @see StopQueue
+ */
+final class FloorIndex {
+  /**
+   * Largest range of Y coordinates covered by the lookup table. Floors
+   * spread over a larger range are looked up with a binary search instead.
+   */
+  private static final int MAX_TABLE_SIZE = 4096;
+
+  /**
+   * Floor numbers, sorted by the floors' Y coordinate.
+   */
+  private final int[] floorNumbers;
+
+  /**
+   * Y coordinates of the floors, sorted.
+   */
+  private final int[] ys;
+
+  /**
+   * Indices of the floors by floor number.
+   */
+  private final Map<Integer, Integer> indices = new HashMap<>();
+
+  /**
+   * Index of the first floor at every Y coordinate from the lowest floor's,
+   * -1 if there is no floor at the Y coordinate. Null if the floors are
+   * spread over too large a range, or there are no floors.
+   */
+  private final int[] byY;
+
+  /**
+   * Constructor.
+   *
+   * @param floorYs Y coordinates of the floors by floor number.
+   */
+  FloorIndex(@Nonnull Map<Integer, Integer> floorYs) {
+    List<Map.Entry<Integer, Integer>> sorted =
+        new ArrayList<>(floorYs.entrySet());
+    sorted.sort(Map.Entry.<Integer, Integer>comparingByValue()
+        .thenComparing(Map.Entry.comparingByKey()));
+    floorNumbers = new int[sorted.size()];
+    ys = new int[sorted.size()];
+    for (int i = 0; i < sorted.size(); i++) {
+      floorNumbers[i] = sorted.get(i).getKey();
+      ys[i] = sorted.get(i).getValue();
+      indices.put(floorNumbers[i], i);
+    }
+    if (ys.length > 0
+        && (long) ys[ys.length - 1] - ys[0] < MAX_TABLE_SIZE) {
+      byY = new int[ys[ys.length - 1] - ys[0] + 1];
+      Arrays.fill(byY, -1);
+      // fill backwards, so the first floor at a Y coordinate wins
+      for (int i = ys.length - 1; i >= 0; i--) {
+        byY[ys[i] - ys[0]] = i;
+      }
+    } else {
+      byY = null;
+    }
+  }
+
+  /**
+   * Gets the number of floors.
+   *
+   * @return Number of floors.
+   */
+  int size() {
+    return ys.length;
+  }
+
+  /**
+   * Gets the Y coordinate of a floor.
+   *
+   * @param index Floor index.
+   * @return Y coordinate of the floor.
+   */
+  int y(int index) {
+    return ys[index];
+  }
+
+  /**
+   * Gets the floor number of a floor.
+   *
+   * @param index Floor index.
+   * @return Floor number.
+   */
+  int floorNumber(int index) {
+    return floorNumbers[index];
+  }
+
+  /**
+   * Gets the index of a floor.
+   *
+   * @param floorNumber Floor number.
+   * @return Floor index, or -1 if the floor doesn't exist.
+   */
+  int indexOf(int floorNumber) {
+    Integer index = indices.get(floorNumber);
+    return index == null ? -1 : index;
+  }
+
+  /**
+   * Gets the index of the first floor at a Y coordinate. Further floors at
+   * the same Y coordinate follow it.
+   *
+   * @param y The Y coordinate.
+   * @return Floor index, or -1 if there is no floor at the Y coordinate,
+   *         e.g. because the car is between floors.
+   */
+  int indexAt(int y) {
+    if (byY != null) {
+      long offset = (long) y - ys[0];
+      return offset < 0 || offset >= byY.length ? -1 : byY[(int) offset];
+    }
+    int index = firstIndexAbove(y - 1);
+    return index < ys.length && ys[index] == y ? index : -1;
+  }
+
+  /**
+   * Gets the index of the first floor above a Y coordinate.
+   *
+   * @param y The Y coordinate.
+   * @return Index of the first floor whose Y coordinate is greater than y,
+   *         or the number of floors if there is none.
+   */
+  int firstIndexAbove(int y) {
+    int low = 0;
+    int high = ys.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (ys[mid] <= y) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
@@ -0,0 +1,739 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+
+/**
+ * Stores the elevators in JSON files. Elevators are stored in a fixed
+ * number of shard files, chosen by the hash of the elevator's name, and an
+ * index file listing every elevator with its shard and world.
+ * Together these form a snapshot of the elevators. Changes are not written
+ * to the snapshot right away, instead every changed elevator is appended as
+ * a single line record, prefixed with its CRC-32 checksum, to a journal.
+ * Once the journal grows past a
+ * threshold, it is compacted: the shards which changed since the last
+ * compaction are rewritten and the journal is truncated. Loading reads the
+ * snapshot and replays the journal on top of it.
+ *
+ * <p>The store keeps the serialized form of every elevator in memory.
+ * Changes made in quick succession are coalesced into a single write, which
+ * is done on an asynchronous task. Snapshot files are written into a
+ * temporary file that then replaces them, so they are never left half
+ * written.
+ */
+class JsonElevatorStore implements ElevatorStore {
+  /**
+   * Name of the index file.
+   */
+  static final String INDEX_FILE_NAME = "index.json";
+
+  /**
+   * Elevators file version number.
+   */
+  private static final int VERSION = 3;
+
+  /**
+   * Number of shard files the elevators are stored in.
+   */
+  private static final int SHARD_COUNT = 16;
+
+  /**
+   * Name of the journal file.
+   */
+  private static final String JOURNAL_FILE_NAME = "journal.log";
+
+  /**
+   * Size of the journal in bytes above which it is compacted.
+   */
+  private static final long COMPACTION_THRESHOLD = 1 << 20;
+
+  /**
+   * Number of ticks to wait after a change before writing the files.
+   */
+  private static final long WRITE_DELAY = 20;
+
+  /**
+   * Plugin instance. Used for logging and scheduling the writes.
+   */
+  private final Plugin plugin;
+
+  /**
+   * Directory of the elevators files.
+   */
+  private final File directory;
+
+  /**
+   * Serialized elevators by name, one map per shard. Guarded by this.
+   */
+  private final List<Map<String, String>> shards;
+
+  /**
+   * World UID of every elevator by name, written to the index. Guarded by
+   * this.
+   */
+  private final Map<String, String> worlds = new TreeMap<>();
+
+  /**
+   * Journal records which haven't been appended yet, by elevator name. Only
+   * the last record of an elevator has to be appended, since every record
+   * contains the whole elevator. Guarded by this.
+   */
+  private final Map<String, String> pendingRecords = new LinkedHashMap<>();
+
+  /**
+   * Shards which changed since they were last written. Guarded by this.
+   */
+  private final BitSet dirtyShards = new BitSet();
+
+  /**
+   * Indicates whether the index changed since it was last written. Guarded
+   * by this.
+   */
+  private boolean indexDirty = false;
+
+  /**
+   * Indicates whether the next write has to compact the journal regardless
+   * of its size. Guarded by this.
+   */
+  private boolean compactionRequested = false;
+
+  /**
+   * Size of the journal in bytes. Guarded by the file lock.
+   */
+  private long journalSize = 0;
+
+  /**
+   * Scheduled write task, or null if no write is scheduled. Guarded by
+   * this.
+   */
+  private BukkitTask task = null;
+
+  /**
+   * Held while writing the files, so only one write is in progress at a
+   * time.
+   */
+  private final Object fileLock = new Object();
+
+  /**
+   * Constructor.
+   *
+   * @param plugin Plugin instance.
+   * @param directory Directory of the elevators files.
+   */
+  JsonElevatorStore(@Nonnull Plugin plugin, @Nonnull File directory) {
+    this.plugin = plugin;
+    this.directory = directory;
+    shards = new ArrayList<>(SHARD_COUNT);
+    for (int i = 0; i < SHARD_COUNT; i++) {
+      shards.add(new LinkedHashMap<>());
+    }
+  }
+
+  @Override
+  public boolean exists() {
+    return new File(directory, INDEX_FILE_NAME).exists();
+  }
+
+  /**
+   * {@inheritDoc} The shard files are read and parsed in parallel, and the
+   * journal is replayed on top of them. If the journal had to be replayed
+   * or the number of shards changed, the journal is compacted.
+   */
+  @Nullable
+  @Override
+  public List<ElevatorData> load() {
+    Map<String, ElevatorData> elevators;
+    boolean rewrite;
+    try {
+      int shardCount = readShardCount();
+      if (shardCount < 0) {
+        return null;
+      }
+      elevators = readShards(shardCount);
+      // apply the changes made since the journal was last compacted, and
+      // shard again if the number of shards changed
+      rewrite = replayJournal(elevators) | shardCount != SHARD_COUNT;
+    } catch (IOException | UncheckedIOException e) {
+      plugin.getLogger().severe("Failed to load elevators files."
+          + System.lineSeparator() + e);
+      return null;
+    } catch (JSONException e) {
+      plugin.getLogger().severe("Failed to parse elevators files."
+          + System.lineSeparator() + e);
+      return null;
+    }
+    reset(elevators.values(), rewrite);
+    if (rewrite) {
+      flush();
+    }
+    return new ArrayList<>(elevators.values());
+  }
+
+  /**
+   * {@inheritDoc} The elevators are parsed from the serialized elevators
+   * kept in memory, using the worlds of the index.
+   */
+  @Nullable
+  @Override
+  public synchronized List<ElevatorData> loadByWorld(@Nonnull UUID world) {
+    String worldString = world.toString();
+    List<ElevatorData> result = new ArrayList<>();
+    for (Map.Entry<String, String> elevator : worlds.entrySet()) {
+      if (elevator.getValue().equals(worldString)) {
+        result.add(ElevatorData.fromJson(new JSONObject(
+            shards.get(shardOf(elevator.getKey())).get(elevator.getKey()))));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public boolean replaceAll(@Nonnull Collection<ElevatorData> elevators) {
+    if (!directory.exists() && !directory.mkdirs()) {
+      plugin.getLogger().severe("Failed to create elevators directory.");
+      return false;
+    }
+    reset(elevators, true);
+    return flush();
+  }
+
+  /**
+   * Reads the number of shard files from the index file.
+   *
+   * @return Number of shard files, or -1 if the version of the index file
+   *         is incorrect.
+   * @throws IOException When the index file can't be read.
+   * @throws JSONException When the index file can't be parsed.
+   */
+  private int readShardCount() throws IOException {
+    JSONObject index = new JSONObject(new String(Files.readAllBytes(
+        new File(directory, INDEX_FILE_NAME).toPath()),
+        StandardCharsets.UTF_8));
+    int version = index.getInt("version");
+    if (version != VERSION) {
+      plugin.getLogger().severe("Unable to load elevators files. " +
+          "File version is incorrect. " +
+          "Expected: " + VERSION + " " +
+          "Found: " + version);
+      return -1;
+    }
+    return index.getInt("shards");
+  }
+
+  /**
+   * Reads the shard files in parallel on the common fork-join pool.
+   *
+   * @param shardCount Number of shard files, as stored in the index file.
+   * @return Data of the elevators by name.
+   * @throws UncheckedIOException When a shard file can't be read.
+   * @throws JSONException When a shard file can't be parsed.
+   */
+  @Nonnull
+  private Map<String, ElevatorData> readShards(int shardCount) {
+    List<ForkJoinTask<List<ElevatorData>>> tasks = new ArrayList<>();
+    for (int i = 0; i < shardCount; i++) {
+      File shardFile = shardFile(i);
+      if (shardFile.exists()) {
+        tasks.add(ForkJoinPool.commonPool().submit(() -> {
+          try {
+            return readShard(shardFile);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }));
+      }
+    }
+    Map<String, ElevatorData> elevators = new LinkedHashMap<>();
+    for (ForkJoinTask<List<ElevatorData>> task : tasks) {
+      for (ElevatorData elevator : task.join()) {
+        elevators.put(elevator.name, elevator);
+      }
+    }
+    return elevators;
+  }
+
+  /**
+   * Reads a shard file as a stream. Called from the fork-join pool, so it
+   * must not access the server. Elevators which can't be parsed are
+   * skipped, and the shard file is copied to a backup file before it is
+   * written again without them.
+   *
+   * @param shardFile Shard file.
+   * @return Data of the elevators in the shard.
+   * @throws IOException When the file can't be read or backed up.
+   * @throws JSONException When the structure of the file is broken or its
+   *                       version is incorrect.
+   */
+  @Nonnull
+  private List<ElevatorData> readShard(@Nonnull File shardFile)
+      throws IOException {
+    ElevatorsFileReader reader = new ElevatorsFileReader(shardFile, VERSION,
+        plugin.getLogger());
+    List<ElevatorData> result = reader.read();
+    if (reader.getSkipped() > 0) {
+      File backup = new File(shardFile.getPath() + ".bak");
+      Files.copy(shardFile.toPath(), backup.toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+      plugin.getLogger().warning("Skipped " + reader.getSkipped()
+          + " elevators in " + shardFile.getName() + ". The file was "
+          + "copied to " + backup.getName() + ".");
+    }
+    return result;
+  }
+
+  /**
+   * Gets the shard file an elevator is stored in.
+   *
+   * @param name Name of the elevator.
+   * @return Index of the shard.
+   */
+  private int shardOf(@Nonnull String name) {
+    return Math.floorMod(name.hashCode(), shards.size());
+  }
+
+  /**
+   * Gets the path of a shard file.
+   *
+   * @param shard Index of the shard.
+   * @return Path of the shard file.
+   */
+  @Nonnull
+  private File shardFile(int shard) {
+    return new File(directory, String.format("shard-%02d.json", shard));
+  }
+
+  /**
+   * Replaces the elevators in memory.
+   *
+   * @param elevators Data of the elevators.
+   * @param dirty Whether every file has to be written again, e.g. after
+   *              importing the elevators.
+   */
+  private synchronized void reset(
+      @Nonnull Collection<ElevatorData> elevators, boolean dirty) {
+    shards.forEach(Map::clear);
+    worlds.clear();
+    pendingRecords.clear();
+    for (ElevatorData elevator : elevators) {
+      shards.get(shardOf(elevator.name)).put(elevator.name,
+          elevator.toJson().toString());
+      worlds.put(elevator.name, elevator.world.toString());
+    }
+    dirtyShards.clear();
+    if (dirty) {
+      dirtyShards.set(0, shards.size());
+      compactionRequested = true;
+      changed(true);
+    } else {
+      indexDirty = false;
+    }
+  }
+
+  /**
+   * {@inheritDoc} The elevator is appended to the journal in the
+   * background.
+   */
+  @Override
+  public synchronized void put(@Nonnull ElevatorData elevator) {
+    String name = elevator.name;
+    String world = elevator.world.toString();
+    String json = elevator.toJson().toString();
+    int shard = shardOf(name);
+    shards.get(shard).put(name, json);
+    pendingRecords.put(name, "{\"put\":" + json + "}");
+    dirtyShards.set(shard);
+    changed(!world.equals(worlds.put(name, world)));
+  }
+
+  /**
+   * {@inheritDoc} The removal is appended to the journal in the background.
+   */
+  @Override
+  public synchronized void remove(@Nonnull String name) {
+    int shard = shardOf(name);
+    if (shards.get(shard).remove(name) != null) {
+      worlds.remove(name);
+      JSONObject record = new JSONObject();
+      record.put("delete", name);
+      pendingRecords.put(name, record.toString());
+      dirtyShards.set(shard);
+      changed(true);
+    }
+  }
+
+  /**
+   * {@inheritDoc} The journal is compacted as well.
+   */
+  @Override
+  public boolean flush() {
+    synchronized (this) {
+      if (task != null) {
+        task.cancel();
+        task = null;
+      }
+    }
+    return write(true);
+  }
+
+  /**
+   * Applies the records of the journal to the elevators loaded from the
+   * snapshot. Only records terminated by a line break are complete; an
+   * incomplete last record, left behind when the server crashed while
+   * appending it, is ignored and cut off the journal. A complete record
+   * whose checksum doesn't match or which can't be parsed only loses that
+   * change, the records after it are still replayed. Records without a
+   * checksum, written by older versions, are accepted.
+   *
+   * @param elevators Data of the elevators loaded from the snapshot, by
+   *                  name.
+   * @return True if the journal exists, meaning it has to be compacted.
+   * @throws IOException When the journal can't be read or truncated.
+   */
+  private boolean replayJournal(@Nonnull Map<String, ElevatorData> elevators)
+      throws IOException {
+    File journalFile = new File(directory, JOURNAL_FILE_NAME);
+    if (!journalFile.exists()) {
+      return false;
+    }
+    byte[] content = Files.readAllBytes(journalFile.toPath());
+    int start = 0;
+    while (start < content.length) {
+      int end = start;
+      while (end < content.length && content[end] != '\n') {
+        end++;
+      }
+      if (end == content.length) {
+        plugin.getLogger().warning("Ignoring a torn record at the end of "
+            + "the elevators journal, " + (content.length - start)
+            + " bytes were cut off.");
+        try (RandomAccessFile file = new RandomAccessFile(journalFile,
+            "rw")) {
+          file.setLength(start);
+        }
+        break;
+      }
+      int recordStart = start;
+      start = end + 1;
+      if (content[recordStart] != '{') {
+        // checksum, followed by a space
+        int space = recordStart;
+        while (space < end && content[space] != ' ') {
+          space++;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content, space + 1, Math.max(end - space - 1, 0));
+        if (space == end || !Long.toHexString(crc.getValue()).equals(
+            new String(content, recordStart, space - recordStart,
+                StandardCharsets.UTF_8))) {
+          plugin.getLogger().warning("Skipping a record of the elevators "
+              + "journal, because its checksum doesn't match.");
+          continue;
+        }
+        recordStart = space + 1;
+      }
+      try {
+        JSONObject record = new JSONObject(new String(content, recordStart,
+            end - recordStart, StandardCharsets.UTF_8));
+        if (record.has("put")) {
+          ElevatorData elevator =
+              ElevatorData.fromJson(record.getJSONObject("put"));
+          elevators.put(elevator.name, elevator);
+        } else {
+          elevators.remove(record.getString("delete"));
+        }
+      } catch (JSONException | IllegalArgumentException e) {
+        // a complete but invalid record only loses that change
+        plugin.getLogger().warning("Skipping a record of the elevators "
+            + "journal, because it can't be parsed: " + e.getMessage());
+      }
+    }
+    synchronized (fileLock) {
+      journalSize = journalFile.length();
+    }
+    return true;
+  }
+
+  /**
+   * Schedules a write if none is scheduled yet.
+   *
+   * @param indexChanged Whether the index changed.
+   */
+  private void changed(boolean indexChanged) {
+    indexDirty |= indexChanged;
+    if (task == null) {
+      task = plugin.getServer().getScheduler()
+          .runTaskLaterAsynchronously(plugin, () -> write(false),
+              WRITE_DELAY);
+    }
+  }
+
+  /**
+   * Appends the pending records to the journal, and compacts the journal
+   * if it grew past the compaction threshold or a compaction was requested.
+   * The pending records are appended even when compacting, so if the
+   * server crashes before the journal is truncated, replaying the journal
+   * on top of the new snapshot still yields the newest elevators. The index
+   * is written after the shards, so it never lists an elevator whose shard
+   * hasn't been written yet. Changes which fail to be written are written
+   * again with the next change or flush.
+   *
+   * @param compact Whether to compact the journal regardless of its size.
+   * @return True if every change was written, false otherwise.
+   */
+  private boolean write(boolean compact) {
+    synchronized (fileLock) {
+      Map<String, String> records;
+      Map<Integer, String> shardContents = new TreeMap<>();
+      String indexContent = null;
+      synchronized (this) {
+        task = null;
+        records = new LinkedHashMap<>(pendingRecords);
+        pendingRecords.clear();
+        compact |= compactionRequested
+            || journalSize >= COMPACTION_THRESHOLD;
+        if (compact) {
+          compactionRequested = false;
+          for (int i = dirtyShards.nextSetBit(0); i >= 0;
+               i = dirtyShards.nextSetBit(i + 1)) {
+            shardContents.put(i, serializeShard(i));
+          }
+          dirtyShards.clear();
+          if (indexDirty) {
+            indexContent = serializeIndex();
+            indexDirty = false;
+          }
+        }
+      }
+      if (!records.isEmpty()) {
+        try {
+          appendJournal(records.values());
+        } catch (IOException e) {
+          plugin.getLogger().severe("Failed to append to elevators journal."
+              + System.lineSeparator() + e);
+          synchronized (this) {
+            // records added in the meantime are newer
+            records.forEach(pendingRecords::putIfAbsent);
+            if (compact) {
+              shardContents.keySet().forEach(dirtyShards::set);
+              indexDirty |= indexContent != null;
+              compactionRequested = true;
+            }
+          }
+          return false;
+        }
+      }
+      return !compact || compact(shardContents, indexContent);
+    }
+  }
+
+  /**
+   * Writes the changed shards and the index, then truncates the journal.
+   * Must be called while holding the file lock.
+   *
+   * @param shardContents Content of the changed shard files by shard index.
+   * @param indexContent Content of the index file, or null if it didn't
+   *                     change.
+   * @return True if the journal was compacted, false otherwise.
+   */
+  private boolean compact(@Nonnull Map<Integer, String> shardContents,
+                          @Nullable String indexContent) {
+    boolean failed = false;
+    for (Map.Entry<Integer, String> shard : shardContents.entrySet()) {
+      try {
+        writeFile(shardFile(shard.getKey()), shard.getValue());
+      } catch (IOException e) {
+        plugin.getLogger().severe("Failed to write to elevators file "
+            + shardFile(shard.getKey()) + "." + System.lineSeparator() + e);
+        synchronized (this) {
+          dirtyShards.set(shard.getKey());
+        }
+        failed = true;
+      }
+    }
+    if (indexContent != null) {
+      if (!failed) {
+        try {
+          writeFile(new File(directory, INDEX_FILE_NAME), indexContent);
+        } catch (IOException e) {
+          plugin.getLogger().severe("Failed to write to elevators index "
+              + "file." + System.lineSeparator() + e);
+          failed = true;
+        }
+      }
+      if (failed) {
+        synchronized (this) {
+          indexDirty = true;
+        }
+      }
+    }
+    if (!failed) {
+      try {
+        Files.deleteIfExists(new File(directory, JOURNAL_FILE_NAME)
+            .toPath());
+        journalSize = 0;
+      } catch (IOException e) {
+        plugin.getLogger().severe("Failed to truncate elevators journal."
+            + System.lineSeparator() + e);
+        failed = true;
+      }
+    }
+    if (failed) {
+      synchronized (this) {
+        compactionRequested = true;
+      }
+    }
+    return !failed;
+  }
+
+  /**
+   * Appends records to the journal, each prefixed with the CRC-32 checksum
+   * of its bytes. If appending fails, the journal is cut back to its
+   * previous size, so no partial record is left before the records
+   * appended later. Must be called while holding the file lock.
+   *
+   * @param records Records to append.
+   * @throws IOException When appending fails.
+   */
+  private void appendJournal(@Nonnull Collection<String> records)
+      throws IOException {
+    File journalFile = new File(directory, JOURNAL_FILE_NAME);
+    try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      CRC32 crc = new CRC32();
+      for (String record : records) {
+        byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+        buffer.write(Long.toHexString(crc.getValue())
+            .getBytes(StandardCharsets.UTF_8));
+        buffer.write(' ');
+        buffer.write(bytes);
+        buffer.write('\n');
+      }
+      buffer.writeTo(out);
+      out.getFD().sync();
+    } catch (IOException e) {
+      try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+        file.setLength(journalSize);
+      } catch (IOException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw e;
+    }
+    journalSize = journalFile.length();
+  }
+
+  /**
+   * Builds the content of a shard file. Must be called while holding the
+   * lock of this object.
+   *
+   * @param shard Index of the shard.
+   * @return Content of the shard file.
+   */
+  @Nonnull
+  private String serializeShard(int shard) {
+    StringBuilder builder = new StringBuilder();
+    builder.append("{\"version\":").append(VERSION)
+        .append(",\"elevators\":[");
+    boolean first = true;
+    for (String json : shards.get(shard).values()) {
+      if (!first) {
+        builder.append(',');
+      }
+      builder.append(json);
+      first = false;
+    }
+    return builder.append("]}").toString();
+  }
+
+  /**
+   * Builds the content of the index file. Must be called while holding the
+   * lock of this object.
+   *
+   * @return Content of the index file.
+   */
+  @Nonnull
+  private String serializeIndex() {
+    JSONObject index = new JSONObject();
+    index.put("version", VERSION);
+    index.put("shards", shards.size());
+    JSONArray elevators = new JSONArray();
+    for (Map.Entry<String, String> elevator : worlds.entrySet()) {
+      JSONObject entry = new JSONObject();
+      entry.put("name", elevator.getKey());
+      entry.put("shard", shardOf(elevator.getKey()));
+      entry.put("world", elevator.getValue());
+      elevators.put(entry);
+    }
+    index.put("elevators", elevators);
+    return index.toString();
+  }
+
+  /**
+   * Writes content to a temporary file and moves it in place of a file.
+   *
+   * @param file File to write.
+   * @param content Content of the file.
+   * @throws IOException When writing or moving the file fails.
+   */
+  static void writeFile(@Nonnull File file, @Nonnull String content)
+      throws IOException {
+    File tempFile = new File(file.getPath() + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(tempFile);
+         Writer writer = new OutputStreamWriter(out,
+             StandardCharsets.UTF_8)) {
+      writer.write(content);
+      writer.flush();
+      out.getFD().sync();
+    }
+    try {
+      Files.move(tempFile.toPath(), file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tempFile.toPath(), file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Spatial index of elevator regions. Every elevator is registered in each
+ * chunk its cuboid region overlaps, so the elevators affected by a block
+ * can be found without iterating over all elevators.
+ */
+class RegionIndex {
+  /**
+   * Elevators by world UID and chunk key.
+   *
+   * @see #chunkKey(int, int)
+   */
+  private final Map<UUID, Map<Long, List<Elevator>>> chunks = new HashMap<>();
+
+  /**
+   * Region each elevator is currently registered with. Used to remove an
+   * elevator from the index after its location has changed.
+   */
+  private final Map<Elevator, Region> regions = new HashMap<>();
+
+  /**
+   * Adds an elevator to the index. If the elevator is already in the index,
+   * its old region is replaced.
+   *
+   * @param elevator Elevator to add.
+   */
+  void put(@Nonnull Elevator elevator) {
+    remove(elevator);
+    Location loc1 = elevator.getLoc1();
+    Location loc2 = elevator.getLoc2();
+    World world = loc1.getWorld();
+    if (world == null) {
+      return;
+    }
+    Region region = new Region(world.getUID(),
+        Math.min(loc1.getBlockX(), loc2.getBlockX()) >> 4,
+        Math.min(loc1.getBlockZ(), loc2.getBlockZ()) >> 4,
+        Math.max(loc1.getBlockX(), loc2.getBlockX()) >> 4,
+        Math.max(loc1.getBlockZ(), loc2.getBlockZ()) >> 4);
+    Map<Long, List<Elevator>> worldChunks =
+        chunks.computeIfAbsent(region.world, k -> new HashMap<>());
+    for (int cx = region.minChunkX; cx <= region.maxChunkX; cx++) {
+      for (int cz = region.minChunkZ; cz <= region.maxChunkZ; cz++) {
+        worldChunks.computeIfAbsent(chunkKey(cx, cz), k -> new ArrayList<>(1))
+            .add(elevator);
+      }
+    }
+    regions.put(elevator, region);
+  }
+
+  /**
+   * Removes an elevator from the index.
+   *
+   * @param elevator Elevator to remove.
+   */
+  void remove(@Nonnull Elevator elevator) {
+    Region region = regions.remove(elevator);
+    if (region == null) {
+      return;
+    }
+    Map<Long, List<Elevator>> worldChunks = chunks.get(region.world);
+    for (int cx = region.minChunkX; cx <= region.maxChunkX; cx++) {
+      for (int cz = region.minChunkZ; cz <= region.maxChunkZ; cz++) {
+        long key = chunkKey(cx, cz);
+        List<Elevator> list = worldChunks.get(key);
+        list.remove(elevator);
+        if (list.isEmpty()) {
+          worldChunks.remove(key);
+        }
+      }
+    }
+    if (worldChunks.isEmpty()) {
+      chunks.remove(region.world);
+    }
+  }
+
+  /**
+   * Gets the elevators whose region overlaps a chunk.
+   *
+   * @param world UID of the world of the chunk.
+   * @param chunkX X coordinate of the chunk.
+   * @param chunkZ Z coordinate of the chunk.
+   * @return Elevators overlapping the chunk. The returned list must not be
+   *         modified.
+   */
+  @Nonnull
+  List<Elevator> get(@Nonnull UUID world, int chunkX, int chunkZ) {
+    Map<Long, List<Elevator>> worldChunks = chunks.get(world);
+    if (worldChunks == null) {
+      return Collections.emptyList();
+    }
+    List<Elevator> list = worldChunks.get(chunkKey(chunkX, chunkZ));
+    return list == null ? Collections.emptyList() : list;
+  }
+
+  /**
+   * Gets an elevator whose region contains a block.
+   *
+   * @param world UID of the world of the block.
+   * @param x X coordinate of the block.
+   * @param y Y coordinate of the block.
+   * @param z Z coordinate of the block.
+   * @return Elevator containing the block, or null if there is none.
+   */
+  @Nullable
+  Elevator getAt(@Nonnull UUID world, int x, int y, int z) {
+    for (Elevator elevator : get(world, x >> 4, z >> 4)) {
+      if (elevator.regionContains(x, y, z)) {
+        return elevator;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets the elevator whose region is the closest to a block. Chunks are
+   * searched in rings around the block's chunk, and the search stops as
+   * soon as no further ring can contain a closer elevator.
+   *
+   * @param world UID of the world of the block.
+   * @param x X coordinate of the block.
+   * @param y Y coordinate of the block.
+   * @param z Z coordinate of the block.
+   * @param maxDistance Maximum distance of the elevator's region from the
+   *                    block.
+   * @return Closest elevator, or null if there is no elevator within the
+   *         maximum distance.
+   */
+  @Nullable
+  Elevator getNearest(@Nonnull UUID world, int x, int y, int z,
+                      int maxDistance) {
+    Map<Long, List<Elevator>> worldChunks = chunks.get(world);
+    if (worldChunks == null) {
+      return null;
+    }
+    int centerX = x >> 4;
+    int centerZ = z >> 4;
+    int maxRing = (maxDistance >> 4) + 1;
+    long maxDistanceSquared = (long) maxDistance * maxDistance;
+    Elevator nearest = null;
+    long nearestDistance = Long.MAX_VALUE;
+    for (int ring = 0; ring <= maxRing; ring++) {
+      for (int cx = centerX - ring; cx <= centerX + ring; cx++) {
+        // only the border of the square is part of the ring
+        int step = cx == centerX - ring || cx == centerX + ring ? 1 :
+            Math.max(1, 2 * ring);
+        for (int cz = centerZ - ring; cz <= centerZ + ring; cz += step) {
+          List<Elevator> list = worldChunks.get(chunkKey(cx, cz));
+          if (list == null) {
+            continue;
+          }
+          for (Elevator elevator : list) {
+            long distance = elevator.regionDistanceSquared(x, y, z);
+            if (distance < nearestDistance) {
+              nearest = elevator;
+              nearestDistance = distance;
+            }
+          }
+        }
+      }
+      // every block in the next ring is at least ring * 16 blocks away
+      long ringDistance = (long) ring * 16;
+      if (nearestDistance <= ringDistance * ringDistance) {
+        break;
+      }
+    }
+    return nearestDistance <= maxDistanceSquared ? nearest : null;
+  }
+
+  /**
+   * Removes all elevators from the index.
+   */
+  void clear() {
+    chunks.clear();
+    regions.clear();
+  }
+
+  /**
+   * Packs chunk coordinates into a single long.
+   *
+   * @param chunkX X coordinate of the chunk.
+   * @param chunkZ Z coordinate of the chunk.
+   * @return Chunk key.
+   */
+  private static long chunkKey(int chunkX, int chunkZ) {
+    return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Chunk range an elevator is registered in.
+   */
+  private static class Region {
+    /**
+     * UID of the world of the region.
+     */
+    private final UUID world;
+
+    /**
+     * Chunk coordinates of the region, inclusive.
+     */
+    private final int minChunkX, minChunkZ, maxChunkX, maxChunkZ;
+
+    /**
+     * Constructor.
+     *
+     * @param world UID of the world of the region.
+     * @param minChunkX Lowest chunk X coordinate.
+     * @param minChunkZ Lowest chunk Z coordinate.
+     * @param maxChunkX Highest chunk X coordinate.
+     * @param maxChunkZ Highest chunk Z coordinate.
+     */
+    private Region(@Nonnull UUID world, int minChunkX, int minChunkZ,
+                   int maxChunkX, int maxChunkZ) {
+      this.world = world;
+      this.minChunkX = minChunkX;
+      this.minChunkZ = minChunkZ;
+      this.maxChunkX = maxChunkX;
+      this.maxChunkZ = maxChunkZ;
+    }
+  }
+}
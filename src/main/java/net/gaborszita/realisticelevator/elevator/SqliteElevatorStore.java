@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * Stores the elevators in an SQLite database file, using the SQLite JDBC
+ * driver bundled with the server. Every elevator is a row keyed by its name,
+ * holding its world and its data in the JSON format of the elevators files.
+ * The world column is indexed, so the elevators of a world can be loaded
+ * without reading every elevator.
+ *
+ * <p>Changes are kept in memory and written in a single transaction on an
+ * asynchronous task, so changes made in quick succession are coalesced.
+ * Changes which fail to be written are written again with the next change
+ * or flush.
+ */
+class SqliteElevatorStore implements ElevatorStore {
+  /**
+   * Version of the database schema, stored as the user version of the
+   * database.
+   */
+  private static final int VERSION = 1;
+
+  /**
+   * Number of ticks to wait after a change before writing it.
+   */
+  private static final long WRITE_DELAY = 20;
+
+  /**
+   * Plugin instance. Used for logging and scheduling.
+   */
+  private final Plugin plugin;
+
+  /**
+   * Path of the database file.
+   */
+  private final File file;
+
+  /**
+   * Connection to the database, or null if it isn't open. Guarded by
+   * {@link #fileLock}.
+   */
+  private Connection connection = null;
+
+  /**
+   * Changes which weren't written yet, by elevator name. A null value means
+   * the elevator was removed. Guarded by this.
+   */
+  private final Map<String, ElevatorData> pending = new LinkedHashMap<>();
+
+  /**
+   * Scheduled write task, or null if none is scheduled. Guarded by this.
+   */
+  private BukkitTask task = null;
+
+  /**
+   * Lock held while accessing the database, so that the changes are
+   * written in order.
+   */
+  private final Object fileLock = new Object();
+
+  /**
+   * Constructor.
+   *
+   * @param plugin Plugin instance.
+   * @param file Path of the database file.
+   */
+  SqliteElevatorStore(@Nonnull Plugin plugin, @Nonnull File file) {
+    this.plugin = plugin;
+    this.file = file;
+  }
+
+  @Override
+  public boolean exists() {
+    return file.exists();
+  }
+
+  @Nullable
+  @Override
+  public List<ElevatorData> load() {
+    synchronized (fileLock) {
+      try (Statement statement = connection().createStatement();
+           ResultSet rows = statement.executeQuery(
+               "SELECT name, data FROM elevators")) {
+        return readRows(rows);
+      } catch (SQLException e) {
+        plugin.getLogger().severe("Failed to load elevators database."
+            + System.lineSeparator() + e);
+        return null;
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc} Only the rows of the world are read, using the index on
+   * the world column, and the pending changes are applied on top of them,
+   * so nothing is written to the database on the calling thread.
+   */
+  @Nullable
+  @Override
+  public List<ElevatorData> loadByWorld(@Nonnull UUID world) {
+    synchronized (fileLock) {
+      Map<String, ElevatorData> result = new LinkedHashMap<>();
+      try (PreparedStatement statement = connection().prepareStatement(
+          "SELECT name, data FROM elevators WHERE world = ?")) {
+        statement.setString(1, world.toString());
+        try (ResultSet rows = statement.executeQuery()) {
+          for (ElevatorData elevator : readRows(rows)) {
+            result.put(elevator.name, elevator);
+          }
+        }
+      } catch (SQLException e) {
+        plugin.getLogger().severe("Failed to load elevators of world "
+            + world + " from elevators database."
+            + System.lineSeparator() + e);
+        return null;
+      }
+      // no write is running while the file lock is held, so every change
+      // which isn't in the database yet is pending
+      synchronized (this) {
+        for (Map.Entry<String, ElevatorData> change : pending.entrySet()) {
+          ElevatorData elevator = change.getValue();
+          if (elevator != null && elevator.world.equals(world)) {
+            result.put(change.getKey(), elevator);
+          } else {
+            result.remove(change.getKey());
+          }
+        }
+      }
+      return new ArrayList<>(result.values());
+    }
+  }
+
+  @Override
+  public boolean replaceAll(@Nonnull Collection<ElevatorData> elevators) {
+    synchronized (fileLock) {
+      synchronized (this) {
+        if (task != null) {
+          task.cancel();
+          task = null;
+        }
+        pending.clear();
+      }
+      try {
+        Connection connection = connection();
+        try (Statement statement = connection.createStatement()) {
+          statement.executeUpdate("DELETE FROM elevators");
+        }
+        Map<String, ElevatorData> rows = new LinkedHashMap<>();
+        for (ElevatorData elevator : elevators) {
+          rows.put(elevator.name, elevator);
+        }
+        writeRows(connection, rows);
+        connection.commit();
+        return true;
+      } catch (SQLException e) {
+        plugin.getLogger().severe("Failed to write elevators database."
+            + System.lineSeparator() + e);
+        rollback();
+        return false;
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc} The elevator is written in the background.
+   */
+  @Override
+  public synchronized void put(@Nonnull ElevatorData elevator) {
+    pending.put(elevator.name, elevator);
+    changed();
+  }
+
+  /**
+   * {@inheritDoc} The removal is written in the background.
+   */
+  @Override
+  public synchronized void remove(@Nonnull String name) {
+    pending.put(name, null);
+    changed();
+  }
+
+  @Override
+  public boolean flush() {
+    synchronized (this) {
+      if (task != null) {
+        task.cancel();
+        task = null;
+      }
+    }
+    return write();
+  }
+
+  /**
+   * {@inheritDoc} The connection to the database is closed.
+   */
+  @Override
+  public void close() {
+    synchronized (fileLock) {
+      if (connection != null) {
+        try {
+          connection.close();
+        } catch (SQLException e) {
+          plugin.getLogger().warning("Failed to close elevators database."
+              + System.lineSeparator() + e);
+        }
+        connection = null;
+      }
+    }
+  }
+
+  /**
+   * Schedules a write if none is scheduled yet.
+   */
+  private synchronized void changed() {
+    if (task == null) {
+      task = plugin.getServer().getScheduler()
+          .runTaskLaterAsynchronously(plugin, this::write, WRITE_DELAY);
+    }
+  }
+
+  /**
+   * Writes the pending changes in a single transaction.
+   *
+   * @return True if every change was written, false otherwise.
+   */
+  private boolean write() {
+    synchronized (fileLock) {
+      Map<String, ElevatorData> changes;
+      synchronized (this) {
+        task = null;
+        changes = new LinkedHashMap<>(pending);
+        pending.clear();
+      }
+      if (changes.isEmpty()) {
+        return true;
+      }
+      try {
+        Connection connection = connection();
+        writeRows(connection, changes);
+        connection.commit();
+        return true;
+      } catch (SQLException e) {
+        plugin.getLogger().severe("Failed to write elevators database."
+            + System.lineSeparator() + e);
+        rollback();
+        synchronized (this) {
+          // changes made in the meantime are newer
+          changes.forEach(pending::putIfAbsent);
+        }
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Inserts, replaces and deletes rows. Must be called while holding the
+   * file lock.
+   *
+   * @param connection Connection to the database.
+   * @param rows Data of the elevators by name, null to delete the row.
+   * @throws SQLException When the rows can't be written.
+   */
+  private static void writeRows(@Nonnull Connection connection,
+                                @Nonnull Map<String, ElevatorData> rows)
+      throws SQLException {
+    try (PreparedStatement upsert = connection.prepareStatement(
+        "INSERT OR REPLACE INTO elevators (name, world, data) "
+            + "VALUES (?, ?, ?)");
+         PreparedStatement delete = connection.prepareStatement(
+             "DELETE FROM elevators WHERE name = ?")) {
+      for (Map.Entry<String, ElevatorData> row : rows.entrySet()) {
+        ElevatorData elevator = row.getValue();
+        if (elevator == null) {
+          delete.setString(1, row.getKey());
+          delete.addBatch();
+        } else {
+          upsert.setString(1, elevator.name);
+          upsert.setString(2, elevator.world.toString());
+          upsert.setString(3, elevator.toJson().toString());
+          upsert.addBatch();
+        }
+      }
+      upsert.executeBatch();
+      delete.executeBatch();
+    }
+  }
+
+  /**
+   * Parses the elevators of a query. Rows which can't be parsed are
+   * skipped.
+   *
+   * @param rows Result of the query, with the name and data columns.
+   * @return Data of the elevators.
+   * @throws SQLException When the rows can't be read.
+   */
+  @Nonnull
+  private List<ElevatorData> readRows(@Nonnull ResultSet rows)
+      throws SQLException {
+    List<ElevatorData> result = new ArrayList<>();
+    while (rows.next()) {
+      try {
+        result.add(ElevatorData.fromJson(new JSONObject(rows.getString(2))));
+      } catch (JSONException | IllegalArgumentException e) {
+        plugin.getLogger().warning("Skipping elevator " + rows.getString(1)
+            + " in elevators database, because it can't be parsed: "
+            + e.getMessage());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Gets the connection to the database, opening it and creating the
+   * schema if needed. Must be called while holding the file lock.
+   *
+   * @return Connection to the database.
+   * @throws SQLException When the database can't be opened or its version
+   *                      is incorrect.
+   */
+  @Nonnull
+  private Connection connection() throws SQLException {
+    if (connection != null) {
+      return connection;
+    }
+    File directory = file.getParentFile();
+    if (directory != null && !directory.exists() && !directory.mkdirs()) {
+      throw new SQLException("Failed to create directory " + directory);
+    }
+    Connection newConnection = DriverManager.getConnection("jdbc:sqlite:"
+        + file.getPath());
+    try (Statement statement = newConnection.createStatement()) {
+      statement.execute("PRAGMA journal_mode=WAL");
+      int version;
+      try (ResultSet result = statement.executeQuery(
+          "PRAGMA user_version")) {
+        version = result.next() ? result.getInt(1) : 0;
+      }
+      if (version == 0) {
+        statement.executeUpdate("CREATE TABLE IF NOT EXISTS elevators ("
+            + "name TEXT PRIMARY KEY, world TEXT NOT NULL, "
+            + "data TEXT NOT NULL)");
+        statement.executeUpdate("CREATE INDEX IF NOT EXISTS "
+            + "elevators_world ON elevators (world)");
+        statement.executeUpdate("PRAGMA user_version = " + VERSION);
+      } else if (version != VERSION) {
+        throw new SQLException("Database version is incorrect. Expected: "
+            + VERSION + " Found: " + version);
+      }
+      newConnection.setAutoCommit(false);
+    } catch (SQLException e) {
+      newConnection.close();
+      throw e;
+    }
+    connection = newConnection;
+    return connection;
+  }
+
+  /**
+   * Rolls back the current transaction after a failed write. Must be
+   * called while holding the file lock.
+   */
+  private void rollback() {
+    if (connection != null) {
+      try {
+        connection.rollback();
+      } catch (SQLException e) {
+        plugin.getLogger().warning("Failed to roll back elevators database."
+            + System.lineSeparator() + e);
+      }
+    }
+  }
+}
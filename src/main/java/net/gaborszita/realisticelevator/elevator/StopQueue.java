@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import javax.annotation.Nonnull;
+import java.util.BitSet;
+
+/**
+ * Queued stops of an elevator, bitsets over the indices of a
+ * {@link FloorIndex}. As the floors are indexed in the order of their Y
+ * coordinate, finding the closest stop above or below the car is a binary
+ * search followed by a bitset scan, without allocating. A queue is created
+ * for a fixed set of floors; when the floors change, a new queue is created
+ * with {@link #withFloors(FloorIndex)}.
+ *
+ * <p>Stops are either undirected, e.g. requested from inside the car, or
+ * hall calls in a direction. A car passing a floor only stops for a hall
+ * call in its own direction, or for a hall call in the other direction if
+ * it has no requests beyond the floor, i.e. at the end of its sweep.
+ */
+final class StopQueue {
+  /**
+   * Index of the floors the stops are queued at.
+   */
+  private final FloorIndex floors;
+
+  /**
+   * Undirected stops, by floor index.
+   */
+  private final BitSet stops = new BitSet();
+
+  /**
+   * Hall calls going up, by floor index.
+   */
+  private final BitSet upCalls = new BitSet();
+
+  /**
+   * Hall calls going down, by floor index.
+   */
+  private final BitSet downCalls = new BitSet();
+
+  /**
+   * Floors with any stop or hall call, by floor index. The union of the
+   * other bitsets, kept to answer queries in a single scan.
+   */
+  private final BitSet requests = new BitSet();
+
+  /**
+   * Constructor. Creates an empty queue.
+   *
+   * @param floors Index of the floors.
+   */
+  StopQueue(@Nonnull FloorIndex floors) {
+    this.floors = floors;
+  }
+
+  /**
+   * Creates a queue for a new set of floors, keeping the stops and hall
+   * calls of the floors which still exist.
+   *
+   * @param floors Index of the new floors.
+   * @return The new queue.
+   */
+  @Nonnull
+  StopQueue withFloors(@Nonnull FloorIndex floors) {
+    StopQueue queue = new StopQueue(floors);
+    for (int i = requests.nextSetBit(0); i >= 0;
+         i = requests.nextSetBit(i + 1)) {
+      int floor = this.floors.floorNumber(i);
+      if (stops.get(i)) {
+        queue.add(floor, (byte) 0);
+      }
+      if (upCalls.get(i)) {
+        queue.add(floor, (byte) 1);
+      }
+      if (downCalls.get(i)) {
+        queue.add(floor, (byte) -1);
+      }
+    }
+    return queue;
+  }
+
+  /**
+   * Queues an undirected stop.
+   *
+   * @param floor Floor number.
+   * @return True if the floor exists, false otherwise.
+   */
+  boolean add(int floor) {
+    return add(floor, (byte) 0);
+  }
+
+  /**
+   * Queues a stop or a hall call.
+   *
+   * @param floor Floor number.
+   * @param direction Direction of the hall call, 1 for up, -1 for down, 0
+   *                  for an undirected stop.
+   * @return True if the floor exists, false otherwise.
+   */
+  boolean add(int floor, byte direction) {
+    int index = floors.indexOf(floor);
+    if (index < 0) {
+      return false;
+    }
+    (direction > 0 ? upCalls : direction < 0 ? downCalls : stops)
+        .set(index);
+    requests.set(index);
+    return true;
+  }
+
+  /**
+   * Removes the stop and hall calls of a floor.
+   *
+   * @param floor Floor number.
+   */
+  void remove(int floor) {
+    int index = floors.indexOf(floor);
+    if (index >= 0) {
+      clear(index);
+    }
+  }
+
+  /**
+   * Checks if a stop or hall call is queued at a floor.
+   *
+   * @param floor Floor number.
+   * @return True if a stop or hall call is queued, false otherwise.
+   */
+  boolean contains(int floor) {
+    int index = floors.indexOf(floor);
+    return index >= 0 && requests.get(index);
+  }
+
+  /**
+   * Checks if a car moving in a direction stops at a floor: if there is an
+   * undirected stop or a hall call in its direction at the floor, or a hall
+   * call in the other direction at the end of its sweep.
+   *
+   * @param index Floor index.
+   * @param direction Direction of the car, 1 for up, -1 for down.
+   * @return True if the car stops at the floor, false otherwise.
+   */
+  boolean stopsAt(int index, byte direction) {
+    if (stops.get(index) || (direction > 0 ? upCalls : downCalls)
+        .get(index)) {
+      return true;
+    }
+    return (direction > 0 ? downCalls : upCalls).get(index)
+        && !hasRequestBeyond(index, direction);
+  }
+
+  /**
+   * Serves the requests at a floor where a car moving in a direction
+   * stopped. The undirected stop and the hall call in the car's direction
+   * are removed. If the car has no requests beyond the floor, it turns
+   * around, so the hall call in the other direction is removed too.
+   *
+   * @param index Floor index.
+   * @param direction Direction of the car, 1 for up, -1 for down.
+   */
+  void serve(int index, byte direction) {
+    if (hasRequestBeyond(index, direction)) {
+      stops.clear(index);
+      (direction > 0 ? upCalls : downCalls).clear(index);
+      requests.clear(index);
+      if (upCalls.get(index) || downCalls.get(index)) {
+        requests.set(index);
+      }
+    } else {
+      clear(index);
+    }
+  }
+
+  /**
+   * Gets the index of the next floor a car moving in a direction stops at.
+   * Hall calls in the other direction are only stopped at at the end of
+   * the sweep, so the farthest one is returned if there is no other stop.
+   *
+   * @param y Y coordinate of the car.
+   * @param direction Direction of the car, 1 for up, -1 for down.
+   * @return Floor index of the stop, or -1 if there are no requests in the
+   *         direction.
+   */
+  int nextStop(int y, byte direction) {
+    if (direction > 0) {
+      for (int i = nextAbove(y); i >= 0; i = requests.nextSetBit(i + 1)) {
+        if (stopsAt(i, direction)) {
+          return i;
+        }
+      }
+    } else {
+      for (int i = nextBelow(y); i >= 0; i = requests.previousSetBit(i - 1)) {
+        if (stopsAt(i, direction)) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Checks if there are no queued stops or hall calls.
+   *
+   * @return True if there are no requests, false otherwise.
+   */
+  boolean isEmpty() {
+    return requests.isEmpty();
+  }
+
+  /**
+   * Gets the number of floors with a queued stop or hall call.
+   *
+   * @return Number of floors with requests.
+   */
+  int size() {
+    return requests.cardinality();
+  }
+
+  /**
+   * Gets the number of floors with a queued stop or hall call strictly
+   * between two Y coordinates.
+   *
+   * @param lowY Lower Y coordinate.
+   * @param highY Higher Y coordinate.
+   * @return Number of floors with requests between the Y coordinates.
+   */
+  int countBetween(int lowY, int highY) {
+    int end = floors.firstIndexAbove(highY - 1);
+    int count = 0;
+    for (int i = requests.nextSetBit(floors.firstIndexAbove(lowY)); i >= 0
+        && i < end; i = requests.nextSetBit(i + 1)) {
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Gets the index of the lowest floor with a queued stop or hall call.
+   *
+   * @return Floor index, or -1 if there are no requests.
+   */
+  int lowest() {
+    return requests.nextSetBit(0);
+  }
+
+  /**
+   * Gets the index of the highest floor with a queued stop or hall call.
+   *
+   * @return Floor index, or -1 if there are no requests.
+   */
+  int highest() {
+    return requests.length() - 1;
+  }
+
+  /**
+   * Removes all queued stops and hall calls.
+   */
+  void clear() {
+    stops.clear();
+    upCalls.clear();
+    downCalls.clear();
+    requests.clear();
+  }
+
+  /**
+   * Gets the floor numbers of the undirected stops, sorted by Y
+   * coordinate.
+   *
+   * @return Floor numbers of the stops.
+   */
+  @Nonnull
+  int[] toArray() {
+    return toArray(stops);
+  }
+
+  /**
+   * Gets the floor numbers of the hall calls in a direction, sorted by Y
+   * coordinate.
+   *
+   * @param direction Direction of the hall calls, 1 for up, -1 for down.
+   * @return Floor numbers of the hall calls.
+   */
+  @Nonnull
+  int[] callsToArray(byte direction) {
+    return toArray(direction > 0 ? upCalls : downCalls);
+  }
+
+  /**
+   * Gets the index of the closest floor with a queued stop or hall call
+   * above a Y coordinate.
+   *
+   * @param y The Y coordinate.
+   * @return Floor index, or -1 if there is no request above.
+   */
+  int nextAbove(int y) {
+    return requests.nextSetBit(floors.firstIndexAbove(y));
+  }
+
+  /**
+   * Gets the index of the closest floor with a queued stop or hall call
+   * below a Y coordinate.
+   *
+   * @param y The Y coordinate.
+   * @return Floor index, or -1 if there is no request below.
+   */
+  int nextBelow(int y) {
+    return requests.previousSetBit(floors.firstIndexAbove(y - 1) - 1);
+  }
+
+  /**
+   * Checks if there are requests beyond a floor in a direction.
+   *
+   * @param index Floor index.
+   * @param direction The direction, 1 for up, -1 for down.
+   * @return True if there are requests beyond the floor, false otherwise.
+   */
+  private boolean hasRequestBeyond(int index, byte direction) {
+    int y = floors.y(index);
+    return (direction > 0 ? nextAbove(y) : nextBelow(y)) >= 0;
+  }
+
+  /**
+   * Removes the stop and hall calls of a floor.
+   *
+   * @param index Floor index.
+   */
+  private void clear(int index) {
+    stops.clear(index);
+    upCalls.clear(index);
+    downCalls.clear(index);
+    requests.clear(index);
+  }
+
+  /**
+   * Gets the floor numbers of the set bits of a bitset.
+   *
+   * @param bits The bitset.
+   * @return Floor numbers, sorted by Y coordinate.
+   */
+  @Nonnull
+  private int[] toArray(@Nonnull BitSet bits) {
+    int[] result = new int[bits.cardinality()];
+    int n = 0;
+    for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+      result[n++] = floors.floorNumber(i);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link BinaryElevatorStore}.
+ */
+public class BinaryElevatorStoreTest {
+  /**
+   * Size of the file header in bytes.
+   */
+  private static final int HEADER_SIZE = 32;
+
+  /**
+   * Size of a record in bytes.
+   */
+  private static final int RECORD_SIZE = 80;
+
+  /**
+   * Creates the data of a synthetic elevator.
+   *
+   * @param name Name of the elevator.
+   * @param floors Number of floors.
+   * @param doors Number of doors of the elevator and of every floor.
+   * @param blocks Number of blocks of the car, 0 for no car geometry.
+   * @param variant Changes the coordinates, modes and call buttons.
+   * @return Data of the elevator.
+   */
+  static ElevatorData elevator(String name, int floors, int doors,
+                               int blocks, int variant) {
+    List<ElevatorData.FloorData> floorsData = new ArrayList<>();
+    for (int floor = 0; floor < floors; floor++) {
+      List<int[]> floorDoors = new ArrayList<>();
+      for (int door = 0; door < doors; door++) {
+        floorDoors.add(new int[]{door + variant, floor * 4, -door});
+      }
+      floorsData.add(new ElevatorData.FloorData(floor,
+          new int[]{1, floor * 4, 2}, floorDoors,
+          (floor + variant) % 2 == 0 ? new int[]{3, floor * 4, 3} : null,
+          floor % 3 == 0 ? new int[]{4, floor * 4, 4} : null,
+          floor % 3 == 1 ? new int[]{5, floor * 4, 5} : null));
+    }
+    List<int[]> elevatorDoors = new ArrayList<>();
+    for (int door = 0; door < doors; door++) {
+      elevatorDoors.add(new int[]{door, variant, -door});
+    }
+    int[] offsets = new int[blocks * 3];
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = i % 7 - 3;
+    }
+    return new ElevatorData(name, new UUID(1, 2), new int[]{0, -64, 0},
+        new int[]{4, floors * 4, 4}, elevatorDoors,
+        Elevator.WriteMode.values()[variant
+            % Elevator.WriteMode.values().length],
+        Elevator.TransitMode.values()[variant
+            % Elevator.TransitMode.values().length],
+        floorsData, blocks == 0 ? null : new CarGeometry(
+            new int[]{1, variant, 1}, offsets, blocks * 31L + variant));
+  }
+
+  /**
+   * Creates an empty temporary file which is deleted when the tests end.
+   *
+   * @return The file.
+   * @throws IOException When the file can't be created.
+   */
+  static File tempFile() throws IOException {
+    File file = File.createTempFile("elevators", ".bin");
+    file.deleteOnExit();
+    Files.delete(file.toPath());
+    return file;
+  }
+
+  /**
+   * Loads a file with a new store.
+   *
+   * @param file The file.
+   * @return Serialized elevators by name.
+   */
+  private static Map<String, String> load(File file) {
+    List<ElevatorData> elevators = new BinaryElevatorStore(
+        new FakePlugin().plugin, file).load();
+    assertNotNull(elevators);
+    Map<String, String> result = new TreeMap<>();
+    for (ElevatorData elevator : elevators) {
+      result.put(elevator.name, elevator.toJson().toString());
+    }
+    return result;
+  }
+
+  /**
+   * Gets the type of every record of a file.
+   *
+   * @param bytes Content of the file.
+   * @return Type of the record in every slot.
+   */
+  private static byte[] types(byte[] bytes) {
+    byte[] types = new byte[(bytes.length - HEADER_SIZE) / RECORD_SIZE];
+    for (int slot = 0; slot < types.length; slot++) {
+      types[slot] = bytes[HEADER_SIZE + slot * RECORD_SIZE];
+    }
+    return types;
+  }
+
+  /**
+   * Added, changed and removed elevators are loaded as they were saved,
+   * including names spanning several records and large cars.
+   *
+   * @throws IOException When the file can't be created.
+   */
+  @Test
+  public void roundTrip() throws IOException {
+    File file = tempFile();
+    FakePlugin plugin = new FakePlugin();
+    BinaryElevatorStore store = new BinaryElevatorStore(plugin.plugin, file);
+    String longName = "an elevator whose name is longer than a single "
+        + "name record can hold, \u00e1rv\u00edzt\u0171r\u0151";
+    store.replaceAll(Arrays.asList(elevator(longName, 5, 3, 40, 0),
+        elevator("b", 2, 1, 0, 0), elevator("c", 1, 0, 3, 0)));
+    store.put(elevator(longName, 3, 2, 17, 1));
+    store.put(elevator("d", 4, 2, 8, 2));
+    store.remove("b");
+    plugin.runTasks();
+    store.flush();
+
+    Map<String, String> loaded = load(file);
+    assertEquals(new TreeSet<>(Arrays.asList(longName, "c", "d")),
+        loaded.keySet());
+    assertEquals(elevator(longName, 3, 2, 17, 1).toJson().toString(),
+        loaded.get(longName));
+    assertEquals(elevator("c", 1, 0, 3, 0).toJson().toString(),
+        loaded.get("c"));
+    assertEquals(elevator("d", 4, 2, 8, 2).toJson().toString(),
+        loaded.get("d"));
+  }
+
+  /**
+   * The records of the previous version of an elevator are not freed
+   * before the file is forced to the disk after a change, so if the disk
+   * holds any part of the change's writes after a power loss, the
+   * elevator is loaded as it was before or after the change.
+   *
+   * @throws IOException When the file can't be read.
+   */
+  @Test
+  public void tornUpdateLoadsEitherVersion() throws IOException {
+    File file = tempFile();
+    FakePlugin plugin = new FakePlugin();
+    BinaryElevatorStore store = new BinaryElevatorStore(plugin.plugin, file);
+    ElevatorData before = elevator("a", 6, 3, 30, 0);
+    ElevatorData after = elevator("a", 4, 2, 12, 1);
+    ElevatorData other = elevator("b", 2, 1, 5, 0);
+    store.replaceAll(Arrays.asList(before, other));
+    byte[] forced = Files.readAllBytes(file.toPath());
+    // changed in memory, not forced to the disk yet
+    store.put(after);
+    byte[] written = Files.readAllBytes(file.toPath());
+
+    byte[] forcedTypes = types(forced);
+    byte[] writtenTypes = types(written);
+    for (int slot = 0; slot < forcedTypes.length; slot++) {
+      assertTrue(forcedTypes[slot] == 0 || writtenTypes[slot] != 0);
+    }
+
+    Set<String> versions = new HashSet<>(Arrays.asList(
+        before.toJson().toString(), after.toJson().toString()));
+    Random random = new Random(13);
+    for (int i = 0; i < 200; i++) {
+      // the disk holds any subset of the pages written since the force,
+      // and records may be torn at any byte
+      byte[] disk = Arrays.copyOf(forced, written.length);
+      System.arraycopy(written, 0, disk, 0, HEADER_SIZE);
+      for (int offset = HEADER_SIZE; offset < written.length;
+           offset += RECORD_SIZE) {
+        int length = random.nextInt(3) == 0 ? random.nextInt(RECORD_SIZE)
+            : random.nextBoolean() ? RECORD_SIZE : 0;
+        System.arraycopy(written, offset, disk, offset, length);
+      }
+      File crashed = tempFile();
+      Files.write(crashed.toPath(), disk);
+      Map<String, String> loaded = load(crashed);
+      assertEquals(other.toJson().toString(), loaded.get("b"));
+      assertTrue(versions.contains(loaded.get("a")));
+      // the cleaned up file loads the same version again
+      assertEquals(loaded, load(crashed));
+    }
+    Files.write(file.toPath(), written);
+    assertEquals(after.toJson().toString(), load(file).get("a"));
+  }
+
+  /**
+   * The records replaced by changes are freed once the file was forced,
+   * and reused by later changes, so the file doesn't grow.
+   *
+   * @throws IOException When the file can't be created.
+   */
+  @Test
+  public void replacedRecordsReused() throws IOException {
+    File file = tempFile();
+    FakePlugin plugin = new FakePlugin();
+    BinaryElevatorStore store = new BinaryElevatorStore(plugin.plugin, file);
+    store.replaceAll(Collections.singletonList(elevator("a", 8, 2, 20, 0)));
+    long length = -1;
+    for (int i = 1; i <= 50; i++) {
+      store.put(elevator("a", 8, 2, 20, i));
+      plugin.runTasks();
+      if (i == 2) {
+        length = file.length();
+      }
+    }
+    assertEquals(length, file.length());
+    assertEquals(elevator("a", 8, 2, 20, 50).toJson().toString(),
+        load(file).get("a"));
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link BlockKey}.
+ */
+public class BlockKeyTest {
+  /**
+   * Lowest X and Z coordinate which can be packed.
+   */
+  private static final int MIN_HORIZONTAL = -(1 << 25);
+
+  /**
+   * Highest X and Z coordinate which can be packed.
+   */
+  private static final int MAX_HORIZONTAL = (1 << 25) - 1;
+
+  /**
+   * Lowest Y coordinate which can be packed.
+   */
+  private static final int MIN_Y = -(1 << 11);
+
+  /**
+   * Highest Y coordinate which can be packed.
+   */
+  private static final int MAX_Y = (1 << 11) - 1;
+
+  /**
+   * Coordinates are unpacked as they were packed, including negative and
+   * extreme coordinates.
+   */
+  @Test
+  public void packUnpack() {
+    int[] horizontal = {0, 1, -1, 12345, -12345, MIN_HORIZONTAL,
+        MAX_HORIZONTAL};
+    int[] vertical = {0, 1, -1, -64, 319, MIN_Y, MAX_Y};
+    for (int x : horizontal) {
+      for (int y : vertical) {
+        for (int z : horizontal) {
+          long key = BlockKey.pack(x, y, z);
+          assertEquals(x, BlockKey.x(key));
+          assertEquals(y, BlockKey.y(key));
+          assertEquals(z, BlockKey.z(key));
+        }
+      }
+    }
+  }
+
+  /**
+   * Keys are ordered by the Y coordinate first, whatever the X and Z
+   * coordinates are.
+   */
+  @Test
+  public void orderedByY() {
+    int[] horizontal = {0, -1, MIN_HORIZONTAL, MAX_HORIZONTAL};
+    for (int y = -65; y < 64; y++) {
+      for (int x1 : horizontal) {
+        for (int z1 : horizontal) {
+          for (int x2 : horizontal) {
+            for (int z2 : horizontal) {
+              assertTrue(BlockKey.pack(x1, y, z1)
+                  < BlockKey.pack(x2, y + 1, z2));
+            }
+          }
+        }
+      }
+    }
+    assertTrue(BlockKey.pack(MAX_HORIZONTAL, MIN_Y, MAX_HORIZONTAL)
+        < BlockKey.pack(MIN_HORIZONTAL, MAX_Y, MIN_HORIZONTAL));
+  }
+
+  /**
+   * Neighboring blocks have distinct keys.
+   */
+  @Test
+  public void distinctKeys() {
+    long key = BlockKey.pack(-1, -1, -1);
+    assertTrue(key != BlockKey.pack(0, -1, -1));
+    assertTrue(key != BlockKey.pack(-1, 0, -1));
+    assertTrue(key != BlockKey.pack(-1, -1, 0));
+  }
+}
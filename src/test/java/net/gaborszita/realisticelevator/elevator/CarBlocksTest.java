@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link CarBlocks}.
+ */
+public class CarBlocksTest {
+  /**
+   * Appended blocks are sorted by their Y coordinate.
+   */
+  @Test
+  public void sortedByY() {
+    CarBlocks car = new CarBlocks();
+    car.append(5, 3, -2);
+    car.append(-7, -10, 4);
+    car.append(0, 0, 0);
+    car.sort();
+    assertEquals(3, car.size());
+    assertEquals(-10, car.minY());
+    assertEquals(3, car.maxY());
+    for (int i = 1; i < car.size(); i++) {
+      assertTrue(car.y(i - 1) <= car.y(i));
+    }
+  }
+
+  /**
+   * Translating moves every block without rewriting the keys, and blocks
+   * added afterwards are found at the coordinates they were added at.
+   */
+  @Test
+  public void translate() {
+    CarBlocks car = new CarBlocks();
+    car.add(1, 2, 3);
+    car.add(-1, -2, -3);
+    int modCount = car.modCount();
+    car.translate(5);
+    assertEquals(modCount, car.modCount());
+    assertTrue(car.contains(1, 7, 3));
+    assertTrue(car.contains(-1, 3, -3));
+    assertFalse(car.contains(1, 2, 3));
+    assertEquals(3, car.minY());
+    assertEquals(7, car.maxY());
+
+    assertTrue(car.add(4, 0, 4));
+    assertFalse(car.add(4, 0, 4));
+    int index = car.indexOf(4, 0, 4);
+    assertEquals(4, car.x(index));
+    assertEquals(0, car.y(index));
+    assertEquals(4, car.z(index));
+
+    car.translate(-5);
+    assertTrue(car.contains(1, 2, 3));
+    assertTrue(car.contains(4, -5, 4));
+    assertTrue(car.remove(4, -5, 4));
+    assertFalse(car.contains(4, -5, 4));
+    assertEquals(2, car.size());
+  }
+
+  /**
+   * The master block is the block with the lowest X, then lowest Y, then
+   * lowest Z coordinate, and follows the car when it moves.
+   */
+  @Test
+  public void masterIndex() {
+    CarBlocks car = new CarBlocks();
+    assertEquals(-1, car.masterIndex());
+    car.add(0, 0, 0);
+    car.add(-1, 5, 2);
+    car.add(-1, 5, 1);
+    car.add(-1, 6, 0);
+    int master = car.masterIndex();
+    assertEquals(-1, car.x(master));
+    assertEquals(5, car.y(master));
+    assertEquals(1, car.z(master));
+    car.translate(-3);
+    assertEquals(2, car.y(car.masterIndex()));
+  }
+}
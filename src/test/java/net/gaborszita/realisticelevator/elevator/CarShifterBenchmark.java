@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.gaborszita.realisticelevator.elevator;
+
+import org.bukkit.Material;
+import org.junit.Test;
+
+/**
+ * Measures the cost of moving cars of 50, 500 and 5,000 blocks by one
+ * block. The world is the proxy based {@link FakeWorld}, so the absolute
+ * times include its overhead; they show how a step scales with the size of
+ * the car. Not run with the tests, run it with
+ * {@code mvn test -Dtest=CarShifterBenchmark}.
+ */
+public class CarShifterBenchmark {
+  /**
+   * Number of steps run before measuring, to warm up the JIT.
+   */
+  private static final int WARMUP_STEPS = 1000;
+
+  /**
+   * Number of steps measured.
+   */
+  private static final int STEPS = 1000;
+
+  /**
+   * Creates a cuboid car in a world, with alternating block types, so
+   * every block of the car changes when it moves by one block.
+   *
+   * @param world The world.
+   * @param sizeX Length of the car along the X axis.
+   * @param sizeY Height of the car.
+   * @param sizeZ Length of the car along the Z axis.
+   * @return Blocks of the car.
+   */
+  private static CarBlocks car(FakeWorld world, int sizeX, int sizeY,
+                               int sizeZ) {
+    CarBlocks car = new CarBlocks();
+    for (int x = 0; x < sizeX; x++) {
+      for (int y = 0; y < sizeY; y++) {
+        for (int z = 0; z < sizeZ; z++) {
+          world.set(x, y, z, (x + y + z) % 2 == 0 ? Material.STONE
+              : Material.GLASS);
+          car.append(x, y, z);
+        }
+      }
+    }
+    car.sort();
+    return car;
+  }
+
+  /**
+   * Moves a car up and down by one block at a time, and prints the
+   * average time and number of writes of a step.
+   *
+   * @param sizeX Length of the car along the X axis.
+   * @param sizeY Height of the car.
+   * @param sizeZ Length of the car along the Z axis.
+   * @param mode How the blocks are written.
+   */
+  private static void measure(int sizeX, int sizeY, int sizeZ,
+                              Elevator.WriteMode mode) {
+    FakeWorld world = new FakeWorld();
+    CarBlocks car = car(world, sizeX, sizeY, sizeZ);
+    CarShifter shifter = new CarShifter();
+    for (int step = 0; step < WARMUP_STEPS; step++) {
+      shifter.shift(world.world, car, step % 2 == 0 ? 1 : -1, mode);
+      world.writes.clear();
+    }
+    long writes = 0;
+    long start = System.nanoTime();
+    for (int step = 0; step < STEPS; step++) {
+      shifter.shift(world.world, car, step % 2 == 0 ? 1 : -1, mode);
+      writes += world.writes.size();
+      world.writes.clear();
+    }
+    long nanos = System.nanoTime() - start;
+    System.out.printf("%,6d blocks %-9s %,10d ns/step, %,6d writes/step%n",
+        car.size(), mode, nanos / STEPS, writes / STEPS);
+  }
+
+  /**
+   * Measures cars of 50, 500 and 5,000 blocks in both write modes.
+   */
+  @Test
+  public void stepCost() {
+    for (Elevator.WriteMode mode : Elevator.WriteMode.values()) {
+      measure(5, 2, 5, mode);
+      measure(10, 5, 10, mode);
+      measure(25, 8, 25, mode);
+    }
+  }
+}
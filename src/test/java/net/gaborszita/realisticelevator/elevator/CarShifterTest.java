@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import org.bukkit.Material;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link CarShifter}.
+ */
+public class CarShifterTest {
+  /**
+   * Creates a box shaped car of stone blocks in a world.
+   *
+   * @param world The world.
+   * @param size Length of the sides of the box.
+   * @param minY Y coordinate of the bottom of the box.
+   * @return Blocks of the car.
+   */
+  private static CarBlocks box(FakeWorld world, int size, int minY) {
+    CarBlocks car = new CarBlocks();
+    for (int x = 0; x < size; x++) {
+      for (int y = minY; y < minY + size; y++) {
+        for (int z = 0; z < size; z++) {
+          world.set(x, y, z, Material.STONE);
+          car.append(x, y, z);
+        }
+      }
+    }
+    car.sort();
+    return car;
+  }
+
+  /**
+   * Moving a car moves its blocks in the world, clears the positions left
+   * behind and translates the car's coordinates.
+   */
+  @Test
+  public void shiftMovesBlocks() {
+    FakeWorld world = new FakeWorld();
+    CarBlocks car = box(world, 2, -64);
+    world.set(0, -63, 0, Material.GLASS);
+    new CarShifter().shift(world.world, car, 3,
+        Elevator.WriteMode.IMMEDIATE);
+    for (int x = 0; x < 2; x++) {
+      for (int z = 0; z < 2; z++) {
+        assertEquals(Material.AIR, world.get(x, -64, z));
+        assertEquals(Material.AIR, world.get(x, -63, z));
+        assertEquals(Material.STONE, world.get(x, -61, z));
+      }
+    }
+    assertEquals(Material.GLASS, world.get(0, -60, 0));
+    assertEquals(Material.STONE, world.get(1, -60, 1));
+    assertEquals(-61, car.minY());
+    assertEquals(-60, car.maxY());
+    assertTrue(car.contains(0, -60, 0));
+    assertFalse(car.contains(0, -64, 0));
+  }
+
+  /**
+   * Blocks whose new position already holds the same data are not
+   * written, so moving a uniform column by one block writes its new top
+   * and clears its old bottom only.
+   */
+  @Test
+  public void uniformColumnWritesEnds() {
+    FakeWorld world = new FakeWorld();
+    CarBlocks car = new CarBlocks();
+    for (int y = 10; y < 15; y++) {
+      world.set(7, y, -7, Material.STONE);
+      car.add(7, y, -7);
+    }
+    new CarShifter().shift(world.world, car, 1,
+        Elevator.WriteMode.IMMEDIATE);
+    assertEquals("[STONE@7,15,-7, AIR@7,10,-7]", world.writes.toString());
+  }
+
+  /**
+   * Iron doors are removed before any other block is written, and placed
+   * at their new position after every other block is written, so they
+   * don't break when their neighbors move.
+   */
+  @Test
+  public void ironDoorsMoveLast() {
+    FakeWorld world = new FakeWorld();
+    CarBlocks car = box(world, 3, 0);
+    world.set(1, 1, 0, Material.IRON_DOOR);
+    world.set(1, 2, 0, Material.IRON_DOOR);
+    new CarShifter().shift(world.world, car, -2,
+        Elevator.WriteMode.IMMEDIATE);
+
+    int writes = world.writes.size();
+    assertEquals("AIR@1,1,0", world.writes.get(0).toString());
+    assertEquals("AIR@1,2,0", world.writes.get(1).toString());
+    assertEquals("IRON_DOOR@1,-1,0", world.writes.get(writes - 2)
+        .toString());
+    assertEquals("IRON_DOOR@1,0,0", world.writes.get(writes - 1)
+        .toString());
+    for (int i = 2; i < writes - 2; i++) {
+      assertTrue(world.writes.get(i).material != Material.IRON_DOOR);
+    }
+    assertEquals(Material.IRON_DOOR, world.get(1, -1, 0));
+    assertEquals(Material.IRON_DOOR, world.get(1, 0, 0));
+    assertEquals(Material.STONE, world.get(1, -2, 0));
+    assertEquals(Material.AIR, world.get(1, 1, 0));
+    assertEquals(Material.AIR, world.get(1, 2, 0));
+  }
+
+  /**
+   * Moving a car and moving it back restores the world and the car's
+   * coordinates, including its special blocks.
+   */
+  @Test
+  public void shiftBackRestoresWorld() {
+    FakeWorld world = new FakeWorld();
+    CarBlocks car = box(world, 3, 60);
+    world.set(1, 61, 1, Material.GLASS);
+    world.set(0, 61, 2, Material.IRON_DOOR);
+    world.set(0, 62, 2, Material.IRON_DOOR);
+    Map<Long, Material> before = world.snapshot();
+    CarShifter shifter = new CarShifter();
+    shifter.shift(world.world, car, 5, Elevator.WriteMode.IMMEDIATE);
+    shifter.shift(world.world, car, -2, Elevator.WriteMode.DEFERRED);
+    shifter.shift(world.world, car, -3, Elevator.WriteMode.IMMEDIATE);
+    assertEquals(before, world.snapshot());
+    assertEquals(60, car.minY());
+    assertEquals(62, car.maxY());
+  }
+
+  /**
+   * In deferred mode, blocks inside the car are written without physics
+   * and blocks on its outside with physics.
+   */
+  @Test
+  public void deferredAppliesPhysicsToShell() {
+    FakeWorld world = new FakeWorld();
+    CarBlocks car = box(world, 3, 0);
+    world.set(1, 1, 1, Material.GLASS);
+    new CarShifter().shift(world.world, car, 1,
+        Elevator.WriteMode.DEFERRED);
+    boolean glassWritten = false;
+    for (FakeWorld.Write write : world.writes) {
+      if (write.material == Material.GLASS) {
+        assertFalse(write.physics);
+        glassWritten = true;
+      } else if (write.y == 3) {
+        assertTrue(write.physics);
+      }
+    }
+    assertTrue(glassWritten);
+    assertEquals(Material.GLASS, world.get(1, 2, 1));
+    assertEquals(Material.STONE, world.get(1, 1, 1));
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Measures the load time and the size on disk of many synthetic elevators
+ * in the single elevators file read by the old loadElevators, and in the
+ * JSON and binary storages. The SQLite storage needs the driver bundled
+ * with the server, so it isn't measured. Not run with the tests, run it
+ * with {@code mvn test -Dtest=ElevatorStoreBenchmark}.
+ */
+public class ElevatorStoreBenchmark {
+  /**
+   * Number of elevators.
+   */
+  private static final int ELEVATORS = 10000;
+
+  /**
+   * Number of times every load is run. The first runs warm up the JIT.
+   */
+  private static final int RUNS = 5;
+
+  /**
+   * Creates the synthetic elevators, with 8 floors, 2 doors and a car of
+   * 50 blocks each.
+   *
+   * @return Data of the elevators.
+   */
+  private static List<ElevatorData> elevators() {
+    List<ElevatorData> elevators = new ArrayList<>(ELEVATORS);
+    for (int i = 0; i < ELEVATORS; i++) {
+      elevators.add(BinaryElevatorStoreTest.elevator("elevator" + i, 8, 2,
+          50, i));
+    }
+    return elevators;
+  }
+
+  /**
+   * Gets the size of a file, or of all files in a directory.
+   *
+   * @param file The file or directory.
+   * @return Size in bytes.
+   * @throws IOException When the directory can't be listed.
+   */
+  private static long size(File file) throws IOException {
+    try (Stream<Path> paths = Files.walk(file.toPath())) {
+      return paths.map(Path::toFile).filter(File::isFile)
+          .mapToLong(File::length).sum();
+    }
+  }
+
+  /**
+   * Deletes a file, or a directory with its files.
+   *
+   * @param file The file or directory.
+   * @throws IOException When a file can't be deleted.
+   */
+  private static void delete(File file) throws IOException {
+    try (Stream<Path> paths = Files.walk(file.toPath())) {
+      for (Path path : (Iterable<Path>) paths
+          .sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  /**
+   * Loads the elevators several times, and prints the time of the fastest
+   * load and the size of the files.
+   *
+   * @param name Name of the format.
+   * @param file The file or directory holding the elevators.
+   * @param writeMillis Time it took to write the elevators.
+   * @param load Loads the elevators.
+   * @throws IOException When the size of the files can't be read.
+   */
+  private static void measure(String name, File file, long writeMillis,
+                              Supplier<List<ElevatorData>> load)
+      throws IOException {
+    long best = Long.MAX_VALUE;
+    for (int run = 0; run < RUNS; run++) {
+      long start = System.nanoTime();
+      List<ElevatorData> loaded = load.get();
+      best = Math.min(best, System.nanoTime() - start);
+      assertNotNull(loaded);
+      assertEquals(ELEVATORS, loaded.size());
+    }
+    System.out.printf("%-22s write %6d ms, load %6d ms, %,12d bytes%n",
+        name, writeMillis, best / 1000000, size(file));
+  }
+
+  /**
+   * Writes the elevators in every format, and measures their loads.
+   *
+   * @throws IOException When the files can't be written.
+   */
+  @Test
+  public void loadAndSize() throws IOException {
+    List<ElevatorData> elevators = elevators();
+    File directory = Files.createTempDirectory("elevators").toFile();
+    FakePlugin plugin = new FakePlugin();
+    try {
+      File legacyFile = new File(directory, "elevators.json");
+      long start = System.nanoTime();
+      JSONArray elevatorsJson = new JSONArray();
+      for (ElevatorData elevator : elevators) {
+        elevatorsJson.put(elevator.toJson());
+      }
+      JSONObject main = new JSONObject();
+      main.put("version", 2);
+      main.put("elevators", elevatorsJson);
+      JsonElevatorStore.writeFile(legacyFile, main.toString());
+      measure("single file (old)", legacyFile,
+          (System.nanoTime() - start) / 1000000, () -> {
+            try {
+              return new ElevatorsFileReader(legacyFile, 2,
+                  plugin.plugin.getLogger()).read();
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          });
+
+      File jsonDirectory = new File(directory, "json");
+      start = System.nanoTime();
+      JsonElevatorStore json = new JsonElevatorStore(plugin.plugin,
+          jsonDirectory);
+      json.replaceAll(elevators);
+      json.flush();
+      measure("json storage", jsonDirectory,
+          (System.nanoTime() - start) / 1000000,
+          () -> new JsonElevatorStore(plugin.plugin, jsonDirectory).load());
+
+      File binaryFile = new File(directory, "elevators.bin");
+      start = System.nanoTime();
+      BinaryElevatorStore binary = new BinaryElevatorStore(plugin.plugin,
+          binaryFile);
+      binary.replaceAll(elevators);
+      binary.flush();
+      long binaryWrite = (System.nanoTime() - start) / 1000000;
+      binary.close();
+      measure("binary storage", binaryFile, binaryWrite, () -> {
+        BinaryElevatorStore store = new BinaryElevatorStore(plugin.plugin,
+            binaryFile);
+        List<ElevatorData> loaded = store.load();
+        store.close();
+        return loaded;
+      });
+    } finally {
+      delete(directory);
+    }
+  }
+}
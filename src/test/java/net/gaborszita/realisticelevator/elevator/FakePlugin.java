@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import org.bukkit.Server;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Plugin for tests, whose scheduler queues the tasks until they are run
+ * explicitly, so tests decide when scheduled work happens. Only the methods
+ * used by the elevator stores are implemented; the plugin, its server and
+ * the scheduler are proxies, so no server is needed.
+ */
+final class FakePlugin {
+  /**
+   * Logger of the plugin. Warnings are expected in tests, so nothing is
+   * logged.
+   */
+  private final Logger logger = Logger.getAnonymousLogger();
+
+  /**
+   * Tasks which were scheduled and not run or cancelled yet, in order.
+   */
+  private final List<Runnable> tasks = new ArrayList<>();
+
+  /**
+   * The scheduler.
+   */
+  private final BukkitScheduler scheduler = (BukkitScheduler)
+      Proxy.newProxyInstance(BukkitScheduler.class.getClassLoader(),
+          new Class<?>[]{BukkitScheduler.class}, (proxy, method, args) -> {
+            if (!method.getName().startsWith("runTask")) {
+              throw new UnsupportedOperationException(method.getName());
+            }
+            Runnable task = (Runnable) args[1];
+            tasks.add(task);
+            return Proxy.newProxyInstance(
+                BukkitTask.class.getClassLoader(),
+                new Class<?>[]{BukkitTask.class}, (task2, method2, args2) -> {
+                  if (!method2.getName().equals("cancel")) {
+                    throw new UnsupportedOperationException(
+                        method2.getName());
+                  }
+                  tasks.remove(task);
+                  return null;
+                });
+          });
+
+  /**
+   * The server.
+   */
+  private final Server server = (Server) Proxy.newProxyInstance(
+      Server.class.getClassLoader(), new Class<?>[]{Server.class},
+      (proxy, method, args) -> {
+        if (method.getName().equals("getScheduler")) {
+          return scheduler;
+        }
+        throw new UnsupportedOperationException(method.getName());
+      });
+
+  /**
+   * The plugin.
+   */
+  final Plugin plugin = (Plugin) Proxy.newProxyInstance(
+      Plugin.class.getClassLoader(), new Class<?>[]{Plugin.class},
+      (proxy, method, args) -> {
+        switch (method.getName()) {
+          case "getLogger":
+            return logger;
+          case "getServer":
+            return server;
+          case "isEnabled":
+            return true;
+          default:
+            throw new UnsupportedOperationException(method.getName());
+        }
+      });
+
+  /**
+   * Constructor.
+   */
+  FakePlugin() {
+    logger.setLevel(Level.OFF);
+  }
+
+  /**
+   * Runs the scheduled tasks, including the tasks they schedule, until no
+   * task is left. Tasks run on the calling thread, whether they were
+   * scheduled synchronously or asynchronously.
+   */
+  void runTasks() {
+    while (!tasks.isEmpty()) {
+      tasks.remove(0).run();
+    }
+  }
+}
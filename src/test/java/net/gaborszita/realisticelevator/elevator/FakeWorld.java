@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.gaborszita.realisticelevator.elevator;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+
+import javax.annotation.Nonnull;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * World for tests, holding block data in a map and recording every block
+ * write. Only the methods used by the car shifter are implemented; the
+ * world, its blocks and their block data are proxies, so no server is
+ * needed.
+ */
+final class FakeWorld {
+  /**
+   * Block data of the blocks which are not air, by block key.
+   */
+  private final Map<Long, Material> blocks = new HashMap<>();
+
+  /**
+   * Writes to the world, in order.
+   */
+  final List<Write> writes = new ArrayList<>();
+
+  /**
+   * The world.
+   */
+  final World world = (World) Proxy.newProxyInstance(
+      World.class.getClassLoader(), new Class<?>[]{World.class},
+      (proxy, method, args) -> {
+        if (method.getName().equals("getBlockAt") && args.length == 3) {
+          return block((Integer) args[0], (Integer) args[1],
+              (Integer) args[2]);
+        }
+        throw new UnsupportedOperationException(method.getName());
+      });
+
+  /**
+   * Sets a block without recording the write.
+   *
+   * @param x X coordinate of the block.
+   * @param y Y coordinate of the block.
+   * @param z Z coordinate of the block.
+   * @param material Type of the block.
+   */
+  void set(int x, int y, int z, @Nonnull Material material) {
+    if (material == Material.AIR) {
+      blocks.remove(BlockKey.pack(x, y, z));
+    } else {
+      blocks.put(BlockKey.pack(x, y, z), material);
+    }
+  }
+
+  /**
+   * Gets the type of a block.
+   *
+   * @param x X coordinate of the block.
+   * @param y Y coordinate of the block.
+   * @param z Z coordinate of the block.
+   * @return Type of the block.
+   */
+  @Nonnull
+  Material get(int x, int y, int z) {
+    return blocks.getOrDefault(BlockKey.pack(x, y, z), Material.AIR);
+  }
+
+  /**
+   * Gets a copy of the blocks which are not air.
+   *
+   * @return Types of the blocks, by block key.
+   */
+  @Nonnull
+  Map<Long, Material> snapshot() {
+    return new HashMap<>(blocks);
+  }
+
+  /**
+   * Creates block data of a type. Block data of the same type are equal.
+   *
+   * @param material Type of the block.
+   * @return The block data.
+   */
+  @Nonnull
+  static BlockData data(@Nonnull Material material) {
+    return (BlockData) Proxy.newProxyInstance(
+        BlockData.class.getClassLoader(), new Class<?>[]{BlockData.class},
+        new DataHandler(material));
+  }
+
+  /**
+   * Creates a block of the world.
+   *
+   * @param x X coordinate of the block.
+   * @param y Y coordinate of the block.
+   * @param z Z coordinate of the block.
+   * @return The block.
+   */
+  @Nonnull
+  private Block block(int x, int y, int z) {
+    return (Block) Proxy.newProxyInstance(Block.class.getClassLoader(),
+        new Class<?>[]{Block.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getX":
+              return x;
+            case "getY":
+              return y;
+            case "getZ":
+              return z;
+            case "getType":
+              return get(x, y, z);
+            case "getBlockData":
+              return data(get(x, y, z));
+            case "setType":
+              write(x, y, z, (Material) args[0],
+                  args.length < 2 || (Boolean) args[1]);
+              return null;
+            case "setBlockData":
+              write(x, y, z, ((DataHandler) Proxy.getInvocationHandler(
+                  args[0])).material, args.length < 2 || (Boolean) args[1]);
+              return null;
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  /**
+   * Sets a block and records the write.
+   *
+   * @param x X coordinate of the block.
+   * @param y Y coordinate of the block.
+   * @param z Z coordinate of the block.
+   * @param material Type of the block.
+   * @param physics Whether physics were applied.
+   */
+  private void write(int x, int y, int z, @Nonnull Material material,
+                     boolean physics) {
+    set(x, y, z, material);
+    writes.add(new Write(x, y, z, material, physics));
+  }
+
+  /**
+   * A write to the world.
+   */
+  static final class Write {
+    /**
+     * X coordinate of the block.
+     */
+    final int x;
+
+    /**
+     * Y coordinate of the block.
+     */
+    final int y;
+
+    /**
+     * Z coordinate of the block.
+     */
+    final int z;
+
+    /**
+     * Type written.
+     */
+    final Material material;
+
+    /**
+     * Whether physics were applied.
+     */
+    final boolean physics;
+
+    /**
+     * Constructor.
+     *
+     * @param x X coordinate of the block.
+     * @param y Y coordinate of the block.
+     * @param z Z coordinate of the block.
+     * @param material Type written.
+     * @param physics Whether physics were applied.
+     */
+    Write(int x, int y, int z, @Nonnull Material material, boolean physics) {
+      this.x = x;
+      this.y = y;
+      this.z = z;
+      this.material = material;
+      this.physics = physics;
+    }
+
+    @Override
+    public String toString() {
+      return material + "@" + x + "," + y + "," + z
+          + (physics ? "" : " (no physics)");
+    }
+  }
+
+  /**
+   * Handles the calls of block data proxies.
+   */
+  private static final class DataHandler implements InvocationHandler {
+    /**
+     * Type of the block.
+     */
+    private final Material material;
+
+    /**
+     * Constructor.
+     *
+     * @param material Type of the block.
+     */
+    private DataHandler(@Nonnull Material material) {
+      this.material = material;
+    }
+
+    @Override
+    public Object invoke(Object proxy, java.lang.reflect.Method method,
+                         Object[] args) {
+      switch (method.getName()) {
+        case "getMaterial":
+          return material;
+        case "equals":
+          return args[0] != null && Proxy.isProxyClass(args[0].getClass())
+              && Proxy.getInvocationHandler(args[0]) instanceof DataHandler
+              && ((DataHandler) Proxy.getInvocationHandler(args[0]))
+              .material == material;
+        case "hashCode":
+          return material.hashCode();
+        case "toString":
+          return material.toString();
+        default:
+          throw new UnsupportedOperationException(method.getName());
+      }
+    }
+  }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2022 Gabor Szita
+ *
+ * This file is part of RealisticElevator.
+ *
+ * RealisticElevator is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * RealisticElevator is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with RealisticElevator. If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.gaborszita.realisticelevator.elevator;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link StopQueue}.
+ */
+public class StopQueueTest {
+  /**
+   * Creates an index of floors 0 to count - 1, 4 blocks apart, starting
+   * at Y 0.
+   *
+   * @param count Number of floors.
+   * @return The index.
+   */
+  private static FloorIndex floors(int count) {
+    Map<Integer, Integer> floorYs = new HashMap<>();
+    for (int floor = 0; floor < count; floor++) {
+      floorYs.put(floor, floor * 4);
+    }
+    return new FloorIndex(floorYs);
+  }
+
+  /**
+   * Runs a car from a Y coordinate until every request is served, as the
+   * mover does: the car stops at its floor if it has to, otherwise it goes
+   * to the next stop in its direction, and it turns around when there is
+   * no request left in its direction.
+   *
+   * @param queue Requests of the car.
+   * @param floors Index of the floors of the queue.
+   * @param y Y coordinate of the car.
+   * @param direction Initial direction of the car, 1 for up, -1 for down.
+   * @return Floor numbers of the stops, in order.
+   */
+  private static List<Integer> run(StopQueue queue, FloorIndex floors,
+                                   int y, byte direction) {
+    List<Integer> served = new ArrayList<>();
+    boolean turned = false;
+    while (!queue.isEmpty()) {
+      int next = floors.indexAt(y);
+      if (next < 0 || !queue.stopsAt(next, direction)) {
+        next = queue.nextStop(y, direction);
+      }
+      if (next < 0) {
+        assertFalse(turned);
+        turned = true;
+        direction = (byte) -direction;
+        continue;
+      }
+      turned = false;
+      y = floors.y(next);
+      queue.serve(next, direction);
+      served.add(floors.floorNumber(next));
+    }
+    return served;
+  }
+
+  /**
+   * Runs a car as the mover did when the stops were kept in a set: the car
+   * stops at its floor if there is a stop, otherwise it goes to the
+   * closest stop in its direction, and it turns around when there is none.
+   * Floors are 4 blocks apart, starting at Y 0.
+   *
+   * @param stops Floor numbers of the stops.
+   * @param y Y coordinate of the car.
+   * @param direction Initial direction of the car, 1 for up, -1 for down.
+   * @return Floor numbers of the stops, in order.
+   */
+  private static List<Integer> runSet(Set<Integer> stops, int y,
+                                      byte direction) {
+    List<Integer> served = new ArrayList<>();
+    boolean turned = false;
+    while (!stops.isEmpty()) {
+      Integer target = null;
+      for (int stop : stops) {
+        int stopY = stop * 4;
+        if (direction > 0 ? stopY >= y && (target == null || stop < target)
+            : stopY <= y && (target == null || stop > target)) {
+          target = stop;
+        }
+      }
+      if (target == null) {
+        assertFalse(turned);
+        turned = true;
+        direction = (byte) -direction;
+        continue;
+      }
+      turned = false;
+      y = target * 4;
+      stops.remove(target);
+      served.add(target);
+    }
+    return served;
+  }
+
+  /**
+   * Checks if there are requests beyond a floor in a direction.
+   *
+   * @param requests Directions requested at every floor.
+   * @param floor Floor number.
+   * @param direction The direction, 1 for up, -1 for down.
+   * @return True if there are requests beyond the floor, false otherwise.
+   */
+  private static boolean hasRequestBeyond(Map<Integer, Set<Byte>> requests,
+                                          int floor, byte direction) {
+    for (int other : requests.keySet()) {
+      if ((other - floor) * direction > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Runs a car with the directional hall call rule checked at every floor
+   * in turn: the car stops for undirected stops and calls in its direction,
+   * and for calls in the other direction only if there is no request
+   * beyond the floor. Floors 0 to 29 are 4 blocks apart, starting at Y 0.
+   *
+   * @param requests Directions requested at every floor, 0 for an
+   *                 undirected stop, 1 for up and -1 for down.
+   * @param y Y coordinate of the car.
+   * @param direction Initial direction of the car, 1 for up, -1 for down.
+   * @return Floor numbers of the stops, in order.
+   */
+  private static List<Integer> runCalls(
+      Map<Integer, Set<Byte>> requests, int y, byte direction) {
+    List<Integer> served = new ArrayList<>();
+    boolean turned = false;
+    while (!requests.isEmpty()) {
+      Integer target = null;
+      // the car's floor first, if it is at one
+      for (int floor = direction > 0 ? Math.floorDiv(y + 3, 4)
+          : Math.floorDiv(y, 4); floor >= 0 && floor < 30;
+           floor += direction) {
+        Set<Byte> floorRequests = requests.get(floor);
+        if (floorRequests != null && (floorRequests.contains((byte) 0)
+            || floorRequests.contains(direction)
+            || !hasRequestBeyond(requests, floor, direction))) {
+          target = floor;
+          break;
+        }
+      }
+      if (target == null) {
+        assertFalse(turned);
+        turned = true;
+        direction = (byte) -direction;
+        continue;
+      }
+      turned = false;
+      y = target * 4;
+      Set<Byte> floorRequests = requests.get(target);
+      floorRequests.remove((byte) 0);
+      floorRequests.remove(direction);
+      if (!hasRequestBeyond(requests, target, direction)) {
+        floorRequests.clear();
+      }
+      if (floorRequests.isEmpty()) {
+        requests.remove(target);
+      }
+      served.add(target);
+    }
+    return served;
+  }
+
+  /**
+   * The next stop is the closest request strictly beyond the car in its
+   * direction, and there is none past the last request.
+   */
+  @Test
+  public void nextStop() {
+    FloorIndex floors = floors(6);
+    StopQueue queue = new StopQueue(floors);
+    queue.add(1);
+    queue.add(4);
+    assertEquals(4, queue.nextStop(9, (byte) 1));
+    assertEquals(1, queue.nextStop(9, (byte) -1));
+    assertEquals(4, queue.nextStop(4, (byte) 1));
+    assertEquals(-1, queue.nextStop(4, (byte) -1));
+    assertEquals(-1, queue.nextStop(16, (byte) 1));
+    assertEquals(1, queue.nextStop(16, (byte) -1));
+  }
+
+  /**
+   * A car passes a hall call in the other direction, and stops for it at
+   * the end of its sweep.
+   */
+  @Test
+  public void stopsAtEndOfSweep() {
+    FloorIndex floors = floors(5);
+    StopQueue queue = new StopQueue(floors);
+    queue.add(2, (byte) -1);
+    queue.add(4);
+    assertFalse(queue.stopsAt(2, (byte) 1));
+    assertTrue(queue.stopsAt(2, (byte) -1));
+    assertEquals(4, queue.nextStop(0, (byte) 1));
+    queue.serve(4, (byte) 1);
+    assertTrue(queue.stopsAt(2, (byte) 1));
+    assertEquals(2, queue.nextStop(0, (byte) 1));
+
+    queue.add(3, (byte) 1);
+    assertTrue(queue.stopsAt(3, (byte) 1));
+    assertFalse(queue.stopsAt(3, (byte) -1));
+    assertFalse(queue.stopsAt(2, (byte) 1));
+  }
+
+  /**
+   * Serving a floor on the way removes the undirected stop and the hall
+   * call in the car's direction, and keeps the call in the other
+   * direction. Serving it where the car turns around removes both calls.
+   */
+  @Test
+  public void serveTurningAround() {
+    FloorIndex floors = floors(5);
+    StopQueue queue = new StopQueue(floors);
+    queue.add(2);
+    queue.add(2, (byte) 1);
+    queue.add(2, (byte) -1);
+    queue.add(4);
+    queue.serve(2, (byte) 1);
+    assertTrue(queue.contains(2));
+    assertEquals("[4]", Arrays.toString(queue.toArray()));
+    assertEquals(0, queue.callsToArray((byte) 1).length);
+    assertEquals("[2]", Arrays.toString(queue.callsToArray((byte) -1)));
+    assertEquals(2, queue.size());
+
+    queue.remove(4);
+    queue.add(2, (byte) 1);
+    queue.serve(2, (byte) 1);
+    assertFalse(queue.contains(2));
+    assertTrue(queue.isEmpty());
+  }
+
+  /**
+   * A queue for new floors keeps the stops and hall calls of the floors
+   * which still exist, at their new indices, and drops the others.
+   */
+  @Test
+  public void withFloors() {
+    StopQueue queue = new StopQueue(floors(4));
+    queue.add(0);
+    queue.add(1, (byte) 1);
+    queue.add(2, (byte) -1);
+    queue.add(3);
+    Map<Integer, Integer> floorYs = new HashMap<>();
+    // floor 1 moved above floor 3, floor 2 was removed
+    floorYs.put(0, 0);
+    floorYs.put(1, 20);
+    floorYs.put(3, 12);
+    floorYs.put(5, 16);
+    FloorIndex floors = new FloorIndex(floorYs);
+    StopQueue moved = queue.withFloors(floors);
+    assertEquals(3, moved.size());
+    assertEquals("[0, 3]", Arrays.toString(moved.toArray()));
+    assertEquals("[1]", Arrays.toString(moved.callsToArray((byte) 1)));
+    assertEquals(0, moved.callsToArray((byte) -1).length);
+    assertFalse(moved.contains(2));
+    assertFalse(moved.contains(5));
+    assertEquals(1, floors.floorNumber(moved.highest()));
+    assertEquals(3, floors.floorNumber(moved.nextStop(0, (byte) 1)));
+  }
+
+  /**
+   * With undirected stops only, the car serves the floors in the same
+   * order as when the stops were kept in a set.
+   */
+  @Test
+  public void sweepMatchesSet() {
+    Random random = new Random(21);
+    FloorIndex floors = floors(30);
+    for (int i = 0; i < 500; i++) {
+      StopQueue queue = new StopQueue(floors);
+      Set<Integer> stops = new HashSet<>();
+      int count = random.nextInt(12);
+      for (int j = 0; j < count; j++) {
+        int floor = random.nextInt(30);
+        queue.add(floor);
+        stops.add(floor);
+      }
+      int y = random.nextInt(30 * 4);
+      byte direction = random.nextBoolean() ? (byte) 1 : (byte) -1;
+      assertEquals(runSet(stops, y, direction),
+          run(queue, floors, y, direction));
+    }
+  }
+
+  /**
+   * With hall calls in both directions, the car serves the floors in the
+   * order given by the directional call rule, and every request is served.
+   */
+  @Test
+  public void sweepWithCalls() {
+    Random random = new Random(25);
+    FloorIndex floors = floors(30);
+    for (int i = 0; i < 500; i++) {
+      StopQueue queue = new StopQueue(floors);
+      Map<Integer, Set<Byte>> requests = new HashMap<>();
+      int count = random.nextInt(12);
+      for (int j = 0; j < count; j++) {
+        int floor = random.nextInt(30);
+        byte direction = (byte) (random.nextInt(3) - 1);
+        queue.add(floor, direction);
+        requests.computeIfAbsent(floor, k -> new HashSet<>())
+            .add(direction);
+      }
+      Set<Integer> requested = new TreeSet<>(requests.keySet());
+      int y = random.nextInt(30 * 4);
+      byte direction = random.nextBoolean() ? (byte) 1 : (byte) -1;
+      List<Integer> served = run(queue, floors, y, direction);
+      assertEquals(runCalls(requests, y, direction), served);
+      assertEquals(requested, new TreeSet<>(served));
+    }
+  }
+}